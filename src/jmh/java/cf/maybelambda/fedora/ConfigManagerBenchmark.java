@@ -0,0 +1,60 @@
+package cf.maybelambda.fedora;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures parsing of package lists by {@link ConfigManager#loadPackageNamesFrom(String)}
+ * on generated config files with a comment every tenth line.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConfigManagerBenchmark {
+    @Param({"100", "10000", "100000"})
+    int lines;
+
+    private Path file;
+
+    @Setup
+    public void createConfigFile() throws IOException {
+        List<String> content = new ArrayList<>(lines);
+        for (int i = 0; i < lines; i++) {
+            content.add(i % 10 == 0 ? "# Section " + i : "  package-name-" + i + "  ");
+        }
+        file = Files.createTempFile("bench-", ".cf");
+        Files.write(file, content, StandardCharsets.UTF_8);
+    }
+
+    @TearDown
+    public void deleteConfigFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public List<String> loadPackageNamesFrom() {
+        // An absolute name is found through the working directory fallback of readResourceLines
+        return ConfigManager.loadPackageNamesFrom(file.toString());
+    }
+}
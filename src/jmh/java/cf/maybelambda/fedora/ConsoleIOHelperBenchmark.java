@@ -0,0 +1,82 @@
+package cf.maybelambda.fedora;
+
+import static cf.maybelambda.fedora.ConsoleIOHelper.YELLOW;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures {@link ConsoleIOHelper#promptForExclusions(List, Scanner)} on long package lists with
+ * wide ranges, and {@link ConsoleIOHelper#color(String, String)} in a loop as used for command output.
+ * Console output is discarded so that only the helper itself is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsoleIOHelperBenchmark {
+    private static final int COLOR_LOOP_LINES = 1000;
+
+    @Param({"1000", "10000"})
+    int packages;
+
+    private List<String> packageList;
+    private String exclusions;
+    private PrintStream stdout;
+
+    @Setup
+    public void setUp() {
+        packageList = new ArrayList<>(packages);
+        for (int i = 0; i < packages; i++) {
+            packageList.add("package-name-" + i);
+        }
+        // Every third index, plus a range covering the second half of the list
+        StringBuilder input = new StringBuilder();
+        for (int i = 1; i <= packages / 2; i += 3) {
+            input.append(i).append(',');
+        }
+        exclusions = input.append(packages / 2).append("..").append(packages).toString();
+
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public List<String> promptForExclusions() {
+        return ConsoleIOHelper.promptForExclusions(packageList, new Scanner(new StringReader(exclusions + "\n")));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void colorLoop(Blackhole bh) {
+        for (int i = 0; i < COLOR_LOOP_LINES; i++) {
+            bh.consume(ConsoleIOHelper.color(packageList.get(i % packages), YELLOW));
+        }
+    }
+}
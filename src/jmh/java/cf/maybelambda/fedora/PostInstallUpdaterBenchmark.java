@@ -0,0 +1,64 @@
+package cf.maybelambda.fedora;
+
+import static java.util.Arrays.asList;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how fast {@link PostInstallUpdater} relays the output of a chatty command, using a local
+ * shell process that prints {@code lines} lines of dnf-like output. Console output is discarded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PostInstallUpdaterBenchmark {
+    private static final List<String> CMD_SH = asList("sh", "-c");
+
+    @Param({"100000", "500000"})
+    int lines;
+
+    private final PostInstallUpdater updater = new PostInstallUpdater();
+    private List<String> fakeTransaction;
+    private PrintStream stdout;
+
+    @Setup
+    public void setUp() {
+        fakeTransaction = List.of("yes '  Installing  : package-name-1.0-1.fc42.x86_64   42/100' | head -n " + lines);
+        stdout = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public int runCommand() {
+        return updater.runCommand(CMD_SH, fakeTransaction);
+    }
+
+    @Benchmark
+    public int runCommandAsync() {
+        return updater.runCommandAsync(CMD_SH, fakeTransaction).join();
+    }
+}
@@ -0,0 +1,173 @@
+package cf.maybelambda.fedora;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Answers to the questions of a run, read from a file, so that it can run without anyone at the console.
+ *
+ * <p>The file has the format of the package lists, with one {@code key=value} setting per line and
+ * comma-separated values; settings can be repeated:
+ * <ul>
+ *   <li>{@code steps}: steps to run (see {@link #STEPS}), or {@code all}; the other steps are declined</li>
+ *   <li>{@code exclude}: packages or Flatpak apps to leave out of the lists</li>
+ *   <li>{@code exclude-category}: categories to leave out, i.e. comment headings of the package lists
+ *       such as {@code Games / emulation apps} (case insensitive)</li>
+ *   <li>{@code leave-out-unknown}: whether packages not found by the pre-flight check are left out
+ *       ({@code yes}, or {@code no}, the default: on a fresh system the packages of repositories the run
+ *       itself configures, such as RPMFusion, are unknown to the check)</li>
+ * </ul>
+ * The whole file is checked before the run starts, against the step names and the configured package
+ * lists, so that a typo fails the run at once with every problem reported, instead of halfway through.
+ */
+public class AnswerFile {
+    static final String KEY_STEPS = "steps";
+    static final String KEY_EXCLUDE = "exclude";
+    static final String KEY_EXCLUDE_CATEGORY = "exclude-category";
+    static final String KEY_LEAVE_OUT_UNKNOWN = "leave-out-unknown";
+    static final String ALL_STEPS = "all";
+    // Steps asked about, the others are selected by command-line options
+    static final List<String> STEPS = List.of(Main.STEP_DNF_TUNING, Main.STEP_RPMFUSION, Main.STEP_DNF_INSTALL,
+        Main.STEP_DNF_REMOVE, Main.STEP_FLATPAK, Main.STEP_GROUPS, Main.STEP_COCKPIT);
+    private static final Set<String> YES = Set.of("yes", "y", "true", "1");
+    private static final Set<String> NO = Set.of("no", "n", "false", "0");
+
+    private final Set<String> steps;
+    private final Set<String> excluded;
+    private final boolean leaveOutUnknown;
+
+    private AnswerFile(Set<String> steps, Set<String> excluded, boolean leaveOutUnknown) {
+        this.steps = steps;
+        this.excluded = excluded;
+        this.leaveOutUnknown = leaveOutUnknown;
+    }
+
+    /**
+     * Reads and checks an answer file.
+     *
+     * @param file Answer file
+     * @param categories Package names by category, see {@link ConfigManager#getPackageCategories()}
+     * @param packages Names of all configured packages and Flatpak apps
+     * @return Answers of the file
+     * @throws IOException If the file cannot be read
+     * @throws IllegalArgumentException If the file is invalid, with one line per problem as message
+     */
+    static AnswerFile load(Path file, Map<String, List<String>> categories, Collection<String> packages) throws IOException {
+        return parse(Files.readAllLines(file, StandardCharsets.UTF_8), categories, packages);
+    }
+
+    /**
+     * Parses and checks the lines of an answer file.
+     *
+     * @param lines Lines of the answer file
+     * @param categories Package names by category, see {@link ConfigManager#getPackageCategories()}
+     * @param packages Names of all configured packages and Flatpak apps
+     * @return Answers of the file
+     * @throws IllegalArgumentException If the file is invalid, with one line per problem as message
+     */
+    static AnswerFile parse(List<String> lines, Map<String, List<String>> categories, Collection<String> packages) {
+        List<String> problems = new ArrayList<>();
+        Set<String> steps = new LinkedHashSet<>();
+        Set<String> excluded = new HashSet<>();
+        boolean stepsGiven = false;
+        boolean leaveOutUnknown = false;
+        for (int i = 0; i < lines.size(); i++) {
+            String trimmed = lines.get(i).trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) continue;
+            String where = "line " + (i + 1) + ": ";
+            int eq = trimmed.indexOf('=');
+            if (eq <= 0) {
+                problems.add(where + "expected key=value, found " + trimmed);
+                continue;
+            }
+            String key = trimmed.substring(0, eq).trim();
+            List<String> values = new ArrayList<>();
+            for (String value : trimmed.substring(eq + 1).split(",")) {
+                if (!value.isBlank()) values.add(value.trim());
+            }
+            switch (key) {
+                case KEY_STEPS -> {
+                    stepsGiven = true;
+                    for (String step : values) {
+                        if (step.equals(ALL_STEPS)) {
+                            steps.addAll(STEPS);
+                        } else if (STEPS.contains(step)) {
+                            steps.add(step);
+                        } else {
+                            problems.add(where + "unknown step " + step + " (known: " + String.join(", ", STEPS) + ")");
+                        }
+                    }
+                }
+                case KEY_EXCLUDE -> {
+                    for (String name : values) {
+                        if (packages.contains(name)) {
+                            excluded.add(name);
+                        } else {
+                            problems.add(where + "package " + name + " is not in any package list");
+                        }
+                    }
+                }
+                case KEY_EXCLUDE_CATEGORY -> {
+                    for (String category : values) {
+                        List<String> found = categories.entrySet().stream()
+                            .filter(e -> e.getKey().equalsIgnoreCase(category))
+                            .flatMap(e -> e.getValue().stream()).toList();
+                        if (found.isEmpty()) {
+                            problems.add(where + "unknown category " + category);
+                        }
+                        excluded.addAll(found);
+                    }
+                }
+                case KEY_LEAVE_OUT_UNKNOWN -> {
+                    String value = values.size() == 1 ? values.getFirst().toLowerCase(Locale.ROOT) : "";
+                    if (YES.contains(value) || NO.contains(value)) {
+                        leaveOutUnknown = YES.contains(value);
+                    } else {
+                        problems.add(where + KEY_LEAVE_OUT_UNKNOWN + " must be yes or no");
+                    }
+                }
+                default -> problems.add(where + "unknown setting " + key);
+            }
+        }
+        if (!stepsGiven) {
+            problems.add("no " + KEY_STEPS + "= setting, the steps to run must be listed");
+        }
+        if (!problems.isEmpty()) {
+            throw new IllegalArgumentException(String.join("\n", problems));
+        }
+        return new AnswerFile(steps, excluded, leaveOutUnknown);
+    }
+
+    /**
+     * @param step Step name, one of {@link #STEPS}
+     * @return {@code true} if the step is to be run
+     */
+    boolean runs(String step) {
+        return steps.contains(step);
+    }
+
+    /**
+     * @param packages Packages a step would act on
+     * @return {@code packages} without the excluded ones, in the same order
+     */
+    List<String> filter(List<String> packages) {
+        return packages.stream().filter(p -> !excluded.contains(p)).toList();
+    }
+
+    /**
+     * @return {@code true} if packages unknown to the pre-flight check are left out of the installation
+     */
+    boolean leavesOutUnknown() {
+        return leaveOutUnknown;
+    }
+}
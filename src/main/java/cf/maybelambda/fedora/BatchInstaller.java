@@ -0,0 +1,125 @@
+package cf.maybelambda.fedora;
+
+import static cf.maybelambda.fedora.ConsoleIOHelper.GREEN;
+import static cf.maybelambda.fedora.ConsoleIOHelper.RED;
+import static cf.maybelambda.fedora.ConsoleIOHelper.YELLOW;
+import static cf.maybelambda.fedora.ConsoleIOHelper.color;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Installs a long list of packages in batches, isolating the packages that make a transaction fail.
+ *
+ * <p>DNF aborts the whole transaction when a single package is missing or conflicts. When a batch fails,
+ * it is split in two halves that are retried separately, down to single packages, so that everything
+ * else still gets installed and only the offending packages are left out: one bad package in a list of
+ * {@code n} costs about {@code 2 log2(n)} extra transactions. Metadata is refreshed by the first command
+ * only. A command that could not run at all or was terminated (see {@link PostInstallUpdater#EXIT_TIMED_OUT})
+ * is not retried, since smaller batches would fail the same way. Neither is a batch once more transactions
+ * failed in a row than isolating a few bad packages takes (twice the depth of the bisection): the failure is
+ * then most likely not caused by the packages (e.g. no network, or a full disk), and bisecting down to single
+ * packages would cost {@code 2n - 1} transactions.
+ */
+public class BatchInstaller {
+    private static final String REFRESH_OPTION = "--refresh";
+
+    /**
+     * @param installed Packages installed by a successful transaction
+     * @param failed Packages whose own transaction failed
+     * @param notAttempted Packages left out because a command could not run or was terminated, or because
+     *                     too many transactions failed in a row
+     */
+    record Result(List<String> installed, List<String> failed, List<String> notAttempted) {
+        /**
+         * @return {@code true} if every package was installed
+         */
+        boolean succeeded() {
+            return failed.isEmpty() && notAttempted.isEmpty();
+        }
+    }
+
+    private final PostInstallUpdater updater;
+    private final int maxBatchSize;
+
+    /**
+     * @param updater {@link PostInstallUpdater} the install commands are run with
+     * @param maxBatchSize Maximum number of packages per transaction, or {@code 0} for no limit
+     */
+    BatchInstaller(PostInstallUpdater updater, int maxBatchSize) {
+        if (maxBatchSize < 0) throw new IllegalArgumentException("Batch size must not be negative");
+        this.updater = updater;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Installs {@code packages} with {@code baseCmd}, bisecting failed batches, and prints a summary
+     * when some packages could not be installed.
+     *
+     * @param baseCmd Install command the packages are appended to, e.g. {@code CMD_DNF_INST}
+     * @param packages Names of the packages to install
+     * @return Outcome of each package
+     */
+    Result install(List<String> baseCmd, List<String> packages) {
+        Deque<List<String>> pending = new ArrayDeque<>();
+        int size = maxBatchSize > 0 ? maxBatchSize : Math.max(1, packages.size());
+        for (int i = 0; i < packages.size(); i += size) {
+            pending.addLast(packages.subList(i, Math.min(packages.size(), i + size)));
+        }
+
+        List<String> installed = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        List<String> notAttempted = new ArrayList<>();
+        List<String> cmd = baseCmd;
+        int maxFailuresInARow = 2 * (32 - Integer.numberOfLeadingZeros(size));
+        int failuresInARow = 0;
+        while (!pending.isEmpty()) {
+            List<String> batch = pending.removeFirst();
+            int exitCode = updater.runCommand(cmd, batch);
+            cmd = withoutRefresh(baseCmd);
+            failuresInARow = exitCode == 0 ? 0 : failuresInARow + 1;
+            if (exitCode == 0) {
+                installed.addAll(batch);
+            } else if (exitCode > 0 && failuresInARow >= maxFailuresInARow) {
+                updater.println(color(failuresInARow + " transactions failed in a row, not retrying the remaining packages.", RED));
+                notAttempted.addAll(batch);
+                pending.forEach(notAttempted::addAll);
+                pending.clear();
+            } else if (exitCode < 0) {
+                notAttempted.addAll(batch);
+                pending.forEach(notAttempted::addAll);
+                pending.clear();
+            } else if (batch.size() == 1) {
+                failed.addAll(batch);
+            } else {
+                updater.println(color("Transaction of " + batch.size() + " packages failed, retrying in two halves.", YELLOW));
+                int half = batch.size() / 2;
+                pending.addFirst(batch.subList(half, batch.size()));
+                pending.addFirst(batch.subList(0, half));
+            }
+        }
+
+        Result result = new Result(installed, failed, notAttempted);
+        printSummary(result);
+        return result;
+    }
+
+    private static List<String> withoutRefresh(List<String> cmd) {
+        List<String> result = new ArrayList<>(cmd);
+        result.remove(REFRESH_OPTION);
+        return result;
+    }
+
+    private void printSummary(Result result) {
+        if (result.succeeded()) return;
+        updater.println(color("Installed " + result.installed().size() + " packages.", GREEN));
+        if (!result.failed().isEmpty()) {
+            updater.println(color("Packages that could not be installed: " + String.join(", ", result.failed()), RED));
+        }
+        if (!result.notAttempted().isEmpty()) {
+            updater.println(color("Packages not installed: " + String.join(", ", result.notAttempted()), RED));
+        }
+    }
+}
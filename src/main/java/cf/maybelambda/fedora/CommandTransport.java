@@ -0,0 +1,119 @@
+package cf.maybelambda.fedora;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Starts the processes of the commands run by a {@link PostInstallUpdater}, on the local machine or on another host.
+ *
+ * <p>Commands are always given as an argument vector; a transport to a remote host is responsible for
+ * quoting them so that the remote side sees the same arguments.
+ */
+public interface CommandTransport {
+    /**
+     * @return Name of the machine the commands run on, shown in front of their output
+     */
+    String name();
+
+    /**
+     * @param command Command and its arguments
+     * @return Builder of a process running {@code command} on the machine of this transport
+     */
+    ProcessBuilder processBuilder(String[] command);
+
+    /**
+     * @param exitCode Exit code of a command started by this transport
+     * @return {@code true} if the code means the machine could not be reached, rather than that the command failed
+     */
+    default boolean isConnectionFailure(int exitCode) {
+        return false;
+    }
+
+    /**
+     * @return Transport running commands as local processes
+     */
+    static CommandTransport local() {
+        return new Local("localhost");
+    }
+
+    /**
+     * @param host Destination as accepted by {@code ssh}, e.g. {@code root@ws01.lab}
+     * @return Transport running commands over {@code ssh}
+     */
+    static CommandTransport ssh(String host) {
+        return new Ssh(host);
+    }
+
+    /**
+     * @param hosts Comma-separated {@code ssh} destinations, e.g. {@code ws01,ws02,root@ws03}
+     * @return One {@code ssh} transport per destination, in the given order
+     * @throws RuntimeException If a destination is empty, contains whitespace or starts with {@code -}
+     */
+    static List<CommandTransport> parseHosts(String hosts) {
+        List<CommandTransport> transports = new ArrayList<>();
+        for (String host : hosts.split(",", -1)) {
+            String trimmed = host.trim();
+            if (!trimmed.matches("^[^\\s-]\\S*$")) {
+                throw new RuntimeException("Invalid host: '" + host + "'");
+            }
+            transports.add(ssh(trimmed));
+        }
+        return transports;
+    }
+
+    /**
+     * Quotes {@code arg} for a POSIX shell, leaving it as is when it contains no special characters.
+     *
+     * @param arg Argument
+     * @return Shell word that expands to {@code arg}
+     */
+    static String quote(String arg) {
+        if (!arg.isEmpty() && arg.matches("^[A-Za-z0-9_@%+=:,./-]+$")) {
+            return arg;
+        }
+        return "'" + arg.replace("'", "'\\''") + "'";
+    }
+
+    /**
+     * Runs commands as local processes; also stands in for a remote host in tests.
+     *
+     * @param name Name shown in front of the output
+     */
+    record Local(String name) implements CommandTransport {
+        @Override
+        public ProcessBuilder processBuilder(String[] command) {
+            return new ProcessBuilder(command);
+        }
+    }
+
+    /**
+     * Runs commands on a host over {@code ssh}, without prompting: authentication must be key-based
+     * (e.g. through {@code ssh-agent}), and {@code sudo} must not ask for a password on the host
+     * (or the destination must be {@code root}), since no terminal is allocated.
+     *
+     * @param name Destination as accepted by {@code ssh}
+     */
+    record Ssh(String name) implements CommandTransport {
+        // Exit code of ssh itself when the connection fails
+        static final int EXIT_CONNECTION_FAILED = 255;
+        static final List<String> OPTIONS = List.of("-T", "-o", "BatchMode=yes", "-o", "ConnectTimeout=15",
+            "-o", "ServerAliveInterval=30");
+
+        @Override
+        public ProcessBuilder processBuilder(String[] command) {
+            List<String> cmd = new ArrayList<>();
+            cmd.add("ssh");
+            cmd.addAll(OPTIONS);
+            cmd.add(name);
+            // ssh passes the command to the remote shell as a single string
+            cmd.add(String.join(" ", Arrays.stream(command).map(CommandTransport::quote).toList()));
+            return new ProcessBuilder(cmd);
+        }
+
+        @Override
+        public boolean isConnectionFailure(int exitCode) {
+            return exitCode == EXIT_CONNECTION_FAILED;
+        }
+    }
+}
@@ -7,29 +7,36 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 public class ConfigManager {
     private static final String CONFIG_DIR = "src/main/resources";
     static final String DNF_INSTALL_FILE = "dnf-install.cf";
     static final String DNF_REMOVE_FILE = "dnf-remove.cf";
     static final String FLATPAK_INSTALL_FILE = "flatpak-install.cf";
+    static final String DNF_TUNING_FILE = "dnf-tuning.cf";
+    // Also read by the bundle-rpmfusion profile of the pom
+    static final String RPMFUSION_KEYS_FILE = "rpmfusion-keys.cf";
+    static final String RPMFUSION_REPOS_FILE = "rpmfusion-repos.cf";
     static final String HELP_FILE = "help.txt";
-
-    private static final List<String> gpgKeys = List.of(
-        "https://rpmfusion.org/keys?action=AttachFile&do=get&target=RPM-GPG-KEY-rpmfusion-free-fedora-2020",
-        "https://rpmfusion.org/keys?action=AttachFile&do=get&target=RPM-GPG-KEY-rpmfusion-nonfree-fedora-2020"
-    );
-    private static final List<String> rpmFusionRepos = List.of(
-        "https://download1.rpmfusion.org/free/fedora/rpmfusion-free-release-42.noarch.rpm",
-        "https://download1.rpmfusion.org/nonfree/fedora/rpmfusion-nonfree-release-42.noarch.rpm"
-    );
+    private static final String APP_DIR_NAME = "fedora-setup-script";
+    // Key of the merged categories of all package lists in the cache
+    private static final String CATEGORIES_KEY = "categories";
 
     private static final String flatpakRemoteName = "flathub";
     private static final String flatpakRemoteUrl = "https://dl.flathub.org/repo/flathub.flatpakrepo";
 
     private static final List<String> adminGroups = List.of("docker", "libvirt", "vboxsf", "vboxusers");
 
+    // Package lists and DNF settings by file name, and the categories, each loaded once for the life of the run (see reload)
+    private static final Map<String, CompletableFuture<?>> loaded = new ConcurrentHashMap<>();
+
     /**
      * Reads all lines of a resource / configuration file.
      *
@@ -93,12 +100,85 @@ public class ConfigManager {
         return packages;
     }
 
+    /**
+     * Loads the categories of a package list.
+     *
+     * <p>The comment lines of a package list head the packages listed below them, up to the next comment
+     * line; such a comment is the name of a category (e.g. {@code Development tools}). Packages listed before
+     * the first comment belong to no category, and comments without packages below them are ignored.
+     * If the file cannot be accessed, an error message is written to {@code System.err} and an empty map is returned.
+     *
+     * @param filename The resource file name (e.g., {@code dnf-install.cf})
+     * @return Package names by category name, in file order
+     */
+    static Map<String, List<String>> loadCategoriesFrom(String filename) {
+        Map<String, List<String>> categories = new LinkedHashMap<>();
+        try {
+            String category = null;
+            for (String line : readResourceLines(filename)) {
+                String trimmed = line.trim();
+                if (trimmed.startsWith("#")) {
+                    category = trimmed.substring(1).trim();
+                } else if (!trimmed.isEmpty() && category != null) {
+                    categories.computeIfAbsent(category, c -> new ArrayList<>()).add(trimmed);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to read package categories from " + filename + ": " + e.getMessage());
+        }
+        return categories;
+    }
+
+    /**
+     * Returns the categories of all package lists, loading them on first use; they are cached like the lists.
+     *
+     * @return Unmodifiable categories of all package lists (see {@link #loadCategoriesFrom(String)}); a category
+     *         found in several lists holds the packages of all of them
+     */
+    static Map<String, List<String>> getPackageCategories() {
+        return cached(CATEGORIES_KEY, () -> {
+            Map<String, List<String>> categories = new LinkedHashMap<>();
+            for (String filename : List.of(DNF_INSTALL_FILE, DNF_REMOVE_FILE, FLATPAK_INSTALL_FILE)) {
+                loadCategoriesFrom(filename).forEach((category, packages) ->
+                    categories.computeIfAbsent(category, c -> new ArrayList<>()).addAll(packages));
+            }
+            categories.replaceAll((category, packages) -> List.copyOf(packages));
+            return Collections.unmodifiableMap(categories);
+        });
+    }
+
+    /**
+     * Loads the DNF settings applied by the DNF tuning step.
+     *
+     * <p>Reads {@link #DNF_TUNING_FILE} like a package list, with one {@code key=value} setting per line.
+     * Lines without a key and a value are reported on {@code System.err} and ignored.
+     * The settings are loaded on first use and cached like the package lists.
+     *
+     * @return Unmodifiable settings in file order; empty if none are configured or the file cannot be read
+     */
+    static Map<String, String> getDnfTuning() {
+        return cached(DNF_TUNING_FILE, () -> {
+            Map<String, String> settings = new LinkedHashMap<>();
+            for (String line : loadPackageNamesFrom(DNF_TUNING_FILE)) {
+                int eq = line.indexOf('=');
+                String key = eq > 0 ? line.substring(0, eq).trim() : "";
+                String value = eq > 0 ? line.substring(eq + 1).trim() : "";
+                if (key.isEmpty() || value.isEmpty()) {
+                    System.err.println("Ignoring invalid setting in " + DNF_TUNING_FILE + ": " + line);
+                } else {
+                    settings.put(key, value);
+                }
+            }
+            return Collections.unmodifiableMap(settings);
+        });
+    }
+
     static List<String> getRPMFusionGpgKeys() {
-        return gpgKeys;
+        return cachedPackageNames(RPMFUSION_KEYS_FILE);
     }
 
     static List<String> getRPMFusionRepos() {
-        return rpmFusionRepos;
+        return cachedPackageNames(RPMFUSION_REPOS_FILE);
     }
 
     static String getFlatpakRemoteName() {
@@ -113,16 +193,116 @@ public class ConfigManager {
         return adminGroups;
     }
 
+    /**
+     * Returns the package list of {@code filename}, loading it on first use.
+     *
+     * <p>The list is loaded with {@link #loadPackageNamesFrom(String)} on the calling thread, unless it was
+     * already loaded or is being loaded by {@link #preloadPackageLists()}, in which case that result is
+     * awaited. Lists are cached until {@link #reload()} is called.
+     *
+     * @param filename The resource file name (e.g., {@code dnf-install.cf})
+     * @return Unmodifiable list of package names
+     */
+    private static List<String> cachedPackageNames(String filename) {
+        return cached(filename, () -> List.copyOf(loadPackageNamesFrom(filename)));
+    }
+
+    /**
+     * Returns the value cached under {@code key}, loading it with {@code loader} on the calling thread on first use.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T cached(String key, Supplier<T> loader) {
+        return (T) loaded.computeIfAbsent(key, k -> CompletableFuture.completedFuture(loader.get())).join();
+    }
+
+    /**
+     * Starts loading all package lists in parallel, on virtual threads, and returns immediately.
+     *
+     * <p>Lists already loaded or being loaded are left as they are. Calling the getters afterwards
+     * waits for the corresponding list instead of reading the file again.
+     */
+    static void preloadPackageLists() {
+        for (String filename : List.of(DNF_INSTALL_FILE, DNF_REMOVE_FILE, FLATPAK_INSTALL_FILE)) {
+            loaded.computeIfAbsent(filename, f -> CompletableFuture.supplyAsync(
+                () -> List.copyOf(loadPackageNamesFrom(f)), Thread.ofVirtual()::start));
+        }
+    }
+
+    /**
+     * Discards the cached package lists, categories and DNF settings, so that they are read again from the
+     * configuration files on next use.
+     */
+    static void reload() {
+        loaded.clear();
+    }
+
     static List<String> getDnfInstallPackages() {
-        return loadPackageNamesFrom(DNF_INSTALL_FILE);
+        return cachedPackageNames(DNF_INSTALL_FILE);
     }
 
     static List<String> getDnfRemovePackages() {
-        return loadPackageNamesFrom(DNF_REMOVE_FILE);
+        return cachedPackageNames(DNF_REMOVE_FILE);
     }
 
     static List<String> getFlatpakInstallPackages() {
-        return loadPackageNamesFrom(FLATPAK_INSTALL_FILE);
+        return cachedPackageNames(FLATPAK_INSTALL_FILE);
+    }
+
+    /**
+     * Returns the directory where the app keeps state between runs, such as run reports.
+     *
+     * <p>Follows the XDG base directory specification: {@code $XDG_STATE_HOME/fedora-setup-script},
+     * or {@code ~/.local/state/fedora-setup-script} when the variable is not set. The directory
+     * is not created by this method.
+     *
+     * @return Path of the state directory
+     */
+    static Path getStateDir() {
+        String xdgStateHome = System.getenv("XDG_STATE_HOME");
+        Path base = xdgStateHome != null && !xdgStateHome.isBlank()
+            ? Path.of(xdgStateHome)
+            : Path.of(System.getProperty("user.home"), ".local", "state");
+        return base.resolve(APP_DIR_NAME);
+    }
+
+    /**
+     * Returns the directory where the app caches downloaded files, such as GPG keys.
+     *
+     * <p>Follows the XDG base directory specification: {@code $XDG_CACHE_HOME/fedora-setup-script},
+     * or {@code ~/.cache/fedora-setup-script} when the variable is not set. The directory
+     * is not created by this method.
+     *
+     * @return Path of the cache directory
+     */
+    static Path getCacheDir() {
+        String xdgCacheHome = System.getenv("XDG_CACHE_HOME");
+        Path base = xdgCacheHome != null && !xdgCacheHome.isBlank()
+            ? Path.of(xdgCacheHome)
+            : Path.of(System.getProperty("user.home"), ".cache");
+        return base.resolve(APP_DIR_NAME);
+    }
+
+    /**
+     * Returns the Unix domain socket a {@link Daemon} listens on.
+     *
+     * <p>Placed in {@code $XDG_RUNTIME_DIR}, which only the user can access, as
+     * {@code fedora-setup-script.sock}, or in the state directory (see {@link #getStateDir()})
+     * when the variable is not set.
+     *
+     * @return Path of the socket file
+     */
+    static Path getSocketPath() {
+        String xdgRuntimeDir = System.getenv("XDG_RUNTIME_DIR");
+        return xdgRuntimeDir != null && !xdgRuntimeDir.isBlank()
+            ? Path.of(xdgRuntimeDir, APP_DIR_NAME + ".sock")
+            : getStateDir().resolve(APP_DIR_NAME + ".sock");
+    }
+
+    /**
+     * @return Directory the system files checked by {@link SystemProbe} are resolved against
+     */
+    static Path getSystemRoot() {
+        return Path.of("/");
     }
 
     static List<String> getHelpText() throws IOException {
@@ -116,7 +116,22 @@ public class ConsoleIOHelper {
      * @return A possibly-colored version of {@code str}, or {@code str} itself if ANSI is unsupported
      */
     static String color(String str, String ansiColorCode) {
-        return isANSISupported(System.getenv("TERM"), System.console()) ? ansiColorCode + str + RESET : str;
+        return color(str, ansiColorCode, isANSISupported(System.getenv("TERM"), System.console()));
+    }
+
+    /**
+     * Wraps a string in ANSI color codes if {@code ansiSupported} is {@code true}.
+     *
+     * <p>Variant of {@link #color(String, String)} for hot paths, where ANSI support is determined
+     * once (see {@link #isANSISupported(String, Console)}) instead of on every call.
+     *
+     * @param str The text to be colored; must not be {@code null}
+     * @param ansiColorCode One of the predefined ANSI color codes (e.g., {@link #YELLOW})
+     * @param ansiSupported Whether the terminal renders ANSI escape sequences
+     * @return A possibly-colored version of {@code str}
+     */
+    static String color(String str, String ansiColorCode, boolean ansiSupported) {
+        return ansiSupported ? ansiColorCode + str + RESET : str;
     }
 
     /**
@@ -0,0 +1,415 @@
+package cf.maybelambda.fedora;
+
+import static cf.maybelambda.fedora.ConsoleIOHelper.BLUE;
+import static cf.maybelambda.fedora.ConsoleIOHelper.GREEN;
+import static cf.maybelambda.fedora.ConsoleIOHelper.RED;
+import static cf.maybelambda.fedora.ConsoleIOHelper.color;
+import static java.util.Arrays.asList;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.ToIntFunction;
+
+import jdk.net.ExtendedSocketOptions;
+import jdk.net.UnixDomainPrincipal;
+
+/**
+ * Keeps a JVM running, with the package lists loaded, and runs the requests of thin clients sent over
+ * a Unix domain socket, so that planning or running the setup again does not pay for JVM startup and
+ * for reading the configuration each time.
+ *
+ * <p>A request starts with the command-line options of the run: their number, then each one as written by
+ * {@link DataOutputStream#writeUTF(String)}, so options may contain any character. The client then sends
+ * the standard input of the run in frames, each an {@code int} length followed by that many bytes, ended by
+ * an empty frame. Everything the run prints is sent back in frames the same way, followed by an empty frame
+ * and the exit status of the run (see {@link #connect}). Requests are run one at a time, since a run reads
+ * from and prints to the standard streams, which are redirected to the connection while it lasts. The request
+ * {@value #RELOAD} reads the package lists again.
+ *
+ * <p>The client keeps the connection open until it has received the exit status: if it goes away earlier
+ * (e.g. on Ctrl-C), the run is cancelled with {@link PostInstallUpdater#cancelAll()}. A run cannot ask for
+ * the sudo password, which would be prompted for on the terminal of the daemon, so requests other than
+ * {@code --dry-run} are only accepted while sudo credentials are available without a password. Only
+ * connections of the user running the daemon are accepted, and the socket file can only be opened by that user.
+ */
+public class Daemon implements AutoCloseable {
+    static final String RELOAD = "--reload";
+    // Options that start a daemon or a client, not a run
+    static final List<String> CLIENT_OPTIONS = List.of("--daemon", "--connect");
+    // Options of runs that never run sudo
+    private static final List<String> UNPRIVILEGED_OPTIONS = List.of("--dry-run", "-h", "--help");
+    static final List<String> CMD_SUDO_CHECK = asList("sudo", "-n", "true");
+    private static final int MAX_REQUEST_OPTIONS = 1024;
+    private static final int BUFFER_SIZE = 8192;
+    // Exit status of requests that were rejected, or whose run failed with an exception
+    static final int EXIT_FAILED = 1;
+
+    private final Path socket;
+    private final ServerSocketChannel server;
+    private final ToIntFunction<String[]> handler;
+    private final BooleanSupplier sudoCredentials;
+    // User the daemon runs as, the only one whose requests are accepted
+    private final String owner;
+    // Console of the daemon itself, while the standard streams are redirected to a client
+    private final PrintStream log;
+    private volatile boolean closed;
+
+    private Daemon(Path socket, ServerSocketChannel server, ToIntFunction<String[]> handler,
+                   BooleanSupplier sudoCredentials, String owner, PrintStream log) {
+        this.socket = socket;
+        this.server = server;
+        this.handler = handler;
+        this.sudoCredentials = sudoCredentials;
+        this.owner = owner;
+        this.log = log;
+    }
+
+    /**
+     * Creates the socket of a daemon, replacing the file of a daemon that is no longer running.
+     *
+     * @param socket Path of the socket file, see {@link ConfigManager#getSocketPath()}
+     * @param handler Runs the options of a request, reading from and printing to the standard streams,
+     *                and returns its exit status
+     * @param sudoCredentials Tells whether sudo can run without asking for a password, see {@link #hasSudoCredentials()}
+     * @return Daemon listening on {@code socket}, serving requests once {@link #serve()} is called
+     * @throws IOException If another daemon is listening on {@code socket}, or the socket cannot be created
+     */
+    static Daemon bind(Path socket, ToIntFunction<String[]> handler, BooleanSupplier sudoCredentials) throws IOException {
+        if (Files.exists(socket)) {
+            if (isListening(socket)) {
+                throw new IOException("A daemon is already listening on " + socket);
+            }
+            Files.delete(socket);
+        }
+        Path dir = socket.toAbsolutePath().getParent();
+        if (dir != null) {
+            Files.createDirectories(dir);
+        }
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        String owner;
+        try {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+            owner = Files.getOwner(socket).getName();
+        } catch (IOException | UnsupportedOperationException e) {
+            server.close();
+            Files.deleteIfExists(socket);
+            throw e;
+        }
+        return new Daemon(socket, server, handler, sudoCredentials, owner, System.out);
+    }
+
+    /**
+     * @return {@code true} if sudo currently runs without asking for a password, e.g. after {@code sudo -v}
+     *         in the terminal of the daemon
+     */
+    static boolean hasSudoCredentials() {
+        ProcessBuilder pb = new ProcessBuilder(CMD_SUDO_CHECK);
+        pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        try {
+            return pb.start().waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Runs the requests of clients, one after another, until the daemon is closed.
+     */
+    void serve() {
+        log.println(color("Listening on " + socket, GREEN));
+        while (!closed) {
+            try (SocketChannel client = server.accept()) {
+                handle(client);
+            } catch (IOException e) {
+                if (!closed) {
+                    log.println(color("Request failed: " + e.getMessage(), RED));
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops accepting requests, making {@link #serve()} return once the current request is done,
+     * and removes the socket file.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+            Files.deleteIfExists(socket);
+        } catch (IOException e) {
+            log.println(color("Could not remove " + socket + ": " + e.getMessage(), RED));
+        }
+    }
+
+    private void handle(SocketChannel client) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(client)));
+        FrameOutputStream frames = new FrameOutputStream(Channels.newOutputStream(client));
+        PrintStream out = new PrintStream(frames, true, StandardCharsets.UTF_8);
+        UnixDomainPrincipal peer = client.getOption(ExtendedSocketOptions.SO_PEERCRED);
+        if (!peer.user().getName().equals(owner)) {
+            log.println(color("Rejected a request of user " + peer.user().getName(), RED));
+            out.println(color("Permission denied", RED));
+            frames.finish(EXIT_FAILED);
+            return;
+        }
+        String[] args = readRequest(in);
+        if (args == null) {
+            // Closed without a request, e.g. by another daemon checking whether this one is running
+            return;
+        }
+        if (List.of(args).contains(RELOAD)) {
+            ConfigManager.reload();
+            ConfigManager.preloadPackageLists();
+            log.println(color("Reloaded the package lists", BLUE));
+            out.println(color("Package lists reloaded.", GREEN));
+            frames.finish(0);
+            return;
+        }
+        if (List.of(args).stream().anyMatch(CLIENT_OPTIONS::contains)) {
+            out.println(color("Error: " + String.join(" and ", CLIENT_OPTIONS) + " cannot be sent to the daemon", RED));
+            frames.finish(EXIT_FAILED);
+            return;
+        }
+        if (List.of(args).stream().noneMatch(UNPRIVILEGED_OPTIONS::contains) && !sudoCredentials.getAsBoolean()) {
+            out.println(color("Error: sudo would ask for the password on the terminal of the daemon. Run sudo -v there "
+                + "(or allow sudo without a password) and send the request again, or send --dry-run.", RED));
+            frames.finish(EXIT_FAILED);
+            return;
+        }
+
+        log.println(color("Running request: " + String.join(" ", args), BLUE));
+        long start = System.nanoTime();
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Runnable cancel = () -> {
+            if (!done.get() && cancelled.compareAndSet(false, true)) {
+                log.println(color("Client disconnected, cancelling the run", RED));
+                PostInstallUpdater.cancelAll();
+            }
+        };
+        frames.onFailure(cancel);
+        // Before the reader starts, so that a client that is already gone cancels the run
+        PostInstallUpdater.resetCancelled();
+        PipedInputStream stdinOfRun = new PipedInputStream(BUFFER_SIZE * 8);
+        PipedOutputStream input = new PipedOutputStream(stdinOfRun);
+        Thread reader = Thread.ofPlatform().daemon().start(() -> forwardInput(in, input, cancel));
+
+        InputStream stdin = System.in;
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        System.setIn(stdinOfRun);
+        System.setOut(out);
+        System.setErr(out);
+        int status;
+        try {
+            status = handler.applyAsInt(args);
+        } catch (RuntimeException e) {
+            out.println(color("Error: " + e.getMessage(), RED));
+            status = EXIT_FAILED;
+        } finally {
+            done.set(true);
+            out.flush();
+            System.setIn(stdin);
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+        try {
+            frames.finish(status);
+        } finally {
+            // Unblocks the reader, also while it waits for the run to read more input, so that it cannot
+            // cancel the next request
+            stdinOfRun.close();
+            client.close();
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            PostInstallUpdater.resetCancelled();
+        }
+        log.println(color(String.format("Request done in %.1fs with exit status %d", (System.nanoTime() - start) / 1e9, status), BLUE));
+    }
+
+    /**
+     * Copies the input frames of the client to {@code input}, then waits for the client to go away, which
+     * it only does before receiving the exit status if the run must be cancelled.
+     */
+    private static void forwardInput(DataInputStream in, OutputStream input, Runnable cancel) {
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (input) {
+                for (int n = in.readInt(); n > 0; n = in.readInt()) {
+                    while (n > 0) {
+                        int read = in.read(buffer, 0, Math.min(n, buffer.length));
+                        if (read == -1) throw new EOFException();
+                        try {
+                            input.write(buffer, 0, read);
+                        } catch (IOException e) {
+                            // The run stopped reading its input, the rest is discarded
+                        }
+                        n -= read;
+                    }
+                }
+            }
+            while (in.read(buffer) != -1) {
+                // Nothing else is sent during a run
+            }
+        } catch (IOException e) {
+            // Connection closed
+        }
+        cancel.run();
+    }
+
+    /**
+     * @return Options of the request, or {@code null} if the connection was closed before the request was sent
+     */
+    private static String[] readRequest(DataInputStream in) throws IOException {
+        int count;
+        try {
+            count = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        if (count < 0 || count > MAX_REQUEST_OPTIONS) {
+            throw new IOException("Invalid number of options in request: " + count);
+        }
+        String[] args = new String[count];
+        for (int i = 0; i < count; i++) {
+            args[i] = in.readUTF();
+        }
+        return args;
+    }
+
+    /**
+     * @return {@code true} if a process accepts connections on {@code socket}
+     */
+    private static boolean isListening(Path socket) {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Sends a request to the daemon and copies what the run prints to {@code out} until it is done.
+     *
+     * <p>{@code in} is forwarded to the daemon in the background, as the input of the run.
+     *
+     * @param socket Path of the socket file the daemon listens on
+     * @param args Command-line options of the run
+     * @param in Input of the run, e.g. the answers to its questions
+     * @param out Stream the output of the run is written to
+     * @return Exit status of the run
+     * @throws IOException If no daemon listens on {@code socket}, or the connection fails before the run is done
+     */
+    static int connect(Path socket, String[] args, InputStream in, OutputStream out) throws IOException {
+        try (SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream toDaemon = new DataOutputStream(Channels.newOutputStream(channel));
+            toDaemon.writeInt(args.length);
+            for (String arg : args) {
+                toDaemon.writeUTF(arg);
+            }
+            toDaemon.flush();
+            Thread.ofPlatform().daemon().start(() -> {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                try {
+                    for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+                        toDaemon.writeInt(n);
+                        toDaemon.write(buffer, 0, n);
+                        toDaemon.flush();
+                    }
+                    toDaemon.writeInt(0);
+                    toDaemon.flush();
+                } catch (IOException e) {
+                    // The daemon closed the connection, the run is over
+                }
+            });
+            DataInputStream fromDaemon = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for (int n = fromDaemon.readInt(); n > 0; n = fromDaemon.readInt()) {
+                while (n > 0) {
+                    int read = fromDaemon.read(buffer, 0, Math.min(n, buffer.length));
+                    if (read == -1) throw new EOFException("The daemon closed the connection");
+                    out.write(buffer, 0, read);
+                    n -= read;
+                }
+                // Flushed after every frame, so that prompts without a line break are shown at once
+                out.flush();
+            }
+            return fromDaemon.readInt();
+        } catch (EOFException e) {
+            throw new IOException("The daemon closed the connection before the run was done", e);
+        }
+    }
+
+    /**
+     * Sends each write as a frame of output, and the exit status once the run is done.
+     */
+    private static class FrameOutputStream extends OutputStream {
+        private final OutputStream out;
+        private Runnable onFailure = () -> { };
+
+        FrameOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        synchronized void onFailure(Runnable onFailure) {
+            this.onFailure = onFailure;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] buf, int off, int len) throws IOException {
+            if (len == 0) return;
+            ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + len).putInt(len).put(buf, off, len);
+            send(frame.array());
+        }
+
+        synchronized void finish(int status) throws IOException {
+            send(ByteBuffer.allocate(2 * Integer.BYTES).putInt(0).putInt(status).array());
+        }
+
+        // PrintStream swallows the exception, so a client that went away is reported here
+        private void send(byte[] bytes) throws IOException {
+            try {
+                out.write(bytes);
+            } catch (IOException e) {
+                onFailure.run();
+                throw e;
+            }
+        }
+    }
+}
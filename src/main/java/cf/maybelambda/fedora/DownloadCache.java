@@ -0,0 +1,225 @@
+package cf.maybelambda.fedora;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Downloads files such as GPG keys and repository release packages into a local, content-addressed cache.
+ *
+ * <p>All files are requested concurrently with a single {@link HttpClient}, instead of one {@code rpm} or
+ * {@code dnf} process each fetching its own, so that the commands using them only read local files.
+ * Each file is stored under the SHA-256 of its content, and the validators returned by the server
+ * ({@code ETag}, {@code Last-Modified}) are kept per URL, so later runs only send conditional requests
+ * and reuse the cached file when the server answers {@code 304 Not Modified}, or cannot be reached.
+ * Files bundled in the jar under {@link #BUNDLED_RESOURCE_DIR} are used without any request.
+ */
+public class DownloadCache {
+    static final String BUNDLED_RESOURCE_DIR = "/bundled/";
+    static final String OBJECT_DIR = "objects";
+    static final String INDEX_DIR = "index";
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(60);
+    private static final String FILE = "file";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+
+    private final Path dir;
+    private final HttpClient client;
+
+    /**
+     * @param dir Directory the cache is kept in, created if needed
+     * @param client Client the files are downloaded with
+     */
+    DownloadCache(Path dir, HttpClient client) {
+        this.dir = dir;
+        this.client = client;
+    }
+
+    /**
+     * @param dir Directory the cache is kept in, created if needed
+     * @return Cache downloading with a new {@link HttpClient} that follows redirects
+     */
+    static DownloadCache open(Path dir) {
+        return new DownloadCache(dir, HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(CONNECT_TIMEOUT)
+            .build());
+    }
+
+    /**
+     * Files fetched by {@link #fetchAll(List)}.
+     *
+     * @param files Local path (or the URL, if it could not be fetched) of each file by URL
+     * @param errors Reason each file that could not be fetched failed, by URL
+     */
+    record Fetched(Map<String, String> files, Map<String, String> errors) {
+    }
+
+    /**
+     * Fetches all {@code urls} concurrently.
+     *
+     * <p>A file that cannot be fetched is mapped to its URL, so that the command using it falls back to
+     * downloading it itself, and its error is returned instead of printed, since the requests complete on
+     * the threads of the {@link HttpClient} while the questions are asked.
+     *
+     * @param urls URLs of the files
+     * @return Future completed with the fetched files once all requests are done
+     */
+    CompletableFuture<Fetched> fetchAll(List<String> urls) {
+        Map<String, CompletableFuture<Path>> files = new LinkedHashMap<>();
+        for (String url : urls) {
+            files.put(url, fetch(url));
+        }
+        return CompletableFuture.allOf(files.values().stream()
+            .map(file -> file.exceptionally(e -> null))
+            .toArray(CompletableFuture[]::new)).thenApply(done -> {
+                Map<String, String> paths = new LinkedHashMap<>();
+                Map<String, String> errors = new LinkedHashMap<>();
+                files.forEach((url, file) -> {
+                    try {
+                        paths.put(url, file.join().toString());
+                    } catch (CompletionException e) {
+                        paths.put(url, url);
+                        errors.put(url, e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+                    }
+                });
+                return new Fetched(paths, errors);
+            });
+    }
+
+    /**
+     * Returns the cached copy of {@code url}, downloading it first if it is missing or has changed.
+     *
+     * @param url URL of the file
+     * @return Future completed with the path of the local copy, or exceptionally if the file is neither
+     *         bundled, cached nor downloadable
+     */
+    CompletableFuture<Path> fetch(String url) {
+        String fileName = fileName(url);
+        try (InputStream bundled = DownloadCache.class.getResourceAsStream(BUNDLED_RESOURCE_DIR + fileName)) {
+            if (bundled != null) {
+                return CompletableFuture.completedFuture(store(bundled.readAllBytes(), fileName));
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        Properties entry = readIndex(url);
+        Path cached = entry.getProperty(FILE) != null ? dir.resolve(OBJECT_DIR).resolve(entry.getProperty(FILE)) : null;
+        if (cached != null && !Files.isRegularFile(cached)) {
+            cached = null;
+        }
+        HttpRequest.Builder request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(url)).timeout(REQUEST_TIMEOUT);
+        } catch (IllegalArgumentException e) {
+            // Not an http(s) URL, e.g. a local path in a custom configuration, left to rpm and dnf
+            return CompletableFuture.failedFuture(e);
+        }
+        if (cached != null && entry.getProperty(ETAG) != null) {
+            request.header("If-None-Match", entry.getProperty(ETAG));
+        }
+        if (cached != null && entry.getProperty(LAST_MODIFIED) != null) {
+            request.header("If-Modified-Since", entry.getProperty(LAST_MODIFIED));
+        }
+        Path fallback = cached;
+        return client.sendAsync(request.build(), HttpResponse.BodyHandlers.ofByteArray()).thenApply(response -> {
+            if (response.statusCode() == 304 && fallback != null) {
+                return fallback;
+            }
+            if (response.statusCode() != 200) {
+                throw new UncheckedIOException(new IOException("HTTP " + response.statusCode() + " for " + url));
+            }
+            try {
+                Path file = store(response.body(), fileName);
+                Properties updated = new Properties();
+                updated.setProperty(FILE, file.getFileName().toString());
+                response.headers().firstValue("ETag").ifPresent(etag -> updated.setProperty(ETAG, etag));
+                response.headers().firstValue("Last-Modified").ifPresent(date -> updated.setProperty(LAST_MODIFIED, date));
+                writeIndex(url, updated);
+                return file;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }).exceptionallyCompose(e -> fallback != null
+            ? CompletableFuture.completedFuture(fallback) : CompletableFuture.failedFuture(e));
+    }
+
+    /**
+     * @param url URL of a file, e.g. {@code https://rpmfusion.org/keys?action=AttachFile&do=get&target=RPM-GPG-KEY-...}
+     * @return Name of the file, the last path segment or {@code target} parameter of {@code url}
+     */
+    static String fileName(String url) {
+        return url.substring(Math.max(url.lastIndexOf('/'), url.lastIndexOf('=')) + 1);
+    }
+
+    /**
+     * Stores {@code content} under its hash, keeping the original file name as suffix since tools like
+     * DNF recognize local packages by their extension.
+     */
+    private Path store(byte[] content, String fileName) throws IOException {
+        Path objects = Files.createDirectories(dir.resolve(OBJECT_DIR));
+        Path file = objects.resolve(sha256(content) + "-" + fileName);
+        if (!Files.isRegularFile(file)) {
+            Path tmp = Files.createTempFile(objects, fileName, ".part");
+            Files.write(tmp, content);
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return file;
+    }
+
+    private Properties readIndex(String url) {
+        Properties entry = new Properties();
+        Path file = indexFile(url);
+        if (Files.isRegularFile(file)) {
+            try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                entry.load(in);
+            } catch (IOException e) {
+                // Unreadable entry: downloaded again
+            }
+        }
+        return entry;
+    }
+
+    private void writeIndex(String url, Properties entry) throws IOException {
+        Path index = Files.createDirectories(dir.resolve(INDEX_DIR));
+        Path tmp = Files.createTempFile(index, "entry", ".part");
+        try (Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            entry.store(out, url);
+        }
+        Files.move(tmp, indexFile(url), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path indexFile(String url) {
+        return dir.resolve(INDEX_DIR).resolve(sha256(url.getBytes(StandardCharsets.UTF_8)) + ".properties");
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package cf.maybelambda.fedora;
+
+import static cf.maybelambda.fedora.ConsoleIOHelper.GREEN;
+import static cf.maybelambda.fedora.ConsoleIOHelper.RED;
+import static cf.maybelambda.fedora.ConsoleIOHelper.color;
+import static java.util.Arrays.asList;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Installs Flatpak applications with bounded concurrency.
+ *
+ * <p>The runtimes required by the applications are installed first, in a single command, so that
+ * concurrent application installs do not race to deploy the same runtime. Applications are then
+ * installed one command each, up to {@code parallelism} at a time. If the runtimes cannot be installed,
+ * the applications are installed one at a time instead, each deploying its runtime itself.
+ */
+public class FlatpakInstaller {
+    static final List<String> CMD_FLATPAK_REMOTE_INFO = asList("flatpak", "remote-info");
+    static final List<String> CMD_FLATPAK_INST = asList("flatpak", "install", "-y", "--noninteractive");
+    private static final String RUNTIME_FIELD = "Runtime:";
+
+    private final PostInstallUpdater updater;
+    private final int parallelism;
+
+    FlatpakInstaller(PostInstallUpdater updater, int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1");
+        this.updater = updater;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Installs {@code apps} from {@code remote}, grouped by the runtime they share.
+     *
+     * <p>Prints a per-application summary through the updater once all installs have finished, preceded by
+     * the exit code of the runtime install if it failed.
+     *
+     * @param remote Name of the Flatpak remote to install from
+     * @param apps Application IDs to install
+     * @return Exit code of the install command of each application, in the order of {@code apps};
+     *         {@code -1} for applications whose command could not be run
+     */
+    Map<String, Integer> install(String remote, List<String> apps) {
+        Map<String, List<String>> appsByRuntime = groupByRuntime(remote, apps);
+        Set<String> runtimes = new LinkedHashSet<>(appsByRuntime.keySet());
+        runtimes.remove("");
+        int runtimeExitCode = 0;
+        if (!runtimes.isEmpty()) {
+            List<String> args = new ArrayList<>(List.of(remote));
+            runtimes.forEach(runtime -> args.add("runtime/" + runtime));
+            runtimeExitCode = updater.runCommand(CMD_FLATPAK_INST, args);
+        }
+        int jobs = parallelism;
+        if (runtimeExitCode != 0) {
+            updater.println(color("Runtimes could not be installed (exit code " + runtimeExitCode
+                + "), installing the apps one at a time.", RED));
+            jobs = 1;
+        }
+
+        Semaphore slots = new Semaphore(jobs);
+        Map<String, CompletableFuture<Integer>> pending = new LinkedHashMap<>();
+        for (List<String> group : appsByRuntime.values()) {
+            for (String app : group) {
+                slots.acquireUninterruptibly();
+                CompletableFuture<Integer> exitCode = updater.runCommandAsync(CMD_FLATPAK_INST, List.of(remote, app));
+                exitCode.whenComplete((code, e) -> slots.release());
+                pending.put(app, exitCode);
+            }
+        }
+
+        Map<String, Integer> results = new LinkedHashMap<>();
+        for (String app : apps) {
+            results.put(app, pending.get(app).exceptionally(e -> -1).join());
+        }
+        printSummary(runtimeExitCode, results);
+
+        return results;
+    }
+
+    /**
+     * Groups {@code apps} by the runtime each one needs, as reported by {@code flatpak remote-info}.
+     *
+     * <p>The lookups, which need a network round-trip each, are performed concurrently.
+     *
+     * @param remote Name of the Flatpak remote the applications come from
+     * @param apps Application IDs
+     * @return Applications keyed by runtime ref (e.g. {@code org.kde.Platform/x86_64/6.8}), in order of
+     *         first appearance; applications whose runtime could not be determined are keyed by {@code ""}
+     */
+    Map<String, List<String>> groupByRuntime(String remote, List<String> apps) {
+        Map<String, CompletableFuture<String>> runtimes = new LinkedHashMap<>();
+        try (ExecutorService lookups = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (String app : apps) {
+                runtimes.put(app, CompletableFuture.supplyAsync(() -> lookUpRuntime(remote, app), lookups));
+            }
+        }
+
+        Map<String, List<String>> groups = new LinkedHashMap<>();
+        runtimes.forEach((app, runtime) -> groups.computeIfAbsent(runtime.join(), k -> new ArrayList<>()).add(app));
+        return groups;
+    }
+
+    private String lookUpRuntime(String remote, String app) {
+        try {
+            for (String line : updater.readCommandOutput(concat(CMD_FLATPAK_REMOTE_INFO, remote, app))) {
+                String trimmed = line.trim();
+                if (trimmed.startsWith(RUNTIME_FIELD)) {
+                    return trimmed.substring(RUNTIME_FIELD.length()).trim();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to look up runtime of " + app + ": " + e.getMessage());
+        }
+        return "";
+    }
+
+    private static List<String> concat(List<String> cmd, String... args) {
+        List<String> result = new ArrayList<>(cmd);
+        result.addAll(asList(args));
+        return result;
+    }
+
+    private void printSummary(int runtimeExitCode, Map<String, Integer> results) {
+        updater.println("Flatpak install results:");
+        if (runtimeExitCode != 0) {
+            updater.println(color("  FAIL  runtimes (exit code " + runtimeExitCode + ")", RED));
+        }
+        results.forEach((app, code) -> updater.println(code == 0
+            ? color("  OK    " + app, GREEN)
+            : color("  FAIL  " + app + " (exit code " + code + ")", RED)));
+    }
+}
@@ -0,0 +1,315 @@
+package cf.maybelambda.fedora;
+
+import static cf.maybelambda.fedora.ConsoleIOHelper.BLUE;
+import static cf.maybelambda.fedora.ConsoleIOHelper.GREEN;
+import static cf.maybelambda.fedora.ConsoleIOHelper.RED;
+import static cf.maybelambda.fedora.ConsoleIOHelper.color;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs every command of a plan on several hosts at once, so that a plan built once provisions a whole fleet
+ * in about the time it takes on a single machine.
+ *
+ * <p>Each host has its own {@link PostInstallUpdater}, whose processes are started through the
+ * {@link CommandTransport} of the host and whose console lines are prefixed with the host name. A command
+ * is started on all hosts, at most {@code maxHosts} at a time, and completes once it has exited everywhere.
+ * A host that cannot be reached is left out of the following commands and of the exit codes, so that it
+ * does not hold up the others. Likewise, a host on which a command of a step fails is left out of the rest
+ * of that step and of the steps depending on it (see {@link StepScheduler#currentStep()}), while the other
+ * hosts carry on; the command only fails, and with it the step, once no host is left to run it.
+ * Read-only queries ({@link #readCommandOutput(List)}) still run locally.
+ */
+public class FleetExecutor extends PostInstallUpdater {
+    static final int DEFAULT_MAX_HOSTS = 8;
+    // Longer lines are printed in pieces, each with the host prefix
+    private static final int MAX_LINE_BYTES = 8192;
+
+    /**
+     * Outcome of the commands run on one host.
+     *
+     * @param host Host name
+     * @param commands Number of commands started on the host
+     * @param failed Number of commands that failed on the host, or were not run because it could not be reached
+     *               or a step failed on it
+     * @param unreachable Whether the host could not be reached
+     * @param busy Total run time of the commands on the host
+     * @param failedSteps Steps that failed or were skipped on the host, in the order they were detected
+     */
+    record HostResult(String host, int commands, int failed, boolean unreachable, Duration busy, List<String> failedSteps) {
+        String outcome() {
+            return unreachable ? "unreachable" : failed > 0 ? "failed" : "ok";
+        }
+    }
+
+    private final List<Host> hosts = new ArrayList<>();
+    private final Semaphore slots;
+    private final PrintStream out;
+
+    /**
+     * @param targets Transports of the hosts to run the commands on
+     * @param maxHosts Number of hosts a command runs on at the same time
+     */
+    FleetExecutor(List<CommandTransport> targets, int maxHosts) {
+        this(targets, maxHosts, System.out);
+    }
+
+    /**
+     * @param targets Transports of the hosts to run the commands on
+     * @param maxHosts Number of hosts a command runs on at the same time
+     * @param out Console the output of all hosts is written to
+     */
+    FleetExecutor(List<CommandTransport> targets, int maxHosts, PrintStream out) {
+        if (targets.isEmpty()) throw new IllegalArgumentException("At least one host is needed");
+        if (maxHosts < 1) throw new IllegalArgumentException("At least one host must run at a time");
+        this.slots = new Semaphore(maxHosts);
+        this.out = out;
+        setConsole(out);
+        for (CommandTransport target : targets) {
+            PostInstallUpdater updater = new PostInstallUpdater();
+            PrintStream console = prefixed("[" + target.name() + "] ", out);
+            updater.setTransport(target);
+            updater.setConsole(console);
+            hosts.add(new Host(target, updater, console));
+        }
+    }
+
+    @Override
+    void setDryRun(boolean dryRun) {
+        super.setDryRun(dryRun);
+        hosts.forEach(host -> host.updater.setDryRun(dryRun));
+    }
+
+    @Override
+    void setReport(RunReport report) {
+        super.setReport(report);
+        hosts.forEach(host -> host.updater.setReport(report));
+    }
+
+    @Override
+    void setSessionLog(SessionLog sessionLog) {
+        super.setSessionLog(sessionLog);
+        hosts.forEach(host -> host.updater.setSessionLog(sessionLog));
+    }
+
+    @Override
+    void setCommandTimeout(Duration commandTimeout) {
+        super.setCommandTimeout(commandTimeout);
+        hosts.forEach(host -> host.updater.setCommandTimeout(commandTimeout));
+    }
+
+    @Override
+    void setStallTimeout(Duration stallTimeout) {
+        super.setStallTimeout(stallTimeout);
+        hosts.forEach(host -> host.updater.setStallTimeout(stallTimeout));
+    }
+
+    /**
+     * Gives each host a {@link ProgressDisplay} of its own, printing plain lines, since the progress of
+     * several hosts cannot be redrawn on a single console line.
+     *
+     * @param progress Any display to show progress, or {@code null} to print the full output of the commands
+     */
+    @Override
+    void setProgressDisplay(ProgressDisplay progress) {
+        hosts.forEach(host -> host.updater.setProgressDisplay(progress != null ? new ProgressDisplay(host.console, false) : null));
+    }
+
+    /**
+     * Runs the command on all reachable hosts, except those on which the current step or a step it depends on
+     * failed, and waits until it has exited on each of them.
+     *
+     * @return Within a step, {@code 0} if it succeeded on any host, otherwise (and outside of steps) the first
+     *         non-zero exit code of the hosts, or {@code -1} if no host was left to run it
+     */
+    @Override
+    int runCommand(List<String> baseCmd, List<String> args) {
+        return dispatch(baseCmd, args).join();
+    }
+
+    /**
+     * Starts the command on all reachable hosts; the calling thread only waits when {@code maxHosts} commands
+     * are already running.
+     *
+     * @return Future completed with the exit code described in {@link #runCommand(List, List)}
+     */
+    @Override
+    CompletableFuture<Integer> runCommandAsync(List<String> baseCmd, List<String> args) {
+        return dispatch(baseCmd, args);
+    }
+
+    private CompletableFuture<Integer> dispatch(List<String> baseCmd, List<String> args) {
+        SetupStep step = StepScheduler.currentStep();
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (Host host : hosts) {
+            if (host.unreachable || step != null && host.skips(step)) {
+                host.failed.incrementAndGet();
+                continue;
+            }
+            // Started on the calling thread, which keeps the step and deadline of the command
+            slots.acquireUninterruptibly();
+            long start = System.nanoTime();
+            CompletableFuture<Integer> result;
+            try {
+                result = host.updater.runCommandAsync(baseCmd, args);
+            } catch (RuntimeException e) {
+                slots.release();
+                throw e;
+            }
+            results.add(result.handle((code, e) -> {
+                slots.release();
+                return host.finished(e == null ? code : -1, System.nanoTime() - start, step);
+            }));
+        }
+        return CompletableFuture.allOf(results.toArray(CompletableFuture[]::new)).thenApply(done -> {
+            List<Integer> codes = results.stream().map(CompletableFuture::join).filter(code -> code != null).toList();
+            if (codes.isEmpty()) return -1;
+            return step != null && codes.contains(0) ? 0 : codes.stream().filter(code -> code != 0).findFirst().orElse(0);
+        });
+    }
+
+    /**
+     * @return Outcome of the commands on each host, in the order the hosts were given
+     */
+    List<HostResult> results() {
+        return hosts.stream().map(host -> new HostResult(host.transport.name(), host.commands.get(), host.failed.get(),
+            host.unreachable, Duration.ofNanos(host.busyNanos.get()), List.copyOf(host.failedSteps))).toList();
+    }
+
+    /**
+     * @param step Step name
+     * @return {@code true} if {@code step} failed, or was skipped, on any host
+     */
+    boolean hasFailedStep(String step) {
+        return hosts.stream().anyMatch(host -> host.failedSteps.contains(step));
+    }
+
+    /**
+     * Prints a table with the outcome of the commands on each host.
+     */
+    void printResults() {
+        out.println(color("\nHost                     Result       Commands  Failed   Run time", BLUE));
+        for (HostResult result : results()) {
+            String line = String.format("%-24s %-12s %8d %7d %9.1fs", result.host(), result.outcome(), result.commands(),
+                result.failed(), result.busy().toMillis() / 1000.0);
+            out.println(color(line, result.outcome().equals("ok") ? GREEN : RED));
+        }
+        for (HostResult result : results()) {
+            if (!result.failedSteps().isEmpty()) {
+                out.println(color("Steps not completed on " + result.host() + ": " + String.join(", ", result.failedSteps()), RED));
+            }
+        }
+    }
+
+    /**
+     * Returns a stream that writes whole lines to {@code out}, each preceded by {@code prefix}, so that the
+     * lines of several hosts do not mix.
+     *
+     * @param prefix Text written at the start of every line
+     * @param out Stream the lines are written to
+     * @return Prefixing stream
+     */
+    static PrintStream prefixed(String prefix, PrintStream out) {
+        OutputStream lines = new OutputStream() {
+            private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+            @Override
+            public synchronized void write(int b) {
+                line.write(b);
+                if (b == '\n' || line.size() >= MAX_LINE_BYTES) {
+                    writeLine();
+                }
+            }
+
+            @Override
+            public synchronized void close() {
+                if (line.size() > 0) {
+                    write('\n');
+                }
+            }
+
+            private void writeLine() {
+                byte[] bytes = line.toByteArray();
+                synchronized (out) {
+                    out.print(prefix);
+                    out.write(bytes, 0, bytes.length);
+                    if (bytes[bytes.length - 1] != '\n') {
+                        out.println();
+                    }
+                    out.flush();
+                }
+                line.reset();
+            }
+        };
+        return new PrintStream(lines, true, StandardCharsets.UTF_8);
+    }
+
+    private static class Host {
+        private final CommandTransport transport;
+        private final PostInstallUpdater updater;
+        private final PrintStream console;
+        private final AtomicInteger commands = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicLong busyNanos = new AtomicLong();
+        private final List<String> failedSteps = new CopyOnWriteArrayList<>();
+        private volatile boolean unreachable;
+
+        private Host(CommandTransport transport, PostInstallUpdater updater, PrintStream console) {
+            this.transport = transport;
+            this.updater = updater;
+            this.console = console;
+        }
+
+        /**
+         * Tells whether the commands of {@code step} are left out on this host, because it or a step it
+         * depends on failed here. A step left out is itself recorded as failed, so that its dependents are too.
+         */
+        private synchronized boolean skips(SetupStep step) {
+            if (failedSteps.contains(step.name())) return true;
+            if (Collections.disjoint(step.dependsOn(), failedSteps)) return false;
+            failedSteps.add(step.name());
+            console.println(color("Skipping step " + step.name() + ": a step it depends on failed on this host.", RED));
+            return true;
+        }
+
+        /**
+         * Counts a command that exited on this host, in {@code step} if not {@code null}.
+         *
+         * @return {@code exitCode}, or {@code null} if the host could not be reached
+         */
+        private Integer finished(int exitCode, long nanos, SetupStep step) {
+            commands.incrementAndGet();
+            busyNanos.addAndGet(nanos);
+            if (exitCode != 0) {
+                failed.incrementAndGet();
+            }
+            if (transport.isConnectionFailure(exitCode)) {
+                unreachable = true;
+                console.println(color("Host could not be reached, its remaining commands are skipped.", RED));
+                return null;
+            }
+            if (exitCode != 0 && step != null) {
+                synchronized (this) {
+                    if (!failedSteps.contains(step.name())) {
+                        failedSteps.add(step.name());
+                        console.println(color("Command failed with exit code " + exitCode + ", the rest of step "
+                            + step.name() + " is skipped on this host.", RED));
+                    }
+                }
+            }
+            return exitCode;
+        }
+    }
+}
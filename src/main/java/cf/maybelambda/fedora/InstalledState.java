@@ -0,0 +1,109 @@
+package cf.maybelambda.fedora;
+
+import static java.util.Arrays.asList;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Snapshot of the RPM packages and Flatpak applications installed on the system.
+ *
+ * <p>Taken once per run, it is used to pass to DNF and Flatpak only the entries of the configured lists
+ * that would actually change something. When a part of the snapshot could not be taken,
+ * the corresponding lists are returned unchanged.
+ */
+public class InstalledState {
+    static final List<String> CMD_RPM_QUERY_NAMES = asList("rpm", "-qa", "--queryformat", "%{NAME}\\n");
+    static final List<String> CMD_FLATPAK_LIST_APPS = asList("flatpak", "list", "--app", "--columns=application");
+
+    // null when the corresponding query failed
+    private final Set<String> rpms;
+    private final Set<String> flatpaks;
+
+    InstalledState(Set<String> rpms, Set<String> flatpaks) {
+        this.rpms = rpms;
+        this.flatpaks = flatpaks;
+    }
+
+    /**
+     * @return Snapshot that knows nothing about the system, leaving all lists unchanged
+     */
+    static InstalledState unknown() {
+        return new InstalledState(null, null);
+    }
+
+    /**
+     * Queries the installed RPM package names and Flatpak application IDs, one command each.
+     *
+     * <p>A failed query is reported to {@code System.err} and leaves that part of the snapshot unknown.
+     * An empty RPM database is also treated as unknown, since it cannot happen on a working system.
+     *
+     * @param updater {@link PostInstallUpdater} used to run the query commands
+     * @return Snapshot of the installed state
+     */
+    static InstalledState probe(PostInstallUpdater updater) {
+        Set<String> rpms = query(updater, CMD_RPM_QUERY_NAMES);
+        if (rpms != null && rpms.isEmpty()) {
+            rpms = null;
+        }
+        return new InstalledState(rpms, query(updater, CMD_FLATPAK_LIST_APPS));
+    }
+
+    private static Set<String> query(PostInstallUpdater updater, List<String> cmd) {
+        try {
+            Set<String> names = new HashSet<>();
+            for (String line : updater.readCommandOutput(cmd)) {
+                String trimmed = line.trim();
+                if (!trimmed.isEmpty()) {
+                    names.add(trimmed);
+                }
+            }
+            return names;
+        } catch (IOException e) {
+            System.err.println("Failed to query installed state with " + cmd.getFirst() + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * @param packages RPM package names
+     * @return Entries of {@code packages} that are not installed, in their original order
+     */
+    List<String> missingRpms(List<String> packages) {
+        return rpms == null ? packages : packages.stream().filter(p -> !rpms.contains(p)).toList();
+    }
+
+    /**
+     * @param packages RPM package names
+     * @return Entries of {@code packages} that are installed, in their original order
+     */
+    List<String> installedRpms(List<String> packages) {
+        return rpms == null ? packages : packages.stream().filter(rpms::contains).toList();
+    }
+
+    /**
+     * Filters RPM files by the name of the package they contain, taken from the file name
+     * ({@code name-version[-release].arch.rpm}) by dropping the segments that start with a digit.
+     *
+     * @param files Paths or URLs of RPM files
+     * @return Entries of {@code files} whose package is not installed, in their original order
+     */
+    List<String> missingRpmFiles(List<String> files) {
+        return rpms == null ? files : files.stream().filter(f -> !rpms.contains(packageNameOf(f))).toList();
+    }
+
+    static String packageNameOf(String rpmFile) {
+        String name = rpmFile.substring(rpmFile.lastIndexOf('/') + 1).replaceFirst("\\.[^.]+\\.rpm$", "");
+        return name.replaceFirst("(-\\d[^-]*)+$", "");
+    }
+
+    /**
+     * @param apps Flatpak application IDs
+     * @return Entries of {@code apps} that are not installed, in their original order
+     */
+    List<String> missingFlatpaks(List<String> apps) {
+        return flatpaks == null ? apps : apps.stream().filter(a -> !flatpaks.contains(a)).toList();
+    }
+}
@@ -0,0 +1,163 @@
+package cf.maybelambda.fedora;
+
+import static cf.maybelambda.fedora.ConsoleIOHelper.RED;
+import static cf.maybelambda.fedora.ConsoleIOHelper.color;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Append-only record of the steps completed by a run, used to resume an interrupted run.
+ *
+ * <p>Each completed step is written as one line holding its name and a fingerprint of its inputs
+ * (e.g. the filtered package list), and forced to disk before the next step starts, so the journal
+ * survives a crash or reboot. A resumed run skips the steps whose entry matches the fingerprint of
+ * their current inputs; a step whose inputs changed is run again. A line torn by a crash is ignored.
+ */
+public class Journal implements AutoCloseable {
+    static final String FILE_NAME = "journal.log";
+    private static final String SEPARATOR = "\t";
+
+    private final Path file;
+    // Fingerprint of the last completion of each step
+    private final Map<String, String> completed = new HashMap<>();
+    private final FileChannel channel;
+
+    private Journal(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+
+    /**
+     * Opens the journal of {@code dir}.
+     *
+     * @param dir Directory the journal is kept in, created if needed
+     * @param resume {@code true} to keep the entries of the previous run, {@code false} to start a new journal
+     * @return Open journal
+     * @throws IOException If the journal cannot be read or opened for writing
+     */
+    static Journal open(Path dir, boolean resume) throws IOException {
+        Files.createDirectories(dir);
+        Path file = dir.resolve(FILE_NAME);
+        Journal journal = new Journal(file, FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            resume ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING));
+        if (resume) {
+            byte[] content = Files.readAllBytes(file);
+            for (String line : new String(content, StandardCharsets.UTF_8).split("\n")) {
+                String[] fields = line.split(SEPARATOR);
+                if (fields.length == 3 && fields[2].length() == 64) {
+                    journal.completed.put(fields[1], fields[2]);
+                }
+            }
+            // Ends a line torn by a crash, so that the next entry is not appended to it
+            if (content.length > 0 && content[content.length - 1] != '\n') {
+                journal.channel.write(ByteBuffer.wrap(new byte[]{'\n'}));
+                journal.channel.force(true);
+            }
+        }
+        return journal;
+    }
+
+    /**
+     * @return Path of the journal file
+     */
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * @param inputs Values the outcome of a step depends on, e.g. its package list
+     * @return SHA-256 of the string representation of {@code inputs}, as hex
+     */
+    static String fingerprint(List<?> inputs) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(inputs.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * @param step Step name
+     * @param fingerprint Fingerprint of the current inputs of the step
+     * @return {@code true} if the step was last completed with the same inputs
+     */
+    synchronized boolean isCompleted(String step, String fingerprint) {
+        return fingerprint.equals(completed.get(step));
+    }
+
+    /**
+     * Appends a completion entry and forces it to disk.
+     *
+     * @param step Step name
+     * @param fingerprint Fingerprint of the inputs the step was completed with
+     * @throws IOException If the entry cannot be written
+     */
+    synchronized void record(String step, String fingerprint) throws IOException {
+        String line = Instant.now() + SEPARATOR + step + SEPARATOR + fingerprint + "\n";
+        ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(true);
+        completed.put(step, fingerprint);
+    }
+
+    /**
+     * Returns a step that runs {@code step} and records it as completed when its action returns normally.
+     *
+     * <p>A step whose command fails throws (see {@link StepScheduler.StepFailedException}) and is not recorded.
+     *
+     * @param step Step to journal
+     * @param inputs Values the outcome of the step depends on
+     * @return Journaled step
+     */
+    SetupStep journaled(SetupStep step, List<?> inputs) {
+        return journaled(step, inputs, name -> true);
+    }
+
+    /**
+     * Returns a step that runs {@code step} and records it as completed when its action returns normally
+     * and {@code completed} accepts its name, e.g. only if it did not fail on any host of a {@link FleetExecutor}.
+     *
+     * @param step Step to journal
+     * @param inputs Values the outcome of the step depends on
+     * @param completed Tells whether a step whose action returned normally was completed
+     * @return Journaled step
+     */
+    SetupStep journaled(SetupStep step, List<?> inputs, Predicate<String> completed) {
+        String fingerprint = fingerprint(inputs);
+        return new SetupStep(step.name(), step.dependsOn(), step.resources(), () -> {
+            step.action().run();
+            if (!completed.test(step.name())) return;
+            try {
+                record(step.name(), fingerprint);
+            } catch (IOException e) {
+                System.err.println(color("Failed to write journal entry of step " + step.name() + ": " + e.getMessage(), RED));
+            }
+        });
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close journal: " + e.getMessage());
+        }
+    }
+}
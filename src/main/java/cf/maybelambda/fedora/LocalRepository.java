@@ -0,0 +1,133 @@
+package cf.maybelambda.fedora;
+
+import static java.util.Arrays.asList;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds and configures a local DNF repository holding the packages of the DNF install step.
+ *
+ * <p>When many machines are provisioned, one of them builds the repository: the packages of
+ * {@code dnf-install.cf} are downloaded together with all of their dependencies (not only those
+ * missing on the building machine) and indexed with {@code createrepo_c}. The directory can then be
+ * copied or shared over the network, and every other machine configures it as a repository with
+ * the highest priority, so that packages are read from local disk or the LAN instead of the mirrors.
+ * Packages keep their original signatures, so they are still verified, against the Fedora and RPMFusion
+ * keys named in the definition. The definition is only meant for the run that writes it, which removes
+ * it at the end ({@link #removeCommand()}).
+ */
+public class LocalRepository {
+    static final String REPO_ID = "fedora-setup-local";
+    static final String REPO_FILE = "/etc/yum.repos.d/" + REPO_ID + ".repo";
+
+    static final List<String> CMD_INSTALL_CREATEREPO = asList("sudo", "dnf", "install", "-y", "createrepo_c");
+    static final List<String> CMD_DNF_DOWNLOAD = asList("dnf", "download", "--resolve", "--alldeps");
+    static final List<String> CMD_CREATEREPO = asList("createrepo_c", "--update");
+    static final List<String> CMD_WRITE_REPO_FILE = asList("sudo", "sh", "-c", Main.WRITE_FILE_SCRIPT, "sh", REPO_FILE);
+    static final List<String> CMD_REMOVE_REPO_FILE = asList("sudo", "rm", "-f", REPO_FILE);
+    // Installed by fedora-gpg-keys, as referenced by the Fedora repositories
+    static final String FEDORA_GPG_KEY = "file:///etc/pki/rpm-gpg/RPM-GPG-KEY-fedora-$releasever-$basearch";
+    private static final String GPG_KEY_DIR = "file:///" + SystemProbe.RPM_GPG_KEY_DIR + "/";
+    private static final String REFRESH_OPTION = "--refresh";
+
+    /**
+     * @param dir Directory the repository is created in; existing packages and metadata are kept and updated
+     * @param packages Names of the packages to include, their dependencies are added
+     * @return Commands installing {@code createrepo_c}, downloading the packages and generating the metadata
+     */
+    static List<ShellCommand> buildPlan(Path dir, List<String> packages) {
+        Path absolute = dir.toAbsolutePath();
+        List<String> download = new ArrayList<>();
+        download.add("--destdir=" + absolute);
+        download.addAll(packages);
+        return List.of(
+            new ShellCommand(CMD_INSTALL_CREATEREPO, asList()),
+            new ShellCommand(CMD_DNF_DOWNLOAD, download),
+            new ShellCommand(CMD_CREATEREPO, asList(absolute.toString())));
+    }
+
+    /**
+     * Runs the commands of {@link #buildPlan(Path, List)}, stopping at the first one that fails.
+     *
+     * @param updater {@link PostInstallUpdater} the commands are run with
+     * @param dir Directory the repository is created in
+     * @param packages Names of the packages to include
+     * @return {@code true} if all commands succeeded
+     */
+    static boolean build(PostInstallUpdater updater, Path dir, List<String> packages) {
+        for (ShellCommand command : buildPlan(dir, packages)) {
+            if (command.run(updater) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param location Directory of the repository, or its URL (e.g. {@code file:///mnt/repo} or
+     *                 {@code http://192.168.1.10/repo})
+     * @param rpmFusionKeys URLs of the RPMFusion keys, see {@link ConfigManager#getRPMFusionGpgKeys()}
+     * @return Command writing the definition of the repository to {@link #REPO_FILE}
+     */
+    static ShellCommand configureCommand(String location, List<String> rpmFusionKeys) {
+        return new ShellCommand(CMD_WRITE_REPO_FILE, repoFileLines(baseUrl(location), rpmFusionKeys));
+    }
+
+    /**
+     * @return Command removing the definition written by {@link #configureCommand(String, List)}
+     */
+    static ShellCommand removeCommand() {
+        return new ShellCommand(CMD_REMOVE_REPO_FILE, asList());
+    }
+
+    /**
+     * @param location Directory of the repository, relative to the working directory, or its URL
+     * @return {@code location} if it is a URL, otherwise the {@code file://} URL of the directory
+     */
+    static String baseUrl(String location) {
+        return location.contains("://") ? location : Path.of(location).toAbsolutePath().normalize().toUri().toString();
+    }
+
+    /**
+     * Defines the repository with the highest priority (DNF picks a package from the repository with the
+     * lowest priority value among those providing it) and without metadata caching, so a rebuilt repository
+     * is used right away. Repositories that cannot be reached are skipped rather than failing the transaction.
+     * The keys of the packages are named, so that DNF can import those not yet in the RPM database, as
+     * it does for the Fedora and RPMFusion repositories; this matters with {@code --offline}, when the
+     * local repository is the only one enabled. The RPMFusion keys are those installed in
+     * {@code /etc/pki/rpm-gpg} by the RPMFusion step.
+     *
+     * @param baseUrl URL of the repository
+     * @param rpmFusionKeys URLs of the RPMFusion keys, see {@link ConfigManager#getRPMFusionGpgKeys()}
+     * @return Lines of the repository definition file
+     */
+    static List<String> repoFileLines(String baseUrl, List<String> rpmFusionKeys) {
+        List<String> keys = new ArrayList<>(List.of(FEDORA_GPG_KEY));
+        rpmFusionKeys.forEach(key -> keys.add(GPG_KEY_DIR + DownloadCache.fileName(key)));
+        return List.of(
+            "[" + REPO_ID + "]",
+            "name=Fedora Setup Script local packages",
+            "baseurl=" + baseUrl,
+            "enabled=1",
+            "priority=1",
+            "gpgcheck=1",
+            "gpgkey=" + String.join(" ", keys),
+            "metadata_expire=0",
+            "skip_if_unavailable=True");
+    }
+
+    /**
+     * Restricts a DNF command to the local repository, so that it does not need network access.
+     *
+     * @param dnfCommand One of the {@code CMD_DNF_*} constants of {@link Main}
+     * @return The same command, enabling only the local repository and without refreshing metadata
+     */
+    static List<String> offline(List<String> dnfCommand) {
+        List<String> command = new ArrayList<>(dnfCommand);
+        command.remove(REFRESH_OPTION);
+        command.add(command.indexOf("dnf") + 1, "--repo=" + REPO_ID);
+        return command;
+    }
+}
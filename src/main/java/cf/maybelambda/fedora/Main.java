@@ -2,107 +2,748 @@ package cf.maybelambda.fedora;
 
 import static cf.maybelambda.fedora.ConsoleIOHelper.GREEN;
 import static cf.maybelambda.fedora.ConsoleIOHelper.RED;
+import static cf.maybelambda.fedora.ConsoleIOHelper.YELLOW;
 import static cf.maybelambda.fedora.ConsoleIOHelper.color;
 import static cf.maybelambda.fedora.ConsoleIOHelper.confirm;
+import static cf.maybelambda.fedora.ConsoleIOHelper.isANSISupported;
 import static cf.maybelambda.fedora.ConsoleIOHelper.promptForExclusions;
 import static java.util.Arrays.asList;
+import static java.util.stream.Stream.concat;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
 
 public class Main {
     private static final String OS_USERNAME_PROP = "user.name";
     
+    private static final int MAX_PARALLEL_STEPS = 4;
+
+    // Step names and the exclusive resources they hold, see StepScheduler
+    static final String STEP_PREFETCH = "prefetch";
+    static final String STEP_DNF_TUNING = "dnf-tuning";
+    static final String STEP_LOCAL_REPO = "local-repo";
+    static final String STEP_RPMFUSION = "rpmfusion";
+    static final String STEP_DNF_INSTALL = "dnf-install";
+    static final String STEP_DNF_REMOVE = "dnf-remove";
+    static final String STEP_DNF_TRANSACTION = "dnf-transaction";
+    static final String STEP_FLATPAK = "flatpak";
+    static final String STEP_GROUPS = "groups";
+    static final String STEP_COCKPIT = "cockpit";
+    static final String RES_DNF = "dnf";
+    static final String RES_FLATPAK = "flatpak";
+    static final String RES_ACCOUNTS = "accounts";
+
+    static final String DNF_DROP_IN = "/etc/dnf/libdnf5.conf.d/80-fedora-setup-script.conf";
+    // Shell script writing the lines given as arguments to the file given as first argument, creating its directory
+    static final String WRITE_FILE_SCRIPT = "f=$1; shift; mkdir -p \"${f%/*}\" && printf '%s\\n' \"$@\" > \"$f\"";
+    static List<String> CMD_WRITE_DNF_DROP_IN = asList("sudo", "sh", "-c", WRITE_FILE_SCRIPT, "sh", DNF_DROP_IN);
     static List<String> CMD_RPM_IMPORT = asList("sudo", "rpm", "--import");
     static List<String> CMD_DNF_INST_REPOS = asList("sudo", "dnf", "install", "-y");
     static List<String> CMD_DNF_INST = asList("sudo", "dnf", "--refresh", "install", "-y");
     static List<String> CMD_DNF_RM = asList("sudo", "dnf", "remove", "-y", "--noautoremove");
     static List<String> CMD_DNF_MARK = asList("sudo", "dnf", "mark", "-y", "user", "flatpak"); // single arg appended to cmd
     static List<String> CMD_DNF_AUTORM = asList("sudo", "dnf", "autoremove", "-y");
+    static List<String> CMD_DNF_TRANSACTION = asList("sudo", "dnf", "--refresh", "do", "-y");
     static List<String> CMD_FLATPAK_REMOTE_ADD = asList("sudo", "flatpak", "remote-add", "--if-not-exists");
     static List<String> CMD_FLATPAK_INST = asList("flatpak", "install", "-y");
-    static List<String> CMD_ADD_GROUP = asList("sudo", "groupadd");
+    // Creates each group given as argument unless it already exists
+    static List<String> CMD_ADD_GROUP = asList("sudo", "sh", "-c",
+        "for g; do getent group \"$g\" >/dev/null || groupadd \"$g\" || exit; done", "sh");
     static List<String> CMD_ADD_USER_TO_GROUP = asList("sudo", "usermod", "-aG");
-    static List<String> CMD_SYSTEMCTL_ENABLE = asList("sudo", "systemctl", "enable", "--now", "cockpit.socket"); // single arg appended to cmd
+    static final String COCKPIT_UNIT = "cockpit.socket";
+    static List<String> CMD_SYSTEMCTL_ENABLE = asList("sudo", "systemctl", "enable", "--now", COCKPIT_UNIT); // single arg appended to cmd
 
     /**
      * Entry point of the program.
-     * Delegates execution to the {@code Main.run} method.
+     * Delegates execution to the {@code Main.run} method, with a {@link FleetExecutor} when {@code --hosts=} is given.
+     * With {@code --daemon}, runs the requests of clients instead (see {@link Daemon}), and with {@code --connect},
+     * sends the other arguments to the daemon as a request.
+     * Exits with status 1 if a step was not completed, or the run or request could not be performed.
      */
     public static void main(String[] args) {
-        run(args, new PostInstallUpdater());
+        String socket = stringOption(args, "--socket=");
+        Path socketPath = socket != null ? Path.of(socket) : ConfigManager.getSocketPath();
+        if (asList(args).contains("--connect")) {
+            String[] request = asList(args).stream()
+                .filter(arg -> !arg.equals("--connect") && !arg.startsWith("--socket=")).toArray(String[]::new);
+            int status;
+            try {
+                status = Daemon.connect(socketPath, request, System.in, System.out);
+            } catch (IOException e) {
+                System.err.println(color("Request to the daemon on " + socketPath + " failed: " + e.getMessage(), RED));
+                status = Daemon.EXIT_FAILED;
+            }
+            System.exit(status);
+        }
+        if (asList(args).contains("--daemon")) {
+            try (Daemon daemon = Daemon.bind(socketPath, request -> run(request, updaterFor(request)), Daemon::hasSudoCredentials)) {
+                Runtime.getRuntime().addShutdownHook(new Thread(daemon::close));
+                ConfigManager.preloadPackageLists();
+                daemon.serve();
+            } catch (IOException e) {
+                System.err.println(color("Could not start the daemon: " + e.getMessage(), RED));
+            }
+            return;
+        }
+        int status = run(args, updaterFor(args));
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * @param args Command-line arguments
+     * @return {@link FleetExecutor} for the hosts of {@code --hosts=}, or a {@link PostInstallUpdater}
+     *         running the commands on this machine
+     */
+    static PostInstallUpdater updaterFor(String[] args) {
+        String hosts = stringOption(args, "--hosts=");
+        return hosts == null ? new PostInstallUpdater() : new FleetExecutor(CommandTransport.parseHosts(hosts),
+            intOption(args, "--max-hosts=", FleetExecutor.DEFAULT_MAX_HOSTS));
     }
 
     /**
      * Executes the setup workflow based on provided command-line arguments.
      *
      * <p>This method parses command-line arguments and checks for known flags, sets up interactive prompts,
-     * and orchestrates various system configuration steps.
+     * and orchestrates various system configuration steps. All questions are asked first; the confirmed
+     * steps are then handed to a {@link StepScheduler}, which runs them one after another or, with
+     * {@code --parallel}, runs independent steps concurrently. With {@code --single-transaction}, package
+     * installation and removal are merged into a single DNF transaction. Unless {@code --full-lists} is given,
+     * packages that are already installed (or, for removals, already absent) are left out of the lists.
+     * DNF can be tuned first (parallel downloads, mirror selection, package cache) with the settings of
+     * {@link ConfigManager#getDnfTuning()}, written to a drop-in file; the step is offered only when they are missing.
+     * With {@code --build-local-repo=}, only a local repository with the DNF packages is built. With
+     * {@code --local-repo=}, such a repository is configured before installing, and with {@code --offline}
+     * the DNF packages are installed from it alone.
+     * Unless {@code --no-cache} is given, RPMFusion keys and release packages are downloaded concurrently into a
+     * local cache (see {@link DownloadCache}) while the questions are asked.
+     * Unless {@code --no-preflight} is given, the DNF packages are checked against the cached repository metadata.
+     * DNF packages are installed by a {@link BatchInstaller}, at most {@code --max-batch=} per transaction,
+     * so that packages that cannot be installed do not prevent the installation of the others.
+     * With {@code --prefetch}, the DNF packages are downloaded in the background while the questions are asked.
+     * With {@code --answers=}, the questions are answered by an {@link AnswerFile} instead of the user.
+     * With {@code --hosts=}, the commands run on the given hosts over ssh instead, see {@link FleetExecutor};
+     * since the local system says nothing about them, the complete lists are used as with {@code --full-lists},
+     * the DNF packages are not checked against the local repository metadata and the admin groups step is not offered.
+     * With {@code --keep-sudo}, the user authenticates once and privileged commands run through a single root shell.
+     * With {@code --report}, the timing of every step and command is summarized and saved as JSON.
+     * Unless {@code --verbose} is given, only the progress of DNF and Flatpak is shown instead of their full output.
+     * Unless {@code --no-log} is given, commands and their output are saved to a compressed session log.
+     * Completed steps are recorded in a {@link Journal}; with {@code --resume}, the steps an interrupted run
+     * already completed with the same inputs are skipped.
+     * {@code --command-timeout=}, {@code --step-timeout=} and {@code --stall-timeout=} bound, in seconds,
+     * how long a command or step may run and how long a command may go without producing output.
      *
      * @param args Command-line arguments passed to the program at startup
      * @param updater {@link PostInstallUpdater} responsible for executing OS commands
+     * @return Exit status: {@code 0} if all confirmed steps were completed, {@code 1} otherwise
      */
-    static void run(String[] args, PostInstallUpdater updater) {
+    static int run(String[] args, PostInstallUpdater updater) {
         if (asList(args).contains("-h") || asList(args).contains("--help")) {
             ConsoleIOHelper.printHelp();
-            return;
+            return 0;
         }
 
         System.out.println(color("]|I{•------» Fedora Setup Script «------•}I|[\n", GREEN));
         
-        List<String> dnfInstallPackages = ConfigManager.getDnfInstallPackages();
-        List<String> dnfRemovePackages = ConfigManager.getDnfRemovePackages();
-        List<String> flatpakInstallPackages = ConfigManager.getFlatpakInstallPackages();
         Scanner scanner = new Scanner(System.in);
+        int flatpakJobs = intOption(args, "--flatpak-jobs=", 0);
+        int maxBatch = intOption(args, "--max-batch=", 0);
+
+        // Checked before anything runs, so that a mistake in the file does not stop an unattended run halfway
+        AnswerFile answers = null;
+        String answersFile = stringOption(args, "--answers=");
+        if (answersFile != null) {
+            List<String> packages = concat(concat(ConfigManager.getDnfInstallPackages().stream(),
+                ConfigManager.getDnfRemovePackages().stream()), ConfigManager.getFlatpakInstallPackages().stream()).toList();
+            try {
+                answers = AnswerFile.load(Path.of(answersFile), ConfigManager.getPackageCategories(), packages);
+            } catch (IOException e) {
+                System.err.println(color("Failed to read answer file " + answersFile + ": " + e.getMessage(), RED));
+                return 1;
+            } catch (IllegalArgumentException e) {
+                System.err.println(color("Invalid answer file " + answersFile + ":\n" + e.getMessage(), RED));
+                return 1;
+            }
+        }
         
+        FleetExecutor fleet = updater instanceof FleetExecutor executor ? executor : null;
+        if (fleet != null) {
+            System.out.println(color("Commands will run on: " + String.join(", ",
+                fleet.results().stream().map(FleetExecutor.HostResult::host).toList()) + "\n", GREEN));
+        }
+
         updater.setDryRun(asList(args).contains("--dry-run"));
         if (updater.isDryRun()) {
             System.out.println(color("---[Dry Run Mode] Shell Commands will not be executed.---\n", RED));
         }
 
-        if (confirm(scanner, "Install RPMFusion repos?")) {
-            for (String key : ConfigManager.getRPMFusionGpgKeys()) {
-                updater.runCommand(CMD_RPM_IMPORT, asList(key));
+        updater.setCommandTimeout(secondsOption(args, "--command-timeout="));
+        updater.setStallTimeout(secondsOption(args, "--stall-timeout="));
+        Duration stepTimeout = secondsOption(args, "--step-timeout=");
+
+        if (!asList(args).contains("--verbose")) {
+            updater.setProgressDisplay(new ProgressDisplay(System.out, isANSISupported(System.getenv("TERM"), System.console())));
+        }
+
+        String buildRepo = stringOption(args, "--build-local-repo=");
+        if (buildRepo != null) {
+            Path dir = Path.of(buildRepo);
+            if (LocalRepository.build(updater, dir, ConfigManager.getDnfInstallPackages())) {
+                System.out.println(color("Local repository built in " + dir.toAbsolutePath()
+                    + ". Pass --local-repo=<directory or URL> on the machines to provision.", GREEN));
+                return 0;
+            }
+            System.err.println(color("Failed to build local repository in " + dir.toAbsolutePath(), RED));
+            return 1;
+        }
+        String localRepo = stringOption(args, "--local-repo=");
+        boolean offline = localRepo != null && asList(args).contains("--offline");
+        if (asList(args).contains("--offline") && localRepo == null) {
+            System.err.println(color("--offline needs --local-repo, DNF packages will be downloaded as usual.", RED));
+        }
+
+        SessionLog sessionLog = null;
+        Path stateDir = ConfigManager.getStateDir();
+        if (!asList(args).contains("--no-log")) {
+            try {
+                sessionLog = SessionLog.open(stateDir);
+                sessionLog.event("Session started with options: " + String.join(" ", args));
+                updater.setSessionLog(sessionLog);
+            } catch (IOException e) {
+                System.err.println("Failed to open session log: " + e.getMessage());
+                sessionLog = null;
+            }
+        }
+
+        Journal journal = null;
+        boolean resume = asList(args).contains("--resume");
+        if (!updater.isDryRun()) {
+            try {
+                journal = Journal.open(stateDir, resume);
+            } catch (IOException e) {
+                System.err.println("Failed to open journal: " + e.getMessage());
+            }
+        }
+        if (resume && journal == null) {
+            System.err.println(color("--resume needs a journal, all confirmed steps will be run.", RED));
+        }
+
+        PrivilegedShell privilegedShell = null;
+        if (asList(args).contains("--keep-sudo") && fleet != null) {
+            System.err.println(color("--keep-sudo only applies to the local machine, sudo will be run for each command.", RED));
+        } else if (asList(args).contains("--keep-sudo") && !updater.isDryRun()) {
+            privilegedShell = new PrivilegedShell(updater);
+            try {
+                privilegedShell.start();
+                updater.setPrivilegedShell(privilegedShell);
+            } catch (IOException e) {
+                System.err.println(color("Could not start privileged shell, sudo will be run for each command: "
+                    + e.getMessage(), RED));
+                privilegedShell.close();
+                privilegedShell = null;
+            }
+        }
+
+        boolean fullLists = asList(args).contains("--full-lists") || fleet != null;
+        InstalledState installed = fullLists ? InstalledState.unknown() : InstalledState.probe(updater);
+        Path systemRoot = ConfigManager.getSystemRoot();
+        SystemProbe probe = fullLists ? SystemProbe.unknown() : new SystemProbe(systemRoot);
+
+        // Indexed in the background from the cached repository metadata, checked once the DNF install step is confirmed
+        CompletableFuture<RepodataIndex> preflight = null;
+        // The local metadata says nothing about the repositories of the hosts
+        if (fleet == null && !asList(args).contains("--no-preflight")) {
+            List<String> wanted = ConfigManager.getDnfInstallPackages();
+            preflight = CompletableFuture.supplyAsync(() -> RepodataIndex.scan(systemRoot, wanted, updater), Thread.ofVirtual()::start);
+        }
+
+        PackagePrefetcher prefetcher = null;
+        if (asList(args).contains("--prefetch") && !updater.isDryRun() && !offline && fleet == null) {
+            List<String> missing = installed.missingRpms(ConfigManager.getDnfInstallPackages());
+            // The download cannot ask for the password while the questions are asked, so it is asked first
+            if (!missing.isEmpty() && (privilegedShell != null || PackagePrefetcher.authenticate(updater))) {
+                prefetcher = new PackagePrefetcher(updater);
+                prefetcher.start(missing);
+            } else if (!missing.isEmpty()) {
+                System.err.println(color("sudo authentication failed, packages will not be prefetched.", RED));
             }
+        }
 
-            List<String> repos = ConfigManager.getRPMFusionRepos();
-            updater.runCommand(CMD_DNF_INST_REPOS, repos);
+        List<SetupStep> steps = new ArrayList<>();
+        // Values each step depends on, a journaled step whose inputs changed is run again on resume. Taken from
+        // the configuration and the answers rather than from the system, which the interrupted run already changed
+        Map<String, List<?>> stepInputs = new HashMap<>();
+        if (localRepo != null) {
+            // Not journaled, since the definition is removed at the end of every run
+            steps.add(new SetupStep(STEP_LOCAL_REPO, Set.of(), Set.of(RES_DNF), planAction(updater,
+                List.of(LocalRepository.configureCommand(localRepo, ConfigManager.getRPMFusionGpgKeys())))));
+        }
+        Map<String, String> tuning = ConfigManager.getDnfTuning();
+        if (!tuning.isEmpty()) {
+            if (tuning.entrySet().stream().allMatch(s -> probe.hasDnfSetting(s.getKey(), s.getValue()))) {
+                System.out.println(color("DNF performance settings are already applied.", GREEN));
+            } else if (confirmStep(scanner, answers, STEP_DNF_TUNING,
+                "Apply DNF performance settings (" + String.join(", ", tuning.keySet()) + ")?")) {
+                stepInputs.put(STEP_DNF_TUNING, dnfDropInLines(tuning));
+                steps.add(new SetupStep(STEP_DNF_TUNING, Set.of(), Set.of(RES_DNF), planAction(updater,
+                    List.of(new ShellCommand(CMD_WRITE_DNF_DROP_IN, dnfDropInLines(tuning))))));
+            }
         }
 
-        if (confirm(scanner, "Install additional packages with DNF?")) {
-            List<String> filtered = promptForExclusions(dnfInstallPackages, scanner);
-            updater.runCommand(CMD_DNF_INST, filtered);
+        List<String> keys = ConfigManager.getRPMFusionGpgKeys().stream().filter(key -> !probe.hasRpmKey(key)).toList();
+        List<String> repos = installed.missingRpmFiles(ConfigManager.getRPMFusionRepos());
+        if (keys.isEmpty() && repos.isEmpty()) {
+            System.out.println(color("RPMFusion repos are already installed.", GREEN));
+        } else {
+            // Downloaded while the questions are answered, the commands then use the local copies
+            Path cacheDir = ConfigManager.getCacheDir();
+            // Local copies cannot be used on other hosts
+            CompletableFuture<DownloadCache.Fetched> files = updater.isDryRun() || fleet != null || asList(args).contains("--no-cache")
+                ? CompletableFuture.completedFuture(new DownloadCache.Fetched(Map.of(), Map.of()))
+                : DownloadCache.open(cacheDir).fetchAll(concat(keys.stream(), repos.stream()).toList());
+            if (confirmStep(scanner, answers, STEP_RPMFUSION, "Install RPMFusion repos?")) {
+                stepInputs.put(STEP_RPMFUSION, List.of(ConfigManager.getRPMFusionGpgKeys(), ConfigManager.getRPMFusionRepos()));
+                steps.add(new SetupStep(STEP_RPMFUSION, Set.of(STEP_DNF_TUNING), Set.of(RES_DNF),
+                    () -> {
+                        DownloadCache.Fetched fetched = files.join();
+                        fetched.errors().forEach((url, error) -> updater.println(
+                            color("Could not cache " + url + ", it will be downloaded again: " + error, YELLOW)));
+                        planAction(updater, rpmFusionPlan(keys, repos, fetched.files())).run();
+                    }));
+            }
         }
 
-        if (confirm(scanner, "Remove all DNF packages marked for removal?")) {
-            List<String> filtered = promptForExclusions(dnfRemovePackages, scanner);
-            updater.runCommand(CMD_DNF_RM, filtered);
-            updater.runCommand(CMD_DNF_MARK, asList());
-            updater.runCommand(CMD_DNF_AUTORM, asList());
+        List<String> dnfInstallOffered = installed.missingRpms(ConfigManager.getDnfInstallPackages());
+        List<String> dnfInstallFiltered = confirmAndFilter(scanner, answers, STEP_DNF_INSTALL, "Install additional packages with DNF?",
+            dnfInstallOffered, "All additional DNF packages are already installed.");
+        if (dnfInstallFiltered != null && preflight != null) {
+            dnfInstallFiltered = checkPackages(scanner, answers, preflight.join(), dnfInstallFiltered);
+        }
+        List<String> dnfRemoveOffered = installed.installedRpms(ConfigManager.getDnfRemovePackages());
+        List<String> dnfRemoveFiltered = confirmAndFilter(scanner, answers, STEP_DNF_REMOVE, "Remove all DNF packages marked for removal?",
+            dnfRemoveOffered, "No DNF packages marked for removal are installed.");
+        if (prefetcher != null) {
+            if (dnfInstallFiltered == null) {
+                prefetcher.cancel();
+            } else {
+                // Holds the DNF lock until the download finishes, so DNF steps start after it
+                steps.addFirst(new SetupStep(STEP_PREFETCH, Set.of(), Set.of(RES_DNF), prefetcher::await));
+            }
+        }
+        if (asList(args).contains("--single-transaction") && dnfInstallFiltered != null && dnfRemoveFiltered != null) {
+            List<String> transaction = dnfTransactionArgs(dnfInstallFiltered, dnfRemoveFiltered);
+            stepInputs.put(STEP_DNF_TRANSACTION, List.of(
+                packageInputs(ConfigManager.getDnfInstallPackages(), dnfInstallOffered, dnfInstallFiltered),
+                packageInputs(ConfigManager.getDnfRemovePackages(), dnfRemoveOffered, dnfRemoveFiltered)));
+            steps.add(new SetupStep(STEP_DNF_TRANSACTION, Set.of(STEP_DNF_TUNING, STEP_LOCAL_REPO, STEP_RPMFUSION), Set.of(RES_DNF),
+                planAction(updater, List.of(
+                    new ShellCommand(dnfCommand(CMD_DNF_MARK, offline), asList()),
+                    new ShellCommand(dnfCommand(CMD_DNF_TRANSACTION, offline), transaction)))));
+        } else {
+            if (dnfInstallFiltered != null) {
+                List<String> install = dnfInstallFiltered;
+                BatchInstaller installer = new BatchInstaller(updater, maxBatch);
+                stepInputs.put(STEP_DNF_INSTALL, packageInputs(ConfigManager.getDnfInstallPackages(), dnfInstallOffered, install));
+                steps.add(new SetupStep(STEP_DNF_INSTALL, Set.of(STEP_DNF_TUNING, STEP_LOCAL_REPO, STEP_RPMFUSION), Set.of(RES_DNF),
+                    () -> {
+                        BatchInstaller.Result result = installer.install(dnfCommand(CMD_DNF_INST, offline), install);
+                        if (!result.succeeded()) {
+                            throw new StepScheduler.StepFailedException((result.failed().size() + result.notAttempted().size())
+                                + " of " + install.size() + " packages were not installed");
+                        }
+                    }));
+            }
+            if (dnfRemoveFiltered != null) {
+                stepInputs.put(STEP_DNF_REMOVE, packageInputs(ConfigManager.getDnfRemovePackages(), dnfRemoveOffered, dnfRemoveFiltered));
+                steps.add(new SetupStep(STEP_DNF_REMOVE, Set.of(STEP_DNF_INSTALL), Set.of(RES_DNF), planAction(updater, List.of(
+                    new ShellCommand(dnfCommand(CMD_DNF_RM, offline), dnfRemoveFiltered),
+                    new ShellCommand(dnfCommand(CMD_DNF_MARK, offline), asList()),
+                    new ShellCommand(dnfCommand(CMD_DNF_AUTORM, offline), asList())))));
+            }
         }
 
-        if (confirm(scanner, "Install Flatpak apps?")) {
+        List<String> flatpakOffered = installed.missingFlatpaks(ConfigManager.getFlatpakInstallPackages());
+        List<String> flatpakFiltered = confirmAndFilter(scanner, answers, STEP_FLATPAK, "Install Flatpak apps?",
+            flatpakOffered, "All Flatpak apps are already installed.");
+        if (flatpakFiltered != null) {
             String name = ConfigManager.getFlatpakRemoteName();
             String url = ConfigManager.getFlatpakRemoteUrl();
-            updater.runCommand(CMD_FLATPAK_REMOTE_ADD, asList(name, url));
-
-            List<String> filtered = promptForExclusions(flatpakInstallPackages, scanner);
+            List<String> filtered = new ArrayList<>(flatpakFiltered);
             filtered.addFirst(name);
-            updater.runCommand(CMD_FLATPAK_INST, filtered);
+            boolean remoteExists = probe.hasFlatpakRemote(name);
+            stepInputs.put(STEP_FLATPAK, List.of(name, url,
+                packageInputs(ConfigManager.getFlatpakInstallPackages(), flatpakOffered, flatpakFiltered)));
+            steps.add(new SetupStep(STEP_FLATPAK, Set.of(), Set.of(RES_FLATPAK), () -> {
+                if (!remoteExists) {
+                    new ShellCommand(CMD_FLATPAK_REMOTE_ADD, asList(name, url)).runOrFail(updater);
+                }
+                if (flatpakJobs > 0) {
+                    Map<String, Integer> results = new FlatpakInstaller(updater, flatpakJobs).install(name, flatpakFiltered);
+                    long failed = results.values().stream().filter(code -> code != 0).count();
+                    if (failed > 0) {
+                        throw new StepScheduler.StepFailedException(failed + " of " + results.size() + " Flatpak apps were not installed");
+                    }
+                } else {
+                    new ShellCommand(CMD_FLATPAK_INST, filtered).runOrFail(updater);
+                }
+            }));
         }
 
-        if (confirm(scanner, "Ensure admin groups exist and add current user to them?")) {
-            String user = System.getProperty(OS_USERNAME_PROP);
-            for (String group : ConfigManager.getAdminGroups()) {
-                updater.runCommand(CMD_ADD_GROUP, asList(group));
-                updater.runCommand(CMD_ADD_USER_TO_GROUP, asList(group, user));
+        String user = System.getProperty(OS_USERNAME_PROP);
+        List<String> groups = ConfigManager.getAdminGroups();
+        List<String> missingGroups = groups.stream().filter(group -> !probe.groupExists(group)).toList();
+        List<String> joinGroups = groups.stream().filter(group -> !probe.isMember(group, user)).toList();
+        if (fleet != null) {
+            // The local user name is not the account to set up on the hosts (nor is root, for root@ destinations)
+            System.out.println(color("Admin groups are not set up with --hosts, since the user to add differs per host.", YELLOW));
+        } else if (joinGroups.isEmpty()) {
+            System.out.println(color("Current user is already a member of all admin groups.", GREEN));
+        } else if (confirmStep(scanner, answers, STEP_GROUPS, "Ensure admin groups exist and add current user to them?")) {
+            // All groups are created before adding the user, so that PlanOptimizer can merge each kind of command
+            List<ShellCommand> plan = new ArrayList<>();
+            for (String group : missingGroups) {
+                plan.add(new ShellCommand(CMD_ADD_GROUP, asList(group)));
+            }
+            for (String group : joinGroups) {
+                plan.add(new ShellCommand(CMD_ADD_USER_TO_GROUP, asList(group, user)));
             }
+            stepInputs.put(STEP_GROUPS, List.of(groups, user));
+            // Packages of the DNF install list (e.g. moby-engine, libvirt) create some of the groups as system groups
+            steps.add(new SetupStep(STEP_GROUPS, Set.of(STEP_DNF_INSTALL, STEP_DNF_TRANSACTION), Set.of(RES_ACCOUNTS),
+                planAction(updater, plan)));
         }
 
-        if (confirm(scanner, "Enable and start cockpit.socket service?")) {
-            updater.runCommand(CMD_SYSTEMCTL_ENABLE, asList());
+        if (probe.isUnitEnabled(COCKPIT_UNIT) && probe.isUnitActive(COCKPIT_UNIT)) {
+            System.out.println(color(COCKPIT_UNIT + " is already enabled and running.", GREEN));
+        } else if (confirmStep(scanner, answers, STEP_COCKPIT, "Enable and start " + COCKPIT_UNIT + " service?")) {
+            // cockpit itself is part of the DNF install list
+            stepInputs.put(STEP_COCKPIT, List.of(COCKPIT_UNIT));
+            steps.add(new SetupStep(STEP_COCKPIT, Set.of(STEP_DNF_INSTALL, STEP_DNF_TRANSACTION), Set.of(),
+                planAction(updater, List.of(new ShellCommand(CMD_SYSTEMCTL_ENABLE, asList())))));
         }
 
+        RunReport report = asList(args).contains("--report") ? new RunReport() : null;
+        updater.setReport(report);
+        int parallelism = asList(args).contains("--parallel") ? MAX_PARALLEL_STEPS : 1;
+        if (journal != null) {
+            steps = journaled(steps, stepInputs, journal, resume,
+                fleet == null ? name -> true : name -> !fleet.hasFailedStep(name));
+        }
+        List<String> unfinished = new StepScheduler(parallelism, report, stepTimeout).execute(steps);
+        if (localRepo != null && LocalRepository.removeCommand().run(updater) != 0) {
+            System.err.println(color("Failed to remove " + LocalRepository.REPO_FILE + ", remove it by hand.", RED));
+        }
+        if (privilegedShell != null) {
+            updater.setPrivilegedShell(null);
+            privilegedShell.close();
+        }
+        if (!unfinished.isEmpty()) {
+            System.out.println(color("\nSteps not completed: " + String.join(", ", unfinished), RED));
+        }
+        if (fleet != null) {
+            fleet.printResults();
+        }
+        if (sessionLog != null) {
+            sessionLog.event(unfinished.isEmpty()
+                ? "Session finished, all steps completed" : "Session finished, steps not completed: " + String.join(", ", unfinished));
+            updater.setSessionLog(null);
+            sessionLog.close();
+            System.out.println("Session log written to " + sessionLog.getFile());
+        }
+        if (journal != null) {
+            journal.close();
+        }
+        if (report != null) {
+            report.printSummary();
+            try {
+                System.out.println("Run report written to " + report.write(stateDir));
+            } catch (IOException e) {
+                System.err.println("Failed to write run report: " + e.getMessage());
+            }
+        }
+
+        if (!unfinished.isEmpty() || fleet != null && fleet.results().stream().anyMatch(host -> host.failed() > 0)) {
+            return 1;
+        }
         System.out.println(color("\n.o0×X×0o. All actions completed. Goodbye. .o0×X×0o.", GREEN));
+        return 0;
+    }
+
+    /**
+     * Reports the packages of {@code packages} unknown to the cached repository metadata and the size of the
+     * installation, offering to leave the unknown packages out.
+     *
+     * <p>Nothing is reported when no repository metadata is cached (e.g. on a fresh system).
+     *
+     * @param scanner {@link Scanner} used to read user input
+     * @param answers Answer file of an unattended run, or {@code null} to ask the user
+     * @param index Index of the configured packages
+     * @param packages Packages to install
+     * @return {@code packages}, without the unknown ones if the user agreed to leave them out
+     */
+    static List<String> checkPackages(Scanner scanner, AnswerFile answers, RepodataIndex index, List<String> packages) {
+        if (index.getRepositories() == 0) {
+            System.out.println(color("No cached repository metadata, package names not checked.", YELLOW));
+            return packages;
+        }
+        List<String> unknown = index.unknown(packages);
+        List<String> known = packages.stream().filter(p -> !unknown.contains(p)).toList();
+        RepodataIndex.Sizes sizes = index.totalSizes(known);
+        System.out.println("Pre-flight check of " + packages.size() + " packages against " + index.getRepositories()
+            + " repositories: download " + RepodataIndex.formatSize(sizes.downloadSize()) + ", installed "
+            + RepodataIndex.formatSize(sizes.installedSize()) + " (without dependencies).");
+        if (unknown.isEmpty()) {
+            return packages;
+        }
+        System.out.println(color("Packages not found in any enabled repository (repositories not configured yet, "
+            + "such as RPMFusion, are not checked): " + String.join(", ", unknown), YELLOW));
+        if (answers != null) {
+            System.out.println(answers.leavesOutUnknown() ? "Left out, as set in the answer file." : "Kept, as set in the answer file.");
+            return answers.leavesOutUnknown() ? known : packages;
+        }
+        return confirm(scanner, "Leave them out of the installation?") ? known : packages;
+    }
+
+    /**
+     * Builds the commands importing the RPMFusion keys and installing the release packages.
+     *
+     * @param keys URLs of the keys to import
+     * @param repos URLs of the release packages to install
+     * @param files Local copies of the files by URL; files without a copy are read from their URL
+     * @return Commands of the RPMFusion step
+     */
+    static List<ShellCommand> rpmFusionPlan(List<String> keys, List<String> repos, Map<String, String> files) {
+        List<ShellCommand> plan = new ArrayList<>();
+        for (String key : keys) {
+            plan.add(new ShellCommand(CMD_RPM_IMPORT, asList(files.getOrDefault(key, key))));
+        }
+        if (!repos.isEmpty()) {
+            plan.add(new ShellCommand(CMD_DNF_INST_REPOS, repos.stream().map(repo -> files.getOrDefault(repo, repo)).toList()));
+        }
+        return plan;
+    }
+
+    /**
+     * Records the completion of the steps in {@code journal} and, when resuming, leaves out those already
+     * completed with the same inputs. Steps without inputs (e.g. the prefetch) are neither journaled nor skipped.
+     *
+     * @param steps Confirmed steps
+     * @param inputs Values each step depends on, by step name
+     * @param journal Open journal
+     * @param resume {@code true} to skip the steps found in the journal
+     * @param completed Tells whether a step whose action returned normally was completed (see
+     *                  {@link Journal#journaled(SetupStep, List, Predicate)})
+     * @return Steps to run
+     */
+    static List<SetupStep> journaled(List<SetupStep> steps, Map<String, List<?>> inputs, Journal journal, boolean resume,
+                                     Predicate<String> completed) {
+        List<SetupStep> result = new ArrayList<>();
+        for (SetupStep step : steps) {
+            List<?> stepInputs = inputs.get(step.name());
+            if (stepInputs == null) {
+                result.add(step);
+            } else if (resume && journal.isCompleted(step.name(), Journal.fingerprint(stepInputs))) {
+                System.out.println(color("Step " + step.name() + " was already completed by a previous run, skipping.", GREEN));
+            } else {
+                result.add(journal.journaled(step, stepInputs, completed));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the inputs a package step is journaled with: the configured list and the packages left out of it
+     * when answering the questions (excluded or unknown to the pre-flight check).
+     *
+     * <p>Packages left out because they are already installed (or already absent) are not part of them, so that
+     * a resumed run finds the same inputs although the interrupted run changed the system.
+     *
+     * @param configured Configured package list
+     * @param offered Packages of {@code configured} the step was offered for
+     * @param chosen Packages the step acts on
+     * @return Inputs of the step
+     */
+    static List<?> packageInputs(List<String> configured, List<String> offered, List<String> chosen) {
+        return List.of(configured, offered.stream().filter(p -> !chosen.contains(p)).sorted().toList());
+    }
+
+    /**
+     * Optimizes {@code plan} with {@link PlanOptimizer} and returns a step action that runs it.
+     *
+     * <p>The action stops at the first command that fails and throws, so that the step is reported as
+     * failed and the steps depending on it are skipped.
+     *
+     * @param updater {@link PostInstallUpdater} the commands are run with
+     * @param plan Commands of the step, in execution order
+     * @return Action running the optimized plan
+     */
+    static Runnable planAction(PostInstallUpdater updater, List<ShellCommand> plan) {
+        List<ShellCommand> optimized = PlanOptimizer.optimize(plan);
+        return () -> optimized.forEach(cmd -> cmd.runOrFail(updater));
+    }
+
+    /**
+     * Reads the value of a numeric command-line option given as {@code <prefix><value>}.
+     *
+     * @param args Command-line arguments
+     * @param prefix Option name including the trailing {@code =} (e.g. {@code --flatpak-jobs=})
+     * @param defaultValue Value returned when the option is absent
+     * @return Value of the last occurrence of the option, or {@code defaultValue} if absent
+     * @throws RuntimeException If the value is not a positive integer
+     */
+    static int intOption(String[] args, String prefix, int defaultValue) {
+        int value = defaultValue;
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                String raw = arg.substring(prefix.length());
+                if (!raw.matches("^[1-9]\\d{0,3}$")) {
+                    throw new RuntimeException("Invalid value for " + prefix + ": " + raw);
+                }
+                value = Integer.parseInt(raw);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * @param command One of the {@code CMD_DNF_*} constants
+     * @param offline Whether DNF must only use the local repository, see {@link LocalRepository#offline(List)}
+     * @return {@code command}, restricted to the local repository if {@code offline}
+     */
+    private static List<String> dnfCommand(List<String> command, boolean offline) {
+        return offline ? LocalRepository.offline(command) : command;
+    }
+
+    /**
+     * Reads the value of a command-line option given as {@code <prefix><value>}.
+     *
+     * @param args Command-line arguments
+     * @param prefix Option name including the trailing {@code =} (e.g. {@code --local-repo=})
+     * @return Value of the last occurrence of the option, or {@code null} if absent
+     * @throws RuntimeException If the value is empty
+     */
+    static String stringOption(String[] args, String prefix) {
+        String value = null;
+        for (String arg : args) {
+            if (arg.startsWith(prefix)) {
+                value = arg.substring(prefix.length());
+                if (value.isBlank()) {
+                    throw new RuntimeException("Missing value for " + prefix);
+                }
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Reads a duration option given in seconds as {@code <prefix><seconds>}.
+     *
+     * @param args Command-line arguments
+     * @param prefix Option name including the trailing {@code =} (e.g. {@code --step-timeout=})
+     * @return Duration of the last occurrence of the option, or {@code null} if absent
+     * @throws RuntimeException If the value is not a positive integer
+     */
+    static Duration secondsOption(String[] args, String prefix) {
+        int seconds = intOption(args, prefix, 0);
+        return seconds > 0 ? Duration.ofSeconds(seconds) : null;
+    }
+
+    /**
+     * Asks for confirmation of a step, or takes the answer from the answer file of an unattended run.
+     *
+     * @param scanner {@link Scanner} used to read user input
+     * @param answers Answer file, or {@code null} to ask the user
+     * @param step Name of the step
+     * @param prompt Confirmation prompt of the step
+     * @return {@code true} if the step is to be run
+     */
+    private static boolean confirmStep(Scanner scanner, AnswerFile answers, String step, String prompt) {
+        if (answers == null) {
+            return confirm(scanner, prompt);
+        }
+        boolean run = answers.runs(step);
+        System.out.println(prompt + (run ? " yes" : " no") + " (answer file)");
+        return run;
+    }
+
+    /**
+     * Asks for confirmation of a package step and for the packages to exclude from it.
+     *
+     * <p>When {@code packages} is empty, there is nothing to do: {@code nothingToDo} is printed
+     * and the user is not asked. With an answer file, the packages it excludes are left out instead.
+     *
+     * @param scanner {@link Scanner} used to read user input
+     * @param answers Answer file, or {@code null} to ask the user
+     * @param step Name of the step
+     * @param prompt Confirmation prompt of the step
+     * @param packages Packages the step would act on
+     * @param nothingToDo Message printed when {@code packages} is empty
+     * @return Packages left after exclusions, or {@code null} if the step was declined or there is nothing to do
+     */
+    private static List<String> confirmAndFilter(Scanner scanner, AnswerFile answers, String step, String prompt,
+                                                 List<String> packages, String nothingToDo) {
+        if (packages.isEmpty()) {
+            System.out.println(color(nothingToDo, GREEN));
+            return null;
+        }
+        if (!confirmStep(scanner, answers, step, prompt)) {
+            return null;
+        }
+        if (answers == null) {
+            return promptForExclusions(packages, scanner);
+        }
+        List<String> filtered = answers.filter(packages);
+        if (filtered.size() < packages.size()) {
+            System.out.println("Excluded by the answer file: "
+                + String.join(", ", packages.stream().filter(p -> !filtered.contains(p)).toList()));
+        }
+        return filtered.isEmpty() ? null : filtered;
+    }
+
+    /**
+     * Builds the lines of the DNF drop-in file holding {@code settings}.
+     *
+     * @param settings DNF settings by name
+     * @return Lines of a {@code [main]} section, to append to {@code CMD_WRITE_DNF_DROP_IN}
+     */
+    static List<String> dnfDropInLines(Map<String, String> settings) {
+        List<String> lines = new ArrayList<>();
+        lines.add("[main]");
+        settings.forEach((key, value) -> lines.add(key + "=" + value));
+        return lines;
+    }
+
+    /**
+     * Builds the arguments of a {@code dnf do} command that installs and removes packages in one transaction.
+     *
+     * <p>Removals performed this way also remove dependencies no longer needed by other packages,
+     * which is what the separate remove and autoremove commands achieve otherwise.
+     *
+     * @param install Names of the packages to install
+     * @param remove Names of the packages to remove
+     * @return Arguments to append to {@code CMD_DNF_TRANSACTION}; actions without packages are omitted
+     */
+    static List<String> dnfTransactionArgs(List<String> install, List<String> remove) {
+        List<String> args = new ArrayList<>();
+        if (!install.isEmpty()) {
+            args.add("--action=install");
+            args.addAll(install);
+        }
+        if (!remove.isEmpty()) {
+            args.add("--action=remove");
+            args.addAll(remove);
+        }
+        return args;
     }
 }
@@ -0,0 +1,113 @@
+package cf.maybelambda.fedora;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Ring buffer keeping only the last bytes of output written to it.
+ *
+ * <p>Used to remember the end of the output of a command, which is where tools like DNF explain why
+ * they failed, with a memory footprint that does not depend on how much the command prints.
+ */
+public class OutputTail extends OutputStream {
+    // Bytes of output kept per command
+    static final int DEFAULT_CAPACITY = 16 * 1024;
+
+    private final byte[] ring;
+    private long written;
+
+    OutputTail() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    OutputTail(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Capacity must be at least 1");
+        this.ring = new byte[capacity];
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        ring[(int) (written++ % ring.length)] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] buf) {
+        write(buf, 0, buf.length);
+    }
+
+    @Override
+    public synchronized void write(byte[] buf, int off, int len) {
+        if (len >= ring.length) {
+            // Only the last ring.length bytes can survive
+            written += len - ring.length;
+            off += len - ring.length;
+            len = ring.length;
+        }
+        int pos = (int) (written % ring.length);
+        int first = Math.min(len, ring.length - pos);
+        System.arraycopy(buf, off, ring, pos, first);
+        System.arraycopy(buf, off + first, ring, 0, len - first);
+        written += len;
+    }
+
+    /**
+     * @return Total number of bytes written, including those no longer kept
+     */
+    synchronized long written() {
+        return written;
+    }
+
+    /**
+     * @return {@code true} if nothing was written or the last byte written is a line feed
+     */
+    synchronized boolean endsLine() {
+        return written == 0 || ring[(int) ((written - 1) % ring.length)] == '\n';
+    }
+
+    /**
+     * Decodes the kept bytes as UTF-8.
+     *
+     * <p>When older output has been discarded, the text starts at the first complete line kept.
+     *
+     * @return Last lines of the output written so far
+     */
+    synchronized String text() {
+        int size = (int) Math.min(written, ring.length);
+        int start = (int) ((written - size) % ring.length);
+        byte[] bytes = new byte[size];
+        int first = Math.min(size, ring.length - start);
+        System.arraycopy(ring, start, bytes, 0, first);
+        System.arraycopy(ring, 0, bytes, first, size - first);
+        String text = new String(bytes, StandardCharsets.UTF_8);
+        if (written > ring.length) {
+            text = text.substring(text.indexOf('\n') + 1);
+        }
+        return text;
+    }
+
+    /**
+     * Returns a stream that writes everything to {@code out}, flushing after each write so output is
+     * shown as soon as it is produced, and keeps the tail of it in this buffer.
+     *
+     * @param out Stream the bytes are forwarded to, e.g. the console
+     * @return Stream writing to both
+     */
+    OutputStream teeTo(OutputStream out) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                out.flush();
+                OutputTail.this.write(b);
+            }
+
+            @Override
+            public void write(byte[] buf, int off, int len) throws IOException {
+                out.write(buf, off, len);
+                out.flush();
+                OutputTail.this.write(buf, off, len);
+            }
+        };
+    }
+}
@@ -0,0 +1,121 @@
+package cf.maybelambda.fedora;
+
+import static cf.maybelambda.fedora.ConsoleIOHelper.YELLOW;
+import static cf.maybelambda.fedora.ConsoleIOHelper.color;
+import static java.util.Arrays.asList;
+import static java.util.stream.Stream.concat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Downloads the packages of the DNF install step into the DNF cache in the background.
+ *
+ * <p>Started as soon as the package lists are loaded, the download overlaps with the time the user
+ * spends answering prompts, so the install command later finds the packages in the local cache.
+ * The download runs through {@code sudo -n}, which fails immediately instead of prompting for a
+ * password (the terminal is in use by the prompts), so the user is asked for it beforehand by
+ * {@link #authenticate(PostInstallUpdater)}. If the download fails anyway, the end of its error output
+ * is reported and the packages are downloaded by the install command as usual.
+ */
+public class PackagePrefetcher {
+    static final List<String> CMD_DNF_DOWNLOAD_ONLY =
+        asList("sudo", "-n", "dnf", "install", "-y", "--downloadonly", "--skip-unavailable");
+
+    private final PostInstallUpdater updater;
+    private final CompletableFuture<Integer> download = new CompletableFuture<>();
+    // End of the error output of the download, reported if it fails
+    private final OutputTail errors = new OutputTail();
+    private Process process;
+    private boolean cancelled;
+
+    PackagePrefetcher(PostInstallUpdater updater) {
+        this.updater = updater;
+    }
+
+    /**
+     * Asks for the sudo password on the terminal, unless the credentials are cached, so that the
+     * download started afterwards can run through {@code sudo -n}.
+     *
+     * @param updater {@link PostInstallUpdater} whose {@code createProcessBuilder} is used to run {@code sudo}
+     * @return {@code true} if sudo credentials are available
+     */
+    static boolean authenticate(PostInstallUpdater updater) {
+        try {
+            return updater.createProcessBuilder(PrivilegedShell.CMD_SUDO_AUTH.toArray(String[]::new))
+                .inheritIO().start().waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Starts downloading {@code packages} on a virtual thread and returns immediately.
+     *
+     * <p>Output of the download command is not shown, so it does not interfere with the prompts;
+     * the end of its error output is kept for {@link #await()}.
+     * Packages only available from repositories that are not configured yet are skipped.
+     *
+     * @param packages Names of the packages to download
+     */
+    void start(List<String> packages) {
+        String[] command = concat(CMD_DNF_DOWNLOAD_ONLY.stream(), packages.stream()).toArray(String[]::new);
+        Thread.ofVirtual().start(() -> {
+            try {
+                ProcessBuilder pb = updater.createProcessBuilder(command);
+                pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+                Process started;
+                synchronized (this) {
+                    if (cancelled) return;
+                    started = process = pb.start();
+                }
+                try (InputStream stderr = started.getErrorStream()) {
+                    stderr.transferTo(errors);
+                }
+                download.complete(started.waitFor());
+            } catch (IOException | InterruptedException e) {
+                download.complete(-1);
+            }
+        });
+    }
+
+    /**
+     * Stops the download if it is still running, e.g. because the user declined the install step.
+     */
+    void cancel() {
+        synchronized (this) {
+            cancelled = true;
+            if (process != null) {
+                process.destroy();
+            }
+        }
+        download.complete(-1);
+    }
+
+    /**
+     * Waits for the download to finish, reporting when it did not succeed, with the end of its error output.
+     *
+     * @return {@code true} if all downloadable packages were prefetched, {@code false} otherwise
+     */
+    boolean await() {
+        int exitCode = download.join();
+        boolean wasCancelled;
+        synchronized (this) {
+            wasCancelled = cancelled;
+        }
+        if (exitCode != 0 && !wasCancelled) {
+            System.out.println(color("Package prefetch did not complete (exit code " + exitCode
+                + "), packages will be downloaded during installation.", YELLOW));
+            String output = errors.text().strip();
+            if (!output.isEmpty()) {
+                System.out.println(output);
+            }
+        }
+        return exitCode == 0;
+    }
+}
@@ -0,0 +1,65 @@
+package cf.maybelambda.fedora;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BinaryOperator;
+
+/**
+ * Reduces the number of processes spawned by an execution plan by merging compatible adjacent commands.
+ *
+ * <p>Two adjacent commands are merged when they share the same base command and a merge rule exists for it:
+ * <ul>
+ *   <li>{@code rpm --import}: all key URLs are imported by a single call</li>
+ *   <li>group creation: all groups are created by a single call</li>
+ *   <li>{@code usermod -aG}: groups for the same user are joined into one comma-separated list</li>
+ * </ul>
+ * Commands are never reordered, so plans must place mergeable commands next to each other.
+ */
+public class PlanOptimizer {
+    // Returns the merged arguments, or null when the two argument lists cannot be merged
+    private static final Map<List<String>, BinaryOperator<List<String>>> MERGE_RULES = Map.of(
+        Main.CMD_RPM_IMPORT, PlanOptimizer::concatArgs,
+        Main.CMD_ADD_GROUP, PlanOptimizer::concatArgs,
+        Main.CMD_ADD_USER_TO_GROUP, PlanOptimizer::joinGroups
+    );
+
+    /**
+     * Merges compatible adjacent commands of {@code plan}.
+     *
+     * @param plan Commands in execution order
+     * @return New plan, equivalent to {@code plan}, with merged commands in place of the originals
+     */
+    static List<ShellCommand> optimize(List<ShellCommand> plan) {
+        List<ShellCommand> optimized = new ArrayList<>();
+        for (ShellCommand cmd : plan) {
+            if (!optimized.isEmpty()) {
+                ShellCommand last = optimized.getLast();
+                BinaryOperator<List<String>> rule = MERGE_RULES.get(cmd.baseCmd());
+                if (rule != null && last.baseCmd().equals(cmd.baseCmd())) {
+                    List<String> merged = rule.apply(last.args(), cmd.args());
+                    if (merged != null) {
+                        optimized.set(optimized.size() - 1, new ShellCommand(cmd.baseCmd(), merged));
+                        continue;
+                    }
+                }
+            }
+            optimized.add(cmd);
+        }
+        return optimized;
+    }
+
+    private static List<String> concatArgs(List<String> first, List<String> second) {
+        List<String> merged = new ArrayList<>(first);
+        merged.addAll(second);
+        return merged;
+    }
+
+    // usermod -aG takes <group[,group...]> <user>
+    private static List<String> joinGroups(List<String> first, List<String> second) {
+        if (first.size() != 2 || second.size() != 2 || !first.get(1).equals(second.get(1))) {
+            return null;
+        }
+        return List.of(first.get(0) + "," + second.get(0), first.get(1));
+    }
+}
@@ -1,18 +1,79 @@
 package cf.maybelambda.fedora;
 
 import static cf.maybelambda.fedora.ConsoleIOHelper.BLUE;
+import static cf.maybelambda.fedora.ConsoleIOHelper.RED;
+import static cf.maybelambda.fedora.ConsoleIOHelper.RESET;
 import static cf.maybelambda.fedora.ConsoleIOHelper.YELLOW;
 import static cf.maybelambda.fedora.ConsoleIOHelper.color;
+import static cf.maybelambda.fedora.ConsoleIOHelper.isANSISupported;
+import static java.util.Arrays.asList;
 import static java.util.stream.Stream.concat;
 
+import cf.maybelambda.fedora.RunReport.CountingInputStream;
+
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 public class PostInstallUpdater {
+    // Lines of output buffered per command between the stream pumps and the console
+    static final int OUTPUT_BUFFER_LINES = 4096;
+    // Marks the end of one of the streams of a command in its output buffer, compared by identity
+    private static final String END_OF_STREAM = new String("EOF");
+    private static final Supplier<Duration> NO_CPU = () -> Duration.ZERO;
+
+    private static final String SUDO = "sudo";
+    // Processes currently running, of all instances, terminated by a single shutdown hook if the JVM exits
+    // (e.g. on Ctrl-C); shared so that a long-lived JVM (see Daemon) does not add a hook per run
+    private static final Set<Process> running = ConcurrentHashMap.newKeySet();
+    private static final AtomicBoolean shutdownHookAdded = new AtomicBoolean();
+    // Set once the run has been cancelled (see Daemon), so that its remaining commands are not started
+    private static volatile boolean cancelled;
+
+    // Exit codes of commands terminated for exceeding their time limit, or for not producing output
+    static final int EXIT_TIMED_OUT = -2;
+    static final int EXIT_STALLED = -3;
+    // Exit code of commands not started, or terminated, because the run was cancelled
+    static final int EXIT_CANCELLED = -4;
+    // Exit codes of coreutils timeout when it had to terminate (or kill) the command
+    private static final Set<Integer> TIMEOUT_EXIT_CODES = Set.of(124, 137);
+    private static final long WATCHDOG_INTERVAL_MS = 500;
+    // Time given to a process tree to exit after SIGTERM, before it is killed
+    static final long KILL_GRACE_SECONDS = 10;
+
     private boolean dryRun;
+    private RunReport report;
+    private PrivilegedShell privilegedShell;
+    private SessionLog sessionLog;
+    private ProgressDisplay progress;
+    private Duration commandTimeout;
+    private Duration stallTimeout;
+    private CommandTransport transport = CommandTransport.local();
+    // Console output is written to, System.out unless set
+    private PrintStream console;
 
     boolean isDryRun() {
         return dryRun;
@@ -22,54 +83,568 @@ public class PostInstallUpdater {
         this.dryRun = dryRun;
     }
 
+    RunReport getReport() {
+        return report;
+    }
+
+    /**
+     * @param report {@link RunReport} that commands run from now on are recorded in,
+     *               or {@code null} to stop recording
+     */
+    void setReport(RunReport report) {
+        this.report = report;
+    }
+
+    /**
+     * @param privilegedShell Started {@link PrivilegedShell} that commands beginning with {@code sudo}
+     *                        are run through by {@link #runCommand(List, List)}, or {@code null} to
+     *                        spawn a process for each command
+     */
+    void setPrivilegedShell(PrivilegedShell privilegedShell) {
+        this.privilegedShell = privilegedShell;
+    }
+
+    /**
+     * @param sessionLog {@link SessionLog} that commands run from now on, and their output, are logged to,
+     *                   or {@code null} to stop logging
+     */
+    void setSessionLog(SessionLog sessionLog) {
+        this.sessionLog = sessionLog;
+    }
+
+    /**
+     * @param progress {@link ProgressDisplay} that shows the progress of commands instead of their output,
+     *                 or {@code null} to print their full output
+     */
+    void setProgressDisplay(ProgressDisplay progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * @param transport {@link CommandTransport} that starts the processes of commands, e.g. on another host
+     */
+    void setTransport(CommandTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * @param console Stream that messages and command output are written to, or {@code null} for {@code System.out}
+     */
+    void setConsole(PrintStream console) {
+        this.console = console;
+    }
+
+    private PrintStream console() {
+        PrintStream out = console;
+        return out != null ? out : System.out;
+    }
+
+    /**
+     * @param commandTimeout Time each command may run for, or {@code null} for no limit
+     */
+    void setCommandTimeout(Duration commandTimeout) {
+        this.commandTimeout = commandTimeout;
+    }
+
+    /**
+     * @param stallTimeout Time a command may run without producing output, or {@code null} for no limit
+     */
+    void setStallTimeout(Duration stallTimeout) {
+        this.stallTimeout = stallTimeout;
+    }
+
     /**
      * Creates a {@link ProcessBuilder} configured with the given command array.
+     *
+     * <p>The process is created by the {@link CommandTransport} set with {@link #setTransport(CommandTransport)},
+     * which runs it on the local machine unless set otherwise.
      * 
      * @param cmd An array containing the executable command parts
      * @return New {@code ProcessBuilder} instance initialized with {@code cmd}
      *
      */
     ProcessBuilder createProcessBuilder(String[] cmd) {
-        return new ProcessBuilder(cmd);
+        return transport.processBuilder(cmd);
     }
 
     /**  
      * Executes a shell command built from {@code baseCmd} followed by {@code args}.  
      * 
-     * <p>Prints the full command, displays each line of output,
+     * <p>Prints the full command, relays its output to the console as raw bytes, without decoding it,
      * waits for termination, reports the exit status, and returns that status code.
+     * Only the last {@link OutputTail#DEFAULT_CAPACITY} bytes of output are kept, and added to the
+     * {@link RunReport} when the command fails.
+     * When a {@link ProgressDisplay} is set, only the progress of the command is shown while it runs,
+     * and the end of its output once it exits, if it failed.
      * In dry‑run mode, it only informs the caller that no execution will occur.
+     * When a {@link PrivilegedShell} is set, commands starting with {@code sudo} are run through it
+     * instead of in a new process, unless it is busy with a command of another step.
+     *
+     * <p>A command that runs past its deadline (the command timeout, or the deadline of its step, see
+     * {@link StepScheduler#currentDeadline()}), or that produces no output for longer than the stall timeout,
+     * is terminated together with all of its descendants. Commands run through the privileged shell are
+     * bounded with {@code timeout(1)} instead, which cannot detect stalls.
      *
      * @param baseCmd List containing the initial command tokens  
      * @param args Additional arguments to append to {@code baseCmd}  
      * @return Exit code of the executed process, or {@code -1} if execution was not performed
-     *         due to an error, or {@code 0} if dry-run was enabled
+     *         due to an error, {@link #EXIT_TIMED_OUT} or {@link #EXIT_STALLED} if it was terminated,
+     *         {@link #EXIT_CANCELLED} if the run was cancelled before it started, or {@code 0} if dry-run was enabled
      */
     int runCommand(List<String> baseCmd, List<String> args) {
         String[] command = concat(baseCmd.stream(), args.stream()).toArray(String[]::new);
-        System.out.println("Executing shell command: " + color(String.join(" ", command), BLUE));
+        println("Executing shell command: " + color(String.join(" ", command), BLUE));
+        logEvent("Executing: " + String.join(" ", command));
+        Instant start = Instant.now();
         if (isDryRun()) {
-            System.out.println(color("Dry-run: command not executed.", YELLOW));
+            println(color("Dry-run: command not executed.", YELLOW));
+            logEvent("Dry-run: command not executed.");
+            record(command, RunReport.currentStep(), start, NO_CPU, 0, 0, null);
             return 0;
         }
+        Instant deadline = deadline(start);
+        if (deadline != null && !start.isBefore(deadline)) {
+            println(color("Command not started: the time limit of its step has been reached.", RED));
+            logEvent("Not started, time limit reached: " + String.join(" ", command));
+            record(command, RunReport.currentStep(), start, NO_CPU, 0, EXIT_TIMED_OUT, null);
+            return EXIT_TIMED_OUT;
+        }
+        if (cancelled) {
+            println(color("Command not started: the run has been cancelled.", RED));
+            logEvent("Not started, run cancelled: " + String.join(" ", command));
+            record(command, RunReport.currentStep(), start, NO_CPU, 0, EXIT_CANCELLED, null);
+            return EXIT_CANCELLED;
+        }
 
         int exitCode = -1;
+        OutputTail tail = new OutputTail();
+        AtomicLong outputBytes = new AtomicLong();
+        Supplier<Duration> cpu = NO_CPU;
+        ProgressDisplay display = progress;
+        ProgressDisplay.Task task = display != null ? display.start(label(command)) : null;
+        String source = logSource(command);
+        PrivilegedShell shell = privilegedShell;
+        if (shell != null && command.length > 1 && SUDO.equals(command[0])) {
+            OptionalInt shellExitCode = OptionalInt.of(-1);
+            try {
+                List<String> privileged = new ArrayList<>(asList(command).subList(1, command.length));
+                if (deadline != null) {
+                    long seconds = Math.max(1, Duration.between(Instant.now(), deadline).toSeconds());
+                    privileged.addAll(0, List.of("timeout", "-k", String.valueOf(KILL_GRACE_SECONDS), String.valueOf(seconds)));
+                }
+                AtomicBoolean header = new AtomicBoolean(task != null);
+                shellExitCode = shell.tryRun(privileged, line -> {
+                    byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                    outputBytes.addAndGet(bytes.length);
+                    tail.write(bytes);
+                    logOutput(source, bytes);
+                    if (task != null) {
+                        task.line(line);
+                    } else {
+                        if (!header.getAndSet(true)) console().println("Command output:");
+                        console().println(color(line, YELLOW));
+                    }
+                });
+            } catch (IOException e) {
+                System.err.println("Error while running command: " + e.getMessage());
+            }
+            // Busy with a command of a concurrently running step: spawn sudo below instead of waiting
+            if (shellExitCode.isPresent()) {
+                exitCode = shellExitCode.getAsInt();
+                if (deadline != null && TIMEOUT_EXIT_CODES.contains(exitCode) && !Instant.now().isBefore(deadline)) {
+                    exitCode = EXIT_TIMED_OUT;
+                }
+                finishOutput(task, tail, exitCode);
+                logEvent("Exited with code " + exitCode + ": " + String.join(" ", command));
+                record(command, RunReport.currentStep(), start, cpu, outputBytes.get(), exitCode, tail);
+                return exitCode;
+            }
+        }
+
         try {
             ProcessBuilder pb = createProcessBuilder(command);
             pb.redirectErrorStream(true);
             Process process = pb.start();
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            System.out.println("Command output:");
-            String line;
-            while ((line = reader.readLine()) != null) {
-                System.out.println(color(line, YELLOW));
+            track(process);
+            if (report != null) {
+                cpu = RunReport.sampleCpu(process.toHandle());
+            }
+            AtomicInteger terminated = watch(process, outputBytes, deadline);
+            InputStream out = new CountingInputStream(process.getInputStream(), outputBytes);
+            SessionLog log = sessionLog;
+            if (task != null) {
+                try (OutputStream parser = task.stream(); OutputStream logged = log != null ? log.teeTo(parser, source) : null) {
+                    out.transferTo(tail.teeTo(logged != null ? logged : parser));
+                }
+            } else {
+                boolean ansi = isANSISupported(System.getenv("TERM"), System.console());
+                PrintStream console = console();
+                console.println("Command output:");
+                console.print(ansi ? YELLOW : "");
+                try (OutputStream logged = log != null ? log.teeTo(console, source) : null) {
+                    out.transferTo(tail.teeTo(logged != null ? logged : console));
+                } finally {
+                    console.print((ansi ? RESET : "") + (tail.endsLine() ? "" : System.lineSeparator()));
+                }
             }
             exitCode = process.waitFor();
-            System.out.println("Command exited with code: " + exitCode);
+            running.remove(process);
+            if (terminated.get() != 0) {
+                exitCode = terminated.get();
+            }
         } catch (IOException | InterruptedException | NoSuchElementException e) {
             System.err.println("Error while running command: " + e.getMessage());
+            logEvent("Error while running command: " + e.getMessage());
         }
+        finishOutput(task, tail, exitCode);
+        logEvent("Exited with code " + exitCode + ": " + String.join(" ", command));
+        record(command, RunReport.currentStep(), start, cpu, outputBytes.get(), exitCode, tail);
 
         return exitCode;
     }
+
+    /**
+     * Reports the exit code of a command that was run, preceded by the end of its output if it failed
+     * while only its progress was shown.
+     */
+    private void finishOutput(ProgressDisplay.Task task, OutputTail tail, int exitCode) {
+        if (exitCode == EXIT_TIMED_OUT) {
+            println(color("Command exceeded its time limit and was terminated with all of its child processes.", RED));
+        } else if (exitCode == EXIT_STALLED) {
+            println(color("Command produced no output for " + stallTimeout.toSeconds()
+                + "s and was terminated with all of its child processes.", RED));
+        }
+        if (task != null) {
+            task.finish();
+            if (exitCode != 0 && tail.written() > 0) {
+                println(color("Last output of failed command:", RED) + System.lineSeparator()
+                    + tail.text().stripTrailing());
+            }
+        }
+        println("Command exited with code: " + exitCode);
+    }
+
+    /**
+     * @return Earliest of the deadline of a command started at {@code start} and the deadline of
+     *         the current step, or {@code null} if neither is set
+     */
+    private Instant deadline(Instant start) {
+        Instant deadline = commandTimeout != null ? start.plus(commandTimeout) : null;
+        Instant stepDeadline = StepScheduler.currentDeadline();
+        if (stepDeadline != null && (deadline == null || stepDeadline.isBefore(deadline))) {
+            deadline = stepDeadline;
+        }
+        return deadline;
+    }
+
+    /**
+     * Keeps track of {@code process} until it is waited for, so it can be terminated if the JVM shuts down
+     * or the run is cancelled first.
+     */
+    private static void track(Process process) {
+        running.add(process);
+        if (shutdownHookAdded.compareAndSet(false, true)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> running.forEach(p -> destroyTree(p.toHandle(), 2))));
+        }
+        // Started while cancelAll() went through the running processes
+        if (cancelled) {
+            Thread.ofVirtual().start(() -> destroyTree(process.toHandle(), KILL_GRACE_SECONDS));
+        }
+    }
+
+    /**
+     * Cancels the run: terminates the running commands of all instances, together with their descendants,
+     * and makes the commands started afterwards fail with {@link #EXIT_CANCELLED} until {@link #resetCancelled()}.
+     */
+    static void cancelAll() {
+        cancelled = true;
+        running.forEach(p -> Thread.ofVirtual().start(() -> destroyTree(p.toHandle(), KILL_GRACE_SECONDS)));
+    }
+
+    /**
+     * Lets commands be started again after {@link #cancelAll()}, for the next run of a long-lived JVM.
+     */
+    static void resetCancelled() {
+        cancelled = false;
+    }
+
+    /**
+     * Starts a virtual thread that terminates {@code process} and its descendants when it runs past
+     * {@code deadline} or its output stops growing for longer than the stall timeout.
+     *
+     * @param process Process to watch
+     * @param outputBytes Number of bytes of output read from the process so far
+     * @param deadline Instant the process must exit by, or {@code null} for no limit
+     * @return Holder of {@link #EXIT_TIMED_OUT} or {@link #EXIT_STALLED} once the process has been terminated
+     *         for that reason, {@code 0} otherwise
+     */
+    private AtomicInteger watch(Process process, AtomicLong outputBytes, Instant deadline) {
+        AtomicInteger terminated = new AtomicInteger();
+        Duration stall = stallTimeout;
+        if (deadline == null && stall == null) return terminated;
+        Thread.ofVirtual().start(() -> {
+            long seen = outputBytes.get();
+            Instant lastOutput = Instant.now();
+            try {
+                while (!process.waitFor(WATCHDOG_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                    Instant now = Instant.now();
+                    if (outputBytes.get() != seen) {
+                        seen = outputBytes.get();
+                        lastOutput = now;
+                    }
+                    int reason = deadline != null && !now.isBefore(deadline) ? EXIT_TIMED_OUT
+                        : stall != null && Duration.between(lastOutput, now).compareTo(stall) >= 0 ? EXIT_STALLED : 0;
+                    if (reason != 0) {
+                        terminated.set(reason);
+                        destroyTree(process.toHandle(), KILL_GRACE_SECONDS);
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                // Nothing left to watch
+            }
+        });
+        return terminated;
+    }
+
+    /**
+     * Asks {@code root} and all of its descendants to terminate, then kills those still alive after
+     * {@code graceSeconds}.
+     *
+     * <p>Descendants running as another user (e.g. the children of {@code sudo}) cannot be signaled
+     * directly; {@code sudo} relays the termination request to them.
+     *
+     * @param root Process at the top of the tree
+     * @param graceSeconds Time the processes are given to exit on their own
+     */
+    static void destroyTree(ProcessHandle root, long graceSeconds) {
+        List<ProcessHandle> tree = concat(root.descendants(), Stream.of(root)).toList();
+        tree.forEach(ProcessHandle::destroy);
+        try {
+            root.onExit().get(graceSeconds, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // Killed below
+        }
+        tree.stream().filter(ProcessHandle::isAlive).forEach(ProcessHandle::destroyForcibly);
+    }
+
+    /**
+     * Prints a line on the console, keeping the progress line of a {@link ProgressDisplay} below it.
+     *
+     * @param text Line to print
+     */
+    void println(String text) {
+        ProgressDisplay display = progress;
+        if (display != null) {
+            display.println(text);
+        } else {
+            console().println(text);
+        }
+    }
+
+    /**
+     * @return Name the progress of {@code command} is shown under: its step, or its executable
+     */
+    private static String label(String[] command) {
+        String step = RunReport.currentStep();
+        if (step != null) return step;
+        return command.length > 1 && SUDO.equals(command[0]) ? command[1] : command[0];
+    }
+
+    /**
+     * @return Source the output of {@code command} is logged under: its label, preceded by the host
+     *         when it runs on another machine
+     */
+    private String logSource(String[] command) {
+        return transport instanceof CommandTransport.Ssh ? transport.name() + " " + label(command) : label(command);
+    }
+
+    /**
+     * Adds a finished command to the {@link RunReport} set with {@link #setReport(RunReport)}, if any,
+     * with the tail of its output if it failed.
+     */
+    private void record(String[] command, String step, Instant start, Supplier<Duration> cpu, long outputBytes,
+                        int exitCode, OutputTail tail) {
+        RunReport current = report;
+        if (current != null) {
+            current.recordCommand(new RunReport.CommandRecord(step, List.of(command), start,
+                Duration.between(start, Instant.now()), cpu.get(), outputBytes, exitCode,
+                exitCode != 0 && tail != null ? tail.text() : null));
+        }
+    }
+
+    private void logEvent(String text) {
+        SessionLog log = sessionLog;
+        if (log != null) log.event(text);
+    }
+
+    private void logOutput(String source, byte[] bytes) {
+        SessionLog log = sessionLog;
+        if (log != null) log.output(source, bytes, 0, bytes.length);
+    }
+
+    /**
+     * Runs a read-only query command and returns its standard output.
+     *
+     * <p>Unlike {@link #runCommand(List, List)}, nothing is printed and the command is executed
+     * in dry‑run mode as well, since it does not modify the system. Standard error is discarded.
+     *
+     * @param cmd List containing the command tokens
+     * @return Lines written by the command to its standard output
+     * @throws IOException If the command cannot be started, is interrupted or exits with a non-zero code
+     */
+    List<String> readCommandOutput(List<String> cmd) throws IOException {
+        ProcessBuilder pb = createProcessBuilder(cmd.toArray(String[]::new));
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        Process process = pb.start();
+        List<String> lines;
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            lines = reader.lines().toList();
+        }
+        try {
+            int exitCode = process.waitFor();
+            if (exitCode != 0) throw new IOException(cmd.getFirst() + " exited with code " + exitCode);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for " + cmd.getFirst(), e);
+        }
+        return lines;
+    }
+
+    /**
+     * Starts a shell command built from {@code baseCmd} followed by {@code args} without waiting for it.
+     *
+     * <p>Standard output and standard error of the process are drained by two virtual threads into a
+     * bounded buffer, from which a third virtual thread relays them to the console. When the console falls
+     * behind and the buffer is full, draining waits for it, so the process is slowed down instead of its
+     * output being lost. This allows many commands to be in flight without a platform thread each.
+     * In dry‑run mode, it only informs the caller that no execution will occur.
+     *
+     * @param baseCmd List containing the initial command tokens
+     * @param args Additional arguments to append to {@code baseCmd}
+     * @return Future completed with the exit code of the process once all of its output has been relayed,
+     *         with {@code -1} if the process could not be started, or with {@code 0} if dry-run was enabled
+     */
+    CompletableFuture<Integer> runCommandAsync(List<String> baseCmd, List<String> args) {
+        String[] command = concat(baseCmd.stream(), args.stream()).toArray(String[]::new);
+        boolean ansi = isANSISupported(System.getenv("TERM"), System.console());
+        println("Executing shell command: " + color(String.join(" ", command), BLUE, ansi));
+        logEvent("Executing: " + String.join(" ", command));
+        String step = RunReport.currentStep();
+        Instant start = Instant.now();
+        if (isDryRun()) {
+            println(color("Dry-run: command not executed.", YELLOW, ansi));
+            logEvent("Dry-run: command not executed.");
+            record(command, step, start, NO_CPU, 0, 0, null);
+            return CompletableFuture.completedFuture(0);
+        }
+        Instant deadline = deadline(start);
+        if (deadline != null && !start.isBefore(deadline)) {
+            println(color("Command not started: the time limit of its step has been reached.", RED, ansi));
+            logEvent("Not started, time limit reached: " + String.join(" ", command));
+            record(command, step, start, NO_CPU, 0, EXIT_TIMED_OUT, null);
+            return CompletableFuture.completedFuture(EXIT_TIMED_OUT);
+        }
+        if (cancelled) {
+            println(color("Command not started: the run has been cancelled.", RED, ansi));
+            logEvent("Not started, run cancelled: " + String.join(" ", command));
+            record(command, step, start, NO_CPU, 0, EXIT_CANCELLED, null);
+            return CompletableFuture.completedFuture(EXIT_CANCELLED);
+        }
+
+        Process process;
+        try {
+            process = createProcessBuilder(command).start();
+        } catch (IOException e) {
+            System.err.println("Error while running command: " + e.getMessage());
+            record(command, step, start, NO_CPU, 0, -1, null);
+            return CompletableFuture.completedFuture(-1);
+        }
+
+        track(process);
+        Supplier<Duration> cpu = report != null ? RunReport.sampleCpu(process.toHandle()) : NO_CPU;
+        BlockingQueue<String> buffer = new ArrayBlockingQueue<>(OUTPUT_BUFFER_LINES);
+        AtomicLong outputBytes = new AtomicLong();
+        AtomicInteger terminated = watch(process, outputBytes, deadline);
+        OutputTail tail = new OutputTail();
+        ProgressDisplay display = progress;
+        ProgressDisplay.Task task = display != null ? display.start(label(command)) : null;
+        String source = logSource(command);
+        Thread.ofVirtual().start(() -> pump(new CountingInputStream(process.getInputStream(), outputBytes), buffer, tail, source));
+        Thread.ofVirtual().start(() -> pump(new CountingInputStream(process.getErrorStream(), outputBytes), buffer, tail, source));
+
+        CompletableFuture<Integer> exitCode = new CompletableFuture<>();
+        Thread.ofVirtual().start(() -> {
+            try {
+                int open = 2;
+                while (open > 0) {
+                    String line = buffer.take();
+                    if (line == END_OF_STREAM) {
+                        open--;
+                    } else if (task != null) {
+                        task.line(line);
+                    } else {
+                        console().println(color(line, YELLOW, ansi));
+                    }
+                }
+                int code = process.waitFor();
+                running.remove(process);
+                if (terminated.get() != 0) {
+                    code = terminated.get();
+                }
+                if (task != null) {
+                    task.finish();
+                }
+                if (code == EXIT_TIMED_OUT || code == EXIT_STALLED) {
+                    println(color(code == EXIT_TIMED_OUT ? "Command exceeded its time limit and was terminated."
+                        : "Command stalled and was terminated.", RED, ansi));
+                }
+                println("Command exited with code: " + code + " [" + String.join(" ", command) + "]");
+                logEvent("Exited with code " + code + ": " + String.join(" ", command));
+                record(command, step, start, cpu, outputBytes.get(), code, tail);
+                exitCode.complete(code);
+            } catch (InterruptedException e) {
+                if (task != null) {
+                    task.finish();
+                }
+                System.err.println("Error while running command: " + e.getMessage());
+                record(command, step, start, cpu, outputBytes.get(), -1, tail);
+                exitCode.complete(-1);
+            }
+        });
+
+        return exitCode;
+    }
+
+    /**
+     * Reads {@code in} line by line into {@code buffer} until the end of the stream.
+     *
+     * <p>While the buffer is full, reading waits for the console to catch up, so that no line is lost;
+     * the process then blocks once the pipe of its output fills up. Lines are also kept in {@code tail}
+     * and the session log, under {@code source}. The end of the stream (or a read error) is signaled by
+     * queueing {@link #END_OF_STREAM}.
+     */
+    private void pump(InputStream in, BlockingQueue<String> buffer, OutputTail tail, String source) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                tail.write(bytes);
+                logOutput(source, bytes);
+                buffer.put(line);
+            }
+        } catch (IOException e) {
+            System.err.println("Error while reading command output: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                buffer.put(END_OF_STREAM);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 }
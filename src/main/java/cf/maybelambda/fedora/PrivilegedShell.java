@@ -0,0 +1,203 @@
+package cf.maybelambda.fedora;
+
+import static java.util.Arrays.asList;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Long-lived root shell that runs privileged commands without spawning {@code sudo} for each one.
+ *
+ * <p>The user authenticates once when the shell is started; commands are then written to the shell's
+ * standard input and their output is read back until an end marker carrying the exit code. While the
+ * shell is open, the sudo credentials are refreshed periodically, so that other {@code sudo} invocations
+ * (e.g. by {@link PackagePrefetcher}) never stall on a password prompt in the middle of a run.
+ * The shell runs one command at a time: callers that must not wait for it (e.g. steps run concurrently
+ * with {@code --parallel}) use {@link #tryRun} and spawn {@code sudo} themselves while it is busy, which
+ * does not prompt since the credentials are kept fresh.
+ */
+public class PrivilegedShell implements AutoCloseable {
+    static final List<String> CMD_SUDO_AUTH = asList("sudo", "-v");
+    static final List<String> CMD_SUDO_KEEPALIVE = asList("sudo", "-n", "-v");
+    static final List<String> CMD_ROOT_SHELL = asList("sudo", "-n", "sh");
+    private static final long KEEPALIVE_INTERVAL_SECONDS = 60;
+
+    private final PostInstallUpdater updater;
+    private final String marker = "__fedora_setup_exit_" + UUID.randomUUID().toString().replace("-", "");
+    private final ReentrantLock lock = new ReentrantLock();
+    private Process shell;
+    private Writer stdin;
+    private BufferedReader stdout;
+    private Thread keepalive;
+
+    /**
+     * @param updater {@link PostInstallUpdater} whose {@code createProcessBuilder} is used to spawn processes
+     */
+    PrivilegedShell(PostInstallUpdater updater) {
+        this.updater = updater;
+    }
+
+    /**
+     * Authenticates the user with sudo, prompting for a password on the terminal if needed,
+     * and starts the root shell and the credential keepalive.
+     *
+     * @throws IOException If authentication fails or the shell cannot be started
+     */
+    void start() throws IOException {
+        if (runQuietly(CMD_SUDO_AUTH, true) != 0) {
+            throw new IOException("sudo authentication failed");
+        }
+        ProcessBuilder pb = updater.createProcessBuilder(CMD_ROOT_SHELL.toArray(String[]::new));
+        pb.redirectErrorStream(true);
+        shell = pb.start();
+        stdin = new OutputStreamWriter(shell.getOutputStream(), StandardCharsets.UTF_8);
+        stdout = new BufferedReader(new InputStreamReader(shell.getInputStream(), StandardCharsets.UTF_8));
+
+        keepalive = Thread.ofVirtual().start(() -> {
+            try {
+                while (shell.isAlive()) {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(KEEPALIVE_INTERVAL_SECONDS));
+                    runQuietly(CMD_SUDO_KEEPALIVE, false);
+                }
+            } catch (InterruptedException | IOException e) {
+                // Stopped by close(), or sudo is gone: nothing left to keep alive
+            }
+        });
+    }
+
+    /**
+     * Runs {@code command} in the root shell and waits for it to finish.
+     *
+     * <p>Standard error of the command is merged into its standard output, and standard input
+     * is closed ({@code /dev/null}), so a command can never consume the following ones.
+     *
+     * @param command Command tokens, without a leading {@code sudo}
+     * @param output Receives each line of output of the command
+     * @return Exit code of the command
+     * @throws IOException If the shell is not running or exits while the command runs
+     */
+    int run(List<String> command, Consumer<String> output) throws IOException {
+        lock.lock();
+        try {
+            return execute(command, output);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Runs {@code command} like {@link #run}, unless the shell is busy with a command of another thread.
+     *
+     * @param command Command tokens, without a leading {@code sudo}
+     * @param output Receives each line of output of the command
+     * @return Exit code of the command, or empty if the shell was busy and the command was not run
+     * @throws IOException If the shell is not running or exits while the command runs
+     */
+    OptionalInt tryRun(List<String> command, Consumer<String> output) throws IOException {
+        if (!lock.tryLock()) {
+            return OptionalInt.empty();
+        }
+        try {
+            return OptionalInt.of(execute(command, output));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int execute(List<String> command, Consumer<String> output) throws IOException {
+        if (shell == null || !shell.isAlive()) {
+            throw new IOException("Privileged shell is not running");
+        }
+        StringBuilder script = new StringBuilder();
+        for (String token : command) {
+            script.append(quote(token)).append(' ');
+        }
+        script.append("2>&1 </dev/null\nprintf '\\n%s %d\\n' ").append(marker).append(" $?\n");
+        stdin.write(script.toString());
+        stdin.flush();
+
+        // The marker is preceded by a newline, so a final line without terminator is still delimited;
+        // the empty line this leaves after output that did end with a newline is dropped.
+        String pending = null;
+        String line;
+        while ((line = stdout.readLine()) != null) {
+            if (line.startsWith(marker + " ")) {
+                if (pending != null && !pending.isEmpty()) {
+                    output.accept(pending);
+                }
+                return Integer.parseInt(line.substring(marker.length() + 1).trim());
+            }
+            if (pending != null) {
+                output.accept(pending);
+            }
+            pending = line;
+        }
+        throw new IOException("Privileged shell exited unexpectedly");
+    }
+
+    /**
+     * Exits the root shell and stops the credential keepalive.
+     */
+    @Override
+    public void close() {
+        if (keepalive != null) {
+            keepalive.interrupt();
+        }
+        lock.lock();
+        try {
+            exit();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void exit() {
+        if (shell != null && shell.isAlive()) {
+            try {
+                stdin.write("exit\n");
+                stdin.close();
+                if (!shell.waitFor(5, TimeUnit.SECONDS)) {
+                    shell.destroy();
+                }
+            } catch (IOException e) {
+                shell.destroy();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                shell.destroy();
+            }
+        }
+    }
+
+    private int runQuietly(List<String> cmd, boolean interactive) throws IOException {
+        ProcessBuilder pb = updater.createProcessBuilder(cmd.toArray(String[]::new));
+        if (interactive) {
+            pb.inheritIO();
+        } else {
+            pb.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        }
+        try {
+            return pb.start().waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while running " + String.join(" ", cmd), e);
+        }
+    }
+
+    /**
+     * Quotes {@code token} for the POSIX shell, so it is passed to the command as a single literal argument.
+     */
+    static String quote(String token) {
+        return "'" + token.replace("'", "'\\''") + "'";
+    }
+}
@@ -0,0 +1,200 @@
+package cf.maybelambda.fedora;
+
+import static cf.maybelambda.fedora.ConsoleIOHelper.YELLOW;
+import static cf.maybelambda.fedora.ConsoleIOHelper.color;
+
+import cf.maybelambda.fedora.ProgressParser.Progress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Shows the progress of the running commands on a single, rate-limited console line instead of their output.
+ *
+ * <p>The output of each command is parsed as it arrives by {@link ProgressParser}; the latest progress of
+ * every running command is combined into one line, redrawn at most every {@link #ANSI_INTERVAL_MS}
+ * milliseconds. On terminals without ANSI support the line cannot be redrawn in place, so it is printed
+ * as a new line at most every {@link #PLAIN_INTERVAL_MS} milliseconds. Lines reporting errors or warnings
+ * are always printed. Since the console is written far less often than the commands produce output,
+ * a slow terminal no longer backs up their pipes.
+ */
+public class ProgressDisplay {
+    static final long ANSI_INTERVAL_MS = 200;
+    static final long PLAIN_INTERVAL_MS = 5000;
+    private static final String CLEAR_LINE = "\r\u001B[2K";
+    // Longer lines are cut, the rest of them is not needed to parse progress
+    private static final int MAX_LINE_BYTES = 4096;
+    private static final int DEFAULT_WIDTH = 80;
+
+    private final PrintStream out;
+    private final boolean ansi;
+    private final long intervalNanos;
+    private final int width;
+    private final List<Task> running = new ArrayList<>();
+    private long lastRender = System.nanoTime();
+    private boolean lineShown;
+
+    /**
+     * @param out Console the progress is written to
+     * @param ansi Whether {@code out} supports ANSI escape sequences
+     */
+    ProgressDisplay(PrintStream out, boolean ansi) {
+        this.out = out;
+        this.ansi = ansi;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(ansi ? ANSI_INTERVAL_MS : PLAIN_INTERVAL_MS);
+        String columns = System.getenv("COLUMNS");
+        this.width = columns != null && columns.matches("\\d{2,4}") ? Integer.parseInt(columns) : DEFAULT_WIDTH;
+    }
+
+    /**
+     * Registers a running command.
+     *
+     * @param label Short name shown in front of the progress of the command, e.g. its step
+     * @return Task to feed the output of the command to, and to finish once the command exits
+     */
+    synchronized Task start(String label) {
+        Task task = new Task(label);
+        running.add(task);
+        return task;
+    }
+
+    /**
+     * Prints {@code text} on a line of its own, redrawing the progress line after it.
+     *
+     * @param text Text to print
+     */
+    synchronized void println(String text) {
+        clear();
+        out.println(text);
+        if (ansi && !running.isEmpty()) {
+            render();
+        }
+    }
+
+    /**
+     * @return Current progress line, with one entry per running command
+     */
+    synchronized String line() {
+        String line = running.stream().map(Task::toString).collect(Collectors.joining(" | "));
+        return line.length() < width ? line : line.substring(0, width - 1);
+    }
+
+    private synchronized void update(boolean force) {
+        long now = System.nanoTime();
+        if (force || now - lastRender >= intervalNanos) {
+            lastRender = now;
+            render();
+        }
+    }
+
+    private void render() {
+        if (running.isEmpty()) {
+            clear();
+            return;
+        }
+        if (ansi) {
+            out.print(CLEAR_LINE + color(line(), YELLOW, true));
+            out.flush();
+            lineShown = true;
+        } else {
+            out.println(line());
+        }
+    }
+
+    private void clear() {
+        if (lineShown) {
+            out.print(CLEAR_LINE);
+            lineShown = false;
+        }
+    }
+
+    /**
+     * Progress of one running command.
+     */
+    class Task {
+        private final String label;
+        private final ByteArrayOutputStream pendingLine = new ByteArrayOutputStream();
+        private Progress progress;
+        private long lines;
+
+        private Task(String label) {
+            this.label = label;
+        }
+
+        /**
+         * Parses one line of output of the command.
+         *
+         * @param line Line of output, without line terminator
+         */
+        void line(String line) {
+            Progress parsed = ProgressParser.parse(line);
+            synchronized (ProgressDisplay.this) {
+                lines++;
+                if (parsed != null) {
+                    progress = parsed;
+                }
+            }
+            if (parsed == null && ProgressParser.isNotable(line)) {
+                println(color(line, YELLOW, ansi));
+            } else {
+                update(false);
+            }
+        }
+
+        /**
+         * @return Stream that splits the raw output of the command into lines, on {@code \n} and {@code \r},
+         *         and parses them
+         */
+        OutputStream stream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    if (b == '\n' || b == '\r') {
+                        if (pendingLine.size() > 0) {
+                            String line = pendingLine.toString(StandardCharsets.UTF_8);
+                            pendingLine.reset();
+                            line(line);
+                        }
+                    } else if (pendingLine.size() < MAX_LINE_BYTES) {
+                        pendingLine.write(b);
+                    }
+                }
+
+                @Override
+                public void write(byte[] buf, int off, int len) {
+                    for (int i = off; i < off + len; i++) {
+                        write(buf[i]);
+                    }
+                }
+
+                @Override
+                public void close() {
+                    write('\n');
+                }
+            };
+        }
+
+        /**
+         * Removes the command from the progress line.
+         */
+        void finish() {
+            synchronized (ProgressDisplay.this) {
+                running.remove(this);
+                update(ansi);
+            }
+        }
+
+        @Override
+        public String toString() {
+            synchronized (ProgressDisplay.this) {
+                return label + ": " + (progress != null ? progress : lines + " lines");
+            }
+        }
+    }
+}
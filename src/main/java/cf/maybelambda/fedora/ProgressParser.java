@@ -0,0 +1,79 @@
+package cf.maybelambda.fedora;
+
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Recognizes the progress lines DNF (4 and 5) and Flatpak print while downloading and installing.
+ *
+ * <p>Lines are parsed one at a time, as they arrive, so no output needs to be kept around. Lines that
+ * report problems are recognized as well, so they can still be shown when the rest of the output is not.
+ */
+public class ProgressParser {
+    /**
+     * Position of a command within its current phase.
+     *
+     * @param phase What the command is doing, e.g. {@code Downloading} or {@code Installing}
+     * @param done Number of the item being processed
+     * @param total Number of items of the phase
+     * @param percent Progress of the current item, or {@code -1} if not reported
+     */
+    record Progress(String phase, int done, int total, int percent) {
+        @Override
+        public String toString() {
+            return phase + " " + done + "/" + total + (percent >= 0 ? " " + percent + "%" : "");
+        }
+    }
+
+    private static final String DOWNLOADING = "Downloading";
+    private static final Set<String> DNF5_PHASES = Set.of("Installing", "Upgrading", "Downgrading", "Reinstalling",
+        "Removing", "Verify", "Prepare", "Cleanup", "Running");
+
+    // dnf5: "[ 3/12] vim-common-2:9.1.1000-1.fc42.x86_64   100% |  10.1 MiB/s | ..."
+    private static final Pattern DNF5 = Pattern.compile("^\\[\\s*(\\d{1,9})/(\\d{1,9})]\\s+(\\S+).*?\\s(\\d{1,3})%\\s*\\|");
+    // dnf4 download: "(3/12): vim-common-9.1.1000-1.fc42.x86_64.rpm  5.3 MB/s | 8.0 MB  00:01"
+    private static final Pattern DNF4_DOWNLOAD = Pattern.compile("^\\((\\d{1,9})/(\\d{1,9})\\):");
+    // dnf4 transaction: "  Installing       : vim-common-2:9.1.1000-1.fc42.x86_64     3/12"
+    private static final Pattern DNF4_TRANSACTION = Pattern.compile(
+        "^\\s+(Installing|Upgrading|Downgrading|Reinstalling|Removing|Erasing|Cleanup|Verifying|Preparing|Running scriptlet)"
+            + "\\s*:.*?(\\d{1,9})/(\\d{1,9})\\s*$");
+    // flatpak: "Installing 2/7… ████████▌        45%  2.1 MB/s  00:12"
+    private static final Pattern FLATPAK = Pattern.compile(
+        "^(Installing|Updating|Uninstalling)\\s+(\\d{1,9})/(\\d{1,9})\\S*(?:.*?(\\d{1,3})%)?");
+    private static final Pattern NOTABLE = Pattern.compile("(?i)^\\s*(error|warning|failed|problem)\\b");
+
+    /**
+     * @param line Line of output, without line terminator
+     * @return Progress reported by {@code line}, or {@code null} if it is not a progress line
+     */
+    static Progress parse(String line) {
+        Matcher m = DNF5.matcher(line);
+        if (m.find()) {
+            String phase = DNF5_PHASES.contains(m.group(3)) ? m.group(3) : DOWNLOADING;
+            return new Progress(phase, Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)), Integer.parseInt(m.group(4)));
+        }
+        m = DNF4_DOWNLOAD.matcher(line);
+        if (m.find()) {
+            return new Progress(DOWNLOADING, Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)), -1);
+        }
+        m = DNF4_TRANSACTION.matcher(line);
+        if (m.find()) {
+            return new Progress(m.group(1), Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)), -1);
+        }
+        m = FLATPAK.matcher(line);
+        if (m.find()) {
+            return new Progress(m.group(1), Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)),
+                m.group(4) != null ? Integer.parseInt(m.group(4)) : -1);
+        }
+        return null;
+    }
+
+    /**
+     * @param line Line of output, without line terminator
+     * @return {@code true} if {@code line} reports an error or a warning
+     */
+    static boolean isNotable(String line) {
+        return NOTABLE.matcher(line).find();
+    }
+}
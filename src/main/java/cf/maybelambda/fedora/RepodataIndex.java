@@ -0,0 +1,260 @@
+package cf.maybelambda.fedora;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Index of the configured package names built from the repository metadata cached by DNF.
+ *
+ * <p>The {@code primary.xml} file of each cached repository is read with a streaming (StAX) parser, one
+ * package at a time, and only the packages whose name (or one of whose provides) is looked up are kept, so
+ * memory use does not depend on the size of the repositories. Metadata compressed with gzip is decompressed
+ * in process; xz and zstd are decompressed by the {@code xz} and {@code zstd} tools, streaming their output.
+ * Packages of other architectures than the one of the machine (and source packages) are ignored.
+ */
+public class RepodataIndex {
+    // Cache directories of DNF5 and DNF4, each holding one directory per repository
+    static final List<String> CACHE_DIRS = List.of("var/cache/libdnf5", "var/cache/dnf");
+    private static final String NOARCH = "noarch";
+
+    /**
+     * @param downloadSize Size of the package file in bytes
+     * @param installedSize Size of the installed package in bytes
+     */
+    record Sizes(long downloadSize, long installedSize) {
+    }
+
+    private final Set<String> wanted;
+    private final String arch;
+    private final Map<String, Sizes> packages = new HashMap<>();
+    private final Set<String> provided = new HashSet<>();
+    private int repositories;
+
+    /**
+     * @param wanted Names of the packages to index
+     * @param arch Architecture of the machine, as used in package names (e.g. {@code x86_64})
+     */
+    RepodataIndex(Collection<String> wanted, String arch) {
+        this.wanted = Set.copyOf(wanted);
+        this.arch = arch;
+    }
+
+    /**
+     * Indexes {@code wanted} from the metadata of every repository cached under {@code root}.
+     *
+     * <p>Repositories whose metadata cannot be read are reported on {@code System.err} and skipped.
+     *
+     * @param root Directory system paths are resolved against ({@code /} on a live system)
+     * @param wanted Names of the packages to index
+     * @param updater {@link PostInstallUpdater} used to start the decompression tools
+     * @return Index of the packages found
+     */
+    static RepodataIndex scan(Path root, Collection<String> wanted, PostInstallUpdater updater) {
+        RepodataIndex index = new RepodataIndex(wanted, machineArch());
+        for (Path primary : findPrimaryFiles(root)) {
+            try (InputStream in = open(primary, updater)) {
+                index.read(in);
+            } catch (IOException | XMLStreamException e) {
+                System.err.println("Failed to read repository metadata " + primary + ": " + e.getMessage());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param root Directory system paths are resolved against
+     * @return Most recent primary metadata file of each repository cached by DNF
+     */
+    static List<Path> findPrimaryFiles(Path root) {
+        List<Path> files = new ArrayList<>();
+        for (String cacheDir : CACHE_DIRS) {
+            try (DirectoryStream<Path> repos = Files.newDirectoryStream(root.resolve(cacheDir), Files::isDirectory)) {
+                for (Path repo : repos) {
+                    try (Stream<Path> candidates = Files.list(repo.resolve("repodata"))) {
+                        candidates.filter(f -> f.getFileName().toString().matches(".*primary\\.xml(\\.(gz|xz|zst))?"))
+                            .max(Comparator.comparing(RepodataIndex::lastModified))
+                            .ifPresent(files::add);
+                    } catch (IOException e) {
+                        // No metadata downloaded for this repository
+                    }
+                }
+            } catch (IOException e) {
+                // This version of DNF has no cache
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Reads the packages of one {@code primary.xml} document.
+     *
+     * @param xml Uncompressed document
+     * @throws XMLStreamException If the document is not well-formed
+     */
+    void read(InputStream xml) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XMLStreamReader reader = factory.createXMLStreamReader(xml);
+        String name = null;
+        String packageArch = null;
+        Sizes sizes = null;
+        List<String> provides = new ArrayList<>();
+        boolean inProvides = false;
+        try {
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "package" -> {
+                            name = packageArch = null;
+                            sizes = null;
+                            provides.clear();
+                        }
+                        case "name" -> name = reader.getElementText();
+                        case "arch" -> packageArch = reader.getElementText();
+                        case "size" -> sizes = new Sizes(longAttribute(reader, "package"), longAttribute(reader, "installed"));
+                        case "provides" -> inProvides = true;
+                        case "entry" -> {
+                            String provide = reader.getAttributeValue(null, "name");
+                            if (inProvides && wanted.contains(provide)) provides.add(provide);
+                        }
+                        default -> { }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    switch (reader.getLocalName()) {
+                        case "provides" -> inProvides = false;
+                        case "package" -> {
+                            if (name != null && (NOARCH.equals(packageArch) || arch.equals(packageArch))) {
+                                provided.addAll(provides);
+                                if (wanted.contains(name)) {
+                                    Sizes found = sizes != null ? sizes : new Sizes(0, 0);
+                                    // Keep the largest of the versions found, so that the estimate is not too low
+                                    packages.merge(name, found, (a, b) -> a.downloadSize() >= b.downloadSize() ? a : b);
+                                }
+                            }
+                        }
+                        default -> { }
+                    }
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        repositories++;
+    }
+
+    /**
+     * @return Number of repositories whose metadata was read
+     */
+    int getRepositories() {
+        return repositories;
+    }
+
+    /**
+     * @param names Package names
+     * @return Entries of {@code names} that are neither a package nor provided by one, in their original order
+     */
+    List<String> unknown(List<String> names) {
+        return names.stream().filter(n -> !packages.containsKey(n) && !provided.contains(n)).toList();
+    }
+
+    /**
+     * @param names Package names
+     * @return Sizes of the packages of {@code names} found, added up; dependencies are not included
+     */
+    Sizes totalSizes(List<String> names) {
+        long download = 0;
+        long installed = 0;
+        for (String name : names) {
+            Sizes sizes = packages.get(name);
+            if (sizes != null) {
+                download += sizes.downloadSize();
+                installed += sizes.installedSize();
+            }
+        }
+        return new Sizes(download, installed);
+    }
+
+    /**
+     * @param bytes Size in bytes
+     * @return Size in the largest binary unit that keeps it at or above 1, with one decimal, e.g. {@code 1.5 GiB}
+     */
+    static String formatSize(long bytes) {
+        String[] units = {"B", "KiB", "MiB", "GiB", "TiB"};
+        double size = bytes;
+        int unit = 0;
+        while (size >= 1024 && unit < units.length - 1) {
+            size /= 1024;
+            unit++;
+        }
+        return unit == 0 ? bytes + " B" : String.format("%.1f %s", size, units[unit]);
+    }
+
+    /**
+     * @return Architecture of the machine as used in package names
+     */
+    static String machineArch() {
+        String arch = System.getProperty("os.arch");
+        return switch (arch) {
+            case "amd64" -> "x86_64";
+            case "arm64" -> "aarch64";
+            default -> arch;
+        };
+    }
+
+    private static InputStream open(Path primary, PostInstallUpdater updater) throws IOException {
+        String name = primary.getFileName().toString();
+        if (name.endsWith(".gz")) {
+            return new GZIPInputStream(new BufferedInputStream(Files.newInputStream(primary)));
+        }
+        if (name.endsWith(".xz") || name.endsWith(".zst")) {
+            ProcessBuilder pb = updater.createProcessBuilder(new String[]{name.endsWith(".xz") ? "xz" : "zstd", "-dc", primary.toString()});
+            pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+            Process process = pb.start();
+            return new BufferedInputStream(process.getInputStream()) {
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    process.destroy();
+                }
+            };
+        }
+        return new BufferedInputStream(Files.newInputStream(primary));
+    }
+
+    private static long longAttribute(XMLStreamReader reader, String name) {
+        String value = reader.getAttributeValue(null, name);
+        try {
+            return value != null ? Long.parseLong(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package cf.maybelambda.fedora;
+
+import static cf.maybelambda.fedora.ConsoleIOHelper.BLUE;
+import static cf.maybelambda.fedora.ConsoleIOHelper.RED;
+import static cf.maybelambda.fedora.ConsoleIOHelper.color;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Collects timing and resource usage of the steps and commands of a run.
+ *
+ * <p>Steps are recorded by {@link StepScheduler}, commands by {@link PostInstallUpdater}; each command is
+ * attributed to the step running on the calling thread. At the end of the run the report is written as JSON
+ * and summarized on the console, including the chain of steps that determined the total wall time.
+ */
+public class RunReport {
+    private static final String FILE_PREFIX = "run-report-";
+    private static final DateTimeFormatter FILE_TIMESTAMP =
+        DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+    private static final long CPU_SAMPLE_INTERVAL_MS = 250;
+    private static final ThreadLocal<String> currentStep = new ThreadLocal<>();
+
+    record StepRecord(String name, Instant start, Instant end, boolean completed) {
+        Duration wall() {
+            return Duration.between(start, end);
+        }
+    }
+
+    // outputTail holds the last lines of output of failed commands, null for the others
+    record CommandRecord(String step, List<String> command, Instant start, Duration wall, Duration cpu,
+                         long outputBytes, int exitCode, String outputTail) {
+        /**
+         * @return {@code ok}, {@code failed}, {@code timed-out} or {@code stalled}
+         */
+        String outcome() {
+            return switch (exitCode) {
+                case 0 -> "ok";
+                case PostInstallUpdater.EXIT_TIMED_OUT -> "timed-out";
+                case PostInstallUpdater.EXIT_STALLED -> "stalled";
+                default -> "failed";
+            };
+        }
+    }
+
+    private final Instant started = Instant.now();
+    private final List<StepRecord> steps = new CopyOnWriteArrayList<>();
+    private final List<CommandRecord> commands = new CopyOnWriteArrayList<>();
+
+    /**
+     * @return Name of the step being run by the calling thread, or {@code null} outside of a step
+     */
+    static String currentStep() {
+        return currentStep.get();
+    }
+
+    /**
+     * Runs the action of {@code step} on the calling thread, recording its timing.
+     *
+     * @param step Step to run
+     * @throws RuntimeException Any exception thrown by the action, after recording the step as not completed
+     */
+    void runStep(SetupStep step) {
+        Instant start = Instant.now();
+        boolean completed = false;
+        currentStep.set(step.name());
+        try {
+            step.action().run();
+            completed = true;
+        } finally {
+            currentStep.remove();
+            steps.add(new StepRecord(step.name(), start, Instant.now(), completed));
+        }
+    }
+
+    void recordCommand(CommandRecord command) {
+        commands.add(command);
+    }
+
+    List<StepRecord> getSteps() {
+        return List.copyOf(steps);
+    }
+
+    List<CommandRecord> getCommands() {
+        return List.copyOf(commands);
+    }
+
+    /**
+     * Determines the chain of steps the run actually waited on.
+     *
+     * <p>Starting from the step that finished last, each predecessor is the step that finished last
+     * before the current one started, whether it was a declared dependency or the holder of a shared resource.
+     *
+     * @return Steps of the critical path, in execution order
+     */
+    List<StepRecord> criticalPath() {
+        List<StepRecord> path = new ArrayList<>();
+        StepRecord current = steps.stream().max(Comparator.comparing(StepRecord::end)).orElse(null);
+        while (current != null) {
+            path.addFirst(current);
+            Instant start = current.start();
+            current = steps.stream()
+                .filter(s -> !s.end().isAfter(start))
+                .max(Comparator.comparing(StepRecord::end))
+                .orElse(null);
+        }
+        return path;
+    }
+
+    /**
+     * Serializes the report as a JSON document.
+     *
+     * @return JSON text with the run totals, the steps, the commands (with the end of the output of
+     *         failed ones) and the critical path
+     */
+    String toJson() {
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"started\": ").append(quote(started.toString())).append(",\n");
+        json.append("  \"wallMillis\": ").append(Duration.between(started, Instant.now()).toMillis()).append(",\n");
+        json.append("  \"steps\": [");
+        for (int i = 0; i < steps.size(); i++) {
+            StepRecord s = steps.get(i);
+            json.append(i == 0 ? "\n" : ",\n")
+                .append("    {\"name\": ").append(quote(s.name()))
+                .append(", \"start\": ").append(quote(s.start().toString()))
+                .append(", \"wallMillis\": ").append(s.wall().toMillis())
+                .append(", \"completed\": ").append(s.completed()).append('}');
+        }
+        json.append("\n  ],\n  \"commands\": [");
+        for (int i = 0; i < commands.size(); i++) {
+            CommandRecord c = commands.get(i);
+            json.append(i == 0 ? "\n" : ",\n")
+                .append("    {\"step\": ").append(c.step() == null ? "null" : quote(c.step()))
+                .append(", \"command\": ").append(quote(String.join(" ", c.command())))
+                .append(", \"start\": ").append(quote(c.start().toString()))
+                .append(", \"wallMillis\": ").append(c.wall().toMillis())
+                .append(", \"cpuMillis\": ").append(c.cpu().toMillis())
+                .append(", \"outputBytes\": ").append(c.outputBytes())
+                .append(", \"exitCode\": ").append(c.exitCode())
+                .append(", \"outcome\": ").append(quote(c.outcome()));
+            if (c.outputTail() != null) {
+                json.append(", \"outputTail\": ").append(quote(c.outputTail()));
+            }
+            json.append('}');
+        }
+        json.append("\n  ],\n  \"criticalPath\": [");
+        List<StepRecord> path = criticalPath();
+        for (int i = 0; i < path.size(); i++) {
+            json.append(i == 0 ? "" : ", ").append(quote(path.get(i).name()));
+        }
+        return json.append("]\n}\n").toString();
+    }
+
+    /**
+     * Writes the report as JSON to a new timestamped file in {@code dir}, creating the directory if needed.
+     *
+     * <p>The file is only created if it does not exist yet; if a report of a run started in the same
+     * millisecond already has its name, a counter is appended to it.
+     *
+     * @param dir Directory the report is written to
+     * @return Path of the written file
+     * @throws IOException If the directory or the file cannot be written
+     */
+    Path write(Path dir) throws IOException {
+        Files.createDirectories(dir);
+        String name = FILE_PREFIX + FILE_TIMESTAMP.format(started);
+        Path file = dir.resolve(name + ".json");
+        for (int attempt = 2; ; attempt++) {
+            try {
+                return Files.writeString(file, toJson(), StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+            } catch (FileAlreadyExistsException e) {
+                file = dir.resolve(name + "-" + attempt + ".json");
+            }
+        }
+    }
+
+    /**
+     * Prints a table with the wall time of every step, marking the steps of the critical path,
+     * followed by the end of the output of each failed command.
+     */
+    void printSummary() {
+        List<StepRecord> path = criticalPath();
+        Duration total = path.isEmpty() ? Duration.ZERO : Duration.between(path.getFirst().start(), path.getLast().end());
+        System.out.println(color("\nStep                   Wall time  Critical path", BLUE));
+        for (StepRecord s : steps) {
+            boolean critical = path.contains(s);
+            long share = total.isZero() ? 0 : s.wall().toMillis() * 100 / total.toMillis();
+            System.out.printf("%-22s %8.1fs  %s%n", s.name(), s.wall().toMillis() / 1000.0,
+                critical ? "yes (" + share + "%)" : "");
+        }
+        for (CommandRecord c : commands) {
+            if (c.outputTail() != null) {
+                System.out.println(color("\nLast output of failed command (exit code " + c.exitCode() + "): "
+                    + String.join(" ", c.command()), RED));
+                System.out.print(c.outputTail());
+            }
+        }
+    }
+
+    private static String quote(String str) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : str.toCharArray()) {
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                case '\r' -> quoted.append("\\r");
+                case '\t' -> quoted.append("\\t");
+                default -> {
+                    if (c < 0x20) quoted.append(String.format("\\u%04x", (int) c));
+                    else quoted.append(c);
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Samples the CPU time used by {@code process} and its descendants until it exits.
+     *
+     * <p>CPU time of a process can only be read while it is alive, so it is sampled periodically on a
+     * virtual thread, keeping the last value seen for each process. Processes that live shorter than the
+     * sampling interval may be missed, which makes the result a lower bound.
+     *
+     * @param process Handle of the process to sample
+     * @return Supplier that waits for the sampling to end and returns the total CPU time observed
+     */
+    static Supplier<Duration> sampleCpu(ProcessHandle process) {
+        Map<Long, Duration> perProcess = new HashMap<>();
+        Thread sampler = Thread.ofVirtual().start(() -> {
+            do {
+                process.info().totalCpuDuration().ifPresent(cpu -> perProcess.put(process.pid(), cpu));
+                process.descendants().forEach(child ->
+                    child.info().totalCpuDuration().ifPresent(cpu -> perProcess.put(child.pid(), cpu)));
+                try {
+                    Thread.sleep(CPU_SAMPLE_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            } while (process.isAlive());
+        });
+        return () -> {
+            try {
+                sampler.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return perProcess.values().stream().reduce(Duration.ZERO, Duration::plus);
+        };
+    }
+
+    /**
+     * Input stream that counts the bytes read through it.
+     */
+    static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong count;
+
+        CountingInputStream(InputStream in, AtomicLong count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) count.incrementAndGet();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            int n = super.read(buf, off, len);
+            if (n > 0) count.addAndGet(n);
+            return n;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package cf.maybelambda.fedora;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persists the output and lifecycle events of the commands of a session to gzip-compressed files.
+ *
+ * <p>Producers only append to a lock-free queue, so logging never delays the console or the commands;
+ * a dedicated writer thread drains the queue periodically, compressing and flushing what it finds.
+ * When the writer falls too far behind (e.g. on a slow disk), further entries are dropped and counted
+ * instead of growing the queue without bound; the bound is on the bytes waiting, since an entry can be
+ * anything from a single byte to a whole read buffer of output. Files are rotated once a given amount of log has been
+ * written to them (the compressed files are much smaller), and only the most recent ones are kept.
+ * Each flush is a gzip sync flush, so the file of an interrupted session can still be read up to it.
+ *
+ * <p>Every line of command output is prefixed with its source (e.g. the step of the command), since the
+ * output of commands running concurrently is interleaved in the log. File names carry the start of the
+ * session to the millisecond, and are created only if they do not exist yet, so that sessions started at
+ * the same time (e.g. by concurrent daemon requests) never write to the same file.
+ */
+public class SessionLog implements AutoCloseable {
+    private static final String FILE_PREFIX = "session-";
+    private static final String FILE_SUFFIX = ".log.gz";
+    private static final DateTimeFormatter FILE_TIMESTAMP =
+        DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").withZone(ZoneOffset.UTC);
+    private static final long DRAIN_INTERVAL_MS = 200;
+    // Uncompressed bytes per file
+    static final long MAX_FILE_BYTES = 32L * 1024 * 1024;
+    static final int MAX_FILES = 10;
+    // Bytes waiting for the writer beyond which new entries are dropped
+    static final long MAX_PENDING_BYTES = 8L * 1024 * 1024;
+    // Longer lines of output are logged in pieces, each with the prefix
+    static final int MAX_LINE_BYTES = 8192;
+
+    private final Path dir;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private String session;
+    private final Queue<byte[]> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile boolean closed;
+    private Thread writer;
+
+    // Owned by the writer thread once started
+    private OutputStream file;
+    private long fileBytes;
+    private int part;
+
+    /**
+     * @param dir Directory the log files are written to, created if needed
+     * @param maxFileBytes Uncompressed size at which a file is rotated
+     * @param maxFiles Number of log files kept in {@code dir}, including those of previous sessions
+     */
+    SessionLog(Path dir, long maxFileBytes, int maxFiles) {
+        if (maxFiles < 1) throw new IllegalArgumentException("At least one log file must be kept");
+        this.dir = dir;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+    }
+
+    /**
+     * Opens a session log in {@code dir} with the default rotation limits.
+     *
+     * @param dir Directory the log files are written to, created if needed
+     * @return Started session log
+     * @throws IOException If the directory or the first file cannot be created
+     */
+    static SessionLog open(Path dir) throws IOException {
+        SessionLog log = new SessionLog(dir, MAX_FILE_BYTES, MAX_FILES);
+        log.start();
+        return log;
+    }
+
+    /**
+     * Creates the first log file and starts the writer thread.
+     *
+     * <p>If a session started in the same millisecond already has that file, a counter is appended
+     * to the timestamp of this session.
+     *
+     * @throws IOException If the directory or the first file cannot be created
+     */
+    void start() throws IOException {
+        Files.createDirectories(dir);
+        String started = FILE_TIMESTAMP.format(Instant.now());
+        session = started;
+        for (int attempt = 2; ; attempt++) {
+            try {
+                openNextFile();
+                break;
+            } catch (FileAlreadyExistsException e) {
+                session = started + "-" + attempt;
+            }
+        }
+        writer = Thread.ofPlatform().name("session-log").daemon().start(this::drain);
+    }
+
+    /**
+     * @return Path of the first file of this session
+     */
+    Path getFile() {
+        return dir.resolve(fileName(1));
+    }
+
+    /**
+     * @return Number of entries dropped because the writer could not keep up
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Logs a lifecycle event as a single timestamped line.
+     *
+     * @param text Description of the event
+     */
+    void event(String text) {
+        enqueue(("--- " + Instant.now() + " " + text + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Logs lines of command output as a single entry, each line prefixed with {@code [source]}.
+     * An unterminated last line is ended, so that the next entry starts on a line of its own.
+     *
+     * @param source Where the output comes from, e.g. the step of the command
+     * @param buf Buffer holding the output, copied before this method returns
+     * @param off Offset of the output in {@code buf}
+     * @param len Number of bytes of output
+     */
+    void output(String source, byte[] buf, int off, int len) {
+        if (len <= 0) return;
+        byte[] prefix = ("[" + source + "] ").getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream entry = new ByteArrayOutputStream(len + prefix.length + 1);
+        boolean lineStart = true;
+        for (int i = off; i < off + len; i++) {
+            if (lineStart) entry.writeBytes(prefix);
+            entry.write(buf[i]);
+            lineStart = buf[i] == '\n';
+        }
+        if (!lineStart) entry.write('\n');
+        enqueue(entry.toByteArray());
+    }
+
+    /**
+     * Returns a stream that writes everything to {@code out} and logs it as command output of {@code source},
+     * line by line so that the lines of concurrent commands do not mix. Closing it logs the unterminated
+     * last line, if any, and leaves {@code out} open.
+     *
+     * @param out Stream the bytes are forwarded to
+     * @param source Where the output comes from, e.g. the step of the command
+     * @return Stream writing to both
+     */
+    OutputStream teeTo(OutputStream out, String source) {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                line.write(b);
+                if (b == '\n' || line.size() >= MAX_LINE_BYTES) {
+                    logLine();
+                }
+            }
+
+            @Override
+            public void write(byte[] buf, int off, int len) throws IOException {
+                out.write(buf, off, len);
+                for (int i = off; i < off + len; i++) {
+                    line.write(buf[i]);
+                    if (buf[i] == '\n' || line.size() >= MAX_LINE_BYTES) {
+                        logLine();
+                    }
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.flush();
+                logLine();
+            }
+
+            private void logLine() {
+                output(source, line.toByteArray(), 0, line.size());
+                line.reset();
+            }
+        };
+    }
+
+    private void enqueue(byte[] entry) {
+        if (closed || pendingBytes.addAndGet(entry.length) > MAX_PENDING_BYTES) {
+            if (!closed) pendingBytes.addAndGet(-entry.length);
+            dropped.incrementAndGet();
+            return;
+        }
+        pending.offer(entry);
+    }
+
+    /**
+     * Writes the remaining entries, finishes the current file and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void drain() {
+        boolean failed = false;
+        while (true) {
+            boolean last = closed;
+            byte[] entry;
+            boolean wrote = false;
+            while ((entry = pending.poll()) != null) {
+                pendingBytes.addAndGet(-entry.length);
+                if (failed) continue;
+                try {
+                    if (fileBytes >= maxFileBytes) {
+                        file.close();
+                        openNextFile();
+                    }
+                    file.write(entry);
+                    fileBytes += entry.length;
+                    wrote = true;
+                } catch (IOException e) {
+                    System.err.println("Failed to write session log, logging stopped: " + e.getMessage());
+                    failed = true;
+                }
+            }
+            if (wrote) {
+                try {
+                    file.flush();
+                } catch (IOException e) {
+                    System.err.println("Failed to write session log, logging stopped: " + e.getMessage());
+                    failed = true;
+                }
+            }
+            if (last) break;
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(DRAIN_INTERVAL_MS));
+        }
+        try {
+            if (dropped.get() > 0 && !failed) {
+                file.write(("--- " + dropped.get() + " log entries dropped\n").getBytes(StandardCharsets.UTF_8));
+            }
+            file.close();
+        } catch (IOException e) {
+            System.err.println("Failed to close session log: " + e.getMessage());
+        }
+    }
+
+    private void openNextFile() throws IOException {
+        OutputStream out = Files.newOutputStream(dir.resolve(fileName(part + 1)), StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.WRITE);
+        part++;
+        fileBytes = 0;
+        file = new GZIPOutputStream(out, true);
+        removeOldFiles();
+    }
+
+    private String fileName(int part) {
+        return FILE_PREFIX + session + String.format("-%03d", part) + FILE_SUFFIX;
+    }
+
+    // File names sort chronologically, so the oldest files come first
+    private void removeOldFiles() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(dir)) {
+            files = listing.filter(p -> {
+                String name = p.getFileName().toString();
+                return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+            }).sorted().toList();
+        }
+        for (int i = 0; i < files.size() - maxFiles; i++) {
+            Files.deleteIfExists(files.get(i));
+        }
+    }
+}
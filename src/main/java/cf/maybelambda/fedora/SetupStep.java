@@ -0,0 +1,16 @@
+package cf.maybelambda.fedora;
+
+import java.util.Set;
+
+/**
+ * A unit of work of the setup workflow, as scheduled by {@link StepScheduler}.
+ *
+ * @param name Unique name of the step, used to declare dependencies on it
+ * @param dependsOn Names of the steps that must complete before this one starts; names of steps
+ *                  that are not part of the current plan are ignored
+ * @param resources Exclusive resources held while the step runs (e.g. the DNF lock); two steps
+ *                  sharing a resource never run at the same time
+ * @param action Work performed by the step
+ */
+record SetupStep(String name, Set<String> dependsOn, Set<String> resources, Runnable action) {
+}
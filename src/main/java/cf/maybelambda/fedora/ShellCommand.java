@@ -0,0 +1,37 @@
+package cf.maybelambda.fedora;
+
+import java.util.List;
+
+/**
+ * A command of an execution plan, as passed to {@link PostInstallUpdater#runCommand(List, List)}.
+ *
+ * @param baseCmd Initial command tokens, one of the {@code CMD_*} constants of {@link Main}
+ * @param args Arguments appended to {@code baseCmd}
+ */
+record ShellCommand(List<String> baseCmd, List<String> args) {
+    ShellCommand {
+        baseCmd = List.copyOf(baseCmd);
+        args = List.copyOf(args);
+    }
+
+    /**
+     * Runs this command with {@code updater}.
+     *
+     * @return Exit code returned by {@link PostInstallUpdater#runCommand(List, List)}
+     */
+    int run(PostInstallUpdater updater) {
+        return updater.runCommand(baseCmd, args);
+    }
+
+    /**
+     * Runs this command with {@code updater}, failing the step it belongs to if it does not succeed.
+     *
+     * @throws StepScheduler.StepFailedException If the command exits with a non-zero code
+     */
+    void runOrFail(PostInstallUpdater updater) {
+        int exitCode = run(updater);
+        if (exitCode != 0) {
+            throw new StepScheduler.StepFailedException(String.join(" ", baseCmd) + " exited with code " + exitCode);
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package cf.maybelambda.fedora;
+
+import static cf.maybelambda.fedora.ConsoleIOHelper.RED;
+import static cf.maybelambda.fedora.ConsoleIOHelper.color;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class StepScheduler {
+    private static final ThreadLocal<Instant> currentDeadline = new ThreadLocal<>();
+    private static final ThreadLocal<SetupStep> currentStep = new ThreadLocal<>();
+
+    private final int parallelism;
+    private final RunReport report;
+    private final Duration stepTimeout;
+
+    StepScheduler(int parallelism) {
+        this(parallelism, null);
+    }
+
+    StepScheduler(int parallelism, RunReport report) {
+        this(parallelism, report, null);
+    }
+
+    /**
+     * @param parallelism Maximum number of steps running at the same time
+     * @param report {@link RunReport} the timing of each step is recorded in; may be {@code null}
+     * @param stepTimeout Time each step may run for, or {@code null} for no limit
+     */
+    StepScheduler(int parallelism, RunReport report, Duration stepTimeout) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least 1");
+        this.parallelism = parallelism;
+        this.report = report;
+        this.stepTimeout = stepTimeout;
+    }
+
+    /**
+     * @return Instant by which the step run by the calling thread must finish, or {@code null}
+     *         outside of a step or when steps have no time limit
+     */
+    static Instant currentDeadline() {
+        return currentDeadline.get();
+    }
+
+    /**
+     * @return Step run by the calling thread, or {@code null} outside of a step
+     */
+    static SetupStep currentStep() {
+        return currentStep.get();
+    }
+
+    int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Executes {@code steps} honoring their declared dependencies and exclusive resources.
+     *
+     * <p>A step becomes ready once every step it depends on has completed and none of its resources
+     * is held by a running step. Ready steps are started in the order in which they were given, up to
+     * {@code parallelism} at a time, so a parallelism of {@code 1} runs the steps sequentially in
+     * declaration order. A step whose action throws (e.g. a {@link StepFailedException} for a command
+     * that exited with a non-zero code) is reported as failed, and every step that
+     * depends on it (directly or transitively) is skipped. Steps with unsatisfiable dependencies
+     * (i.e. dependency cycles) are skipped as well.
+     *
+     * <p>When a step timeout is set, the deadline of the running step is exposed to its action through
+     * {@link #currentDeadline()}, so that {@link PostInstallUpdater} can terminate the commands that exceed it.
+     * A step that finishes after its deadline is reported as timed out and treated like a failed one.
+     * The running step itself is exposed through {@link #currentStep()}.
+     *
+     * @param steps Steps to execute; names must be unique
+     * @return Names of the steps that failed or were skipped, in the order they were detected
+     * @throws IllegalArgumentException If two steps share the same name
+     */
+    List<String> execute(List<SetupStep> steps) {
+        Map<String, SetupStep> pending = new LinkedHashMap<>();
+        for (SetupStep step : steps) {
+            if (pending.put(step.name(), step) != null) {
+                throw new IllegalArgumentException("Duplicate step name: " + step.name());
+            }
+        }
+        Set<String> planned = new HashSet<>(pending.keySet());
+        Set<String> completed = new HashSet<>();
+        Set<String> heldResources = new HashSet<>();
+        List<String> unfinished = new ArrayList<>();
+
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism);
+        CompletionService<SetupStep> completion = new ExecutorCompletionService<>(pool);
+        Map<Future<SetupStep>, SetupStep> running = new HashMap<>();
+        try {
+            while (!pending.isEmpty() || !running.isEmpty()) {
+                Iterator<SetupStep> it = pending.values().iterator();
+                while (it.hasNext() && running.size() < parallelism) {
+                    SetupStep step = it.next();
+                    if (!Collections.disjoint(step.dependsOn(), unfinished)) {
+                        it.remove();
+                        unfinished.add(step.name());
+                        System.err.println(color("Skipping step " + step.name() + ": a step it depends on did not complete.", RED));
+                        it = pending.values().iterator();
+                        continue;
+                    }
+                    boolean depsMet = step.dependsOn().stream().allMatch(d -> !planned.contains(d) || completed.contains(d));
+                    if (depsMet && Collections.disjoint(step.resources(), heldResources)) {
+                        it.remove();
+                        heldResources.addAll(step.resources());
+                        running.put(completion.submit(withDeadline(step), step), step);
+                    }
+                }
+                if (running.isEmpty()) {
+                    for (String name : pending.keySet()) {
+                        unfinished.add(name);
+                        System.err.println(color("Skipping step " + name + ": its dependencies cannot be satisfied.", RED));
+                    }
+                    pending.clear();
+                    break;
+                }
+
+                Future<SetupStep> done = completion.take();
+                SetupStep finished = running.remove(done);
+                heldResources.removeAll(finished.resources());
+                try {
+                    done.get();
+                    completed.add(finished.name());
+                } catch (ExecutionException e) {
+                    unfinished.add(finished.name());
+                    System.err.println(color(e.getCause() instanceof StepTimeoutException
+                        ? "Step " + finished.name() + " timed out: " + e.getCause().getMessage()
+                        : e.getCause() instanceof StepFailedException
+                        ? "Step " + finished.name() + " failed: " + e.getCause().getMessage()
+                        : "Step " + finished.name() + " failed: " + e.getCause(), RED));
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running.values().forEach(step -> unfinished.add(step.name()));
+            unfinished.addAll(pending.keySet());
+            pool.shutdownNow();
+        } finally {
+            pool.shutdown();
+        }
+
+        return unfinished;
+    }
+
+    private Runnable withDeadline(SetupStep step) {
+        SetupStep timed = stepTimeout == null ? step : new SetupStep(step.name(), step.dependsOn(), step.resources(), () -> {
+            Instant deadline = Instant.now().plus(stepTimeout);
+            currentDeadline.set(deadline);
+            try {
+                step.action().run();
+            } finally {
+                currentDeadline.remove();
+            }
+            if (Instant.now().isAfter(deadline)) {
+                throw new StepTimeoutException("exceeded its time limit of " + stepTimeout.toSeconds() + "s");
+            }
+        });
+        Runnable action = report == null ? timed.action() : () -> report.runStep(timed);
+        return () -> {
+            currentStep.set(step);
+            try {
+                action.run();
+            } finally {
+                currentStep.remove();
+            }
+        };
+    }
+
+    /**
+     * Thrown by a step whose command failed, so that the steps depending on it are skipped.
+     */
+    static class StepFailedException extends RuntimeException {
+        StepFailedException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Thrown by a step that did not finish within the step timeout.
+     */
+    static class StepTimeoutException extends RuntimeException {
+        StepTimeoutException(String message) {
+            super(message);
+        }
+    }
+}
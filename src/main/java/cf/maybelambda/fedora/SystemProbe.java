@@ -0,0 +1,201 @@
+package cf.maybelambda.fedora;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.util.Arrays.asList;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Answers whether the result of a setup command is already in place, by reading local system files
+ * instead of spawning a process.
+ *
+ * <p>A probe only reports {@code true} on positive evidence: a missing or unreadable file means the
+ * command is run as usual. Paths are resolved against a root directory, so the probes can be
+ * pointed at a test fixture; a probe without root knows nothing and reports {@code false} everywhere.
+ */
+public class SystemProbe {
+    static final String GROUP_FILE = "etc/group";
+    static final String FLATPAK_REPO_CONFIG = "var/lib/flatpak/repo/config";
+    static final String SYSTEMD_UNIT_DIR = "etc/systemd/system";
+    static final String SYSTEMD_RUNTIME_UNIT_DIR = "run/systemd/units";
+    static final String RPM_GPG_KEY_DIR = "etc/pki/rpm-gpg";
+    static final String DNF_CONF = "etc/dnf/dnf.conf";
+    static final String DNF_DROP_IN_DIR = "etc/dnf/libdnf5.conf.d";
+    private static final String DNF_MAIN_SECTION = "[main]";
+    private static final Set<String> TRUE_VALUES = Set.of("1", "yes", "true", "on");
+    private static final Set<String> FALSE_VALUES = Set.of("0", "no", "false", "off");
+
+    private final Path root;
+    // Members of each group, read from the group file on first use
+    private Map<String, Set<String>> groups;
+    // [main] settings of DNF, read from its configuration files on first use
+    private Map<String, String> dnfSettings;
+
+    /**
+     * @param root Directory system paths are resolved against ({@code /} on a live system), or {@code null}
+     */
+    SystemProbe(Path root) {
+        this.root = root;
+    }
+
+    /**
+     * @return Probe that knows nothing about the system, so that no step is skipped
+     */
+    static SystemProbe unknown() {
+        return new SystemProbe(null);
+    }
+
+    /**
+     * @param group Group name
+     * @return {@code true} if {@code group} is listed in {@code /etc/group}
+     */
+    boolean groupExists(String group) {
+        return groups().containsKey(group);
+    }
+
+    /**
+     * Checks the supplementary members of {@code group}, which is what {@code usermod -aG} adds to.
+     *
+     * @param group Group name
+     * @param user User name
+     * @return {@code true} if {@code user} is listed as a member of {@code group} in {@code /etc/group}
+     */
+    boolean isMember(String group, String user) {
+        return groups().getOrDefault(group, Set.of()).contains(user);
+    }
+
+    /**
+     * @param name Remote name
+     * @return {@code true} if the system-wide Flatpak installation has a remote called {@code name}
+     */
+    boolean hasFlatpakRemote(String name) {
+        String section = "[remote \"" + name + "\"]";
+        return readLines(FLATPAK_REPO_CONFIG).stream().anyMatch(line -> line.trim().equals(section));
+    }
+
+    /**
+     * Checks for the symlink {@code systemctl enable} creates in a {@code .wants} or {@code .requires}
+     * directory of {@code /etc/systemd/system}.
+     *
+     * @param unit Unit name, e.g. {@code cockpit.socket}
+     * @return {@code true} if {@code unit} is enabled
+     */
+    boolean isUnitEnabled(String unit) {
+        if (root == null) return false;
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root.resolve(SYSTEMD_UNIT_DIR), "*.{wants,requires}")) {
+            for (Path dir : dirs) {
+                if (Files.exists(dir.resolve(unit), NOFOLLOW_LINKS)) {
+                    return true;
+                }
+            }
+        } catch (IOException e) {
+            // Not readable: unknown
+        }
+        return false;
+    }
+
+    /**
+     * Checks for the invocation link systemd keeps under {@code /run/systemd/units} while a unit is active.
+     *
+     * @param unit Unit name, e.g. {@code cockpit.socket}
+     * @return {@code true} if {@code unit} is active
+     */
+    boolean isUnitActive(String unit) {
+        return root != null && Files.exists(root.resolve(SYSTEMD_RUNTIME_UNIT_DIR).resolve("invocation:" + unit), NOFOLLOW_LINKS);
+    }
+
+    /**
+     * Checks whether the key served at {@code keyUrl} is available in {@code /etc/pki/rpm-gpg}, where the
+     * RPMFusion release packages install their keys and where DNF imports them from on first use.
+     *
+     * @param keyUrl URL of the key, whose file name is the last path segment or {@code target} parameter
+     * @return {@code true} if a key file of that name exists
+     */
+    boolean hasRpmKey(String keyUrl) {
+        String fileName = DownloadCache.fileName(keyUrl);
+        return root != null && !fileName.isEmpty() && Files.isRegularFile(root.resolve(RPM_GPG_KEY_DIR).resolve(fileName));
+    }
+
+    /**
+     * Checks the {@code [main]} section of {@code /etc/dnf/dnf.conf} and of the drop-in files in
+     * {@code /etc/dnf/libdnf5.conf.d}, read in the order DNF reads them, so that later files win.
+     * Boolean values are compared by meaning ({@code True}, {@code 1} and {@code yes} are the same).
+     *
+     * @param key Setting name, e.g. {@code max_parallel_downloads}
+     * @param value Expected value
+     * @return {@code true} if DNF is configured with {@code key} set to {@code value}
+     */
+    boolean hasDnfSetting(String key, String value) {
+        String current = dnfSettings().get(key);
+        return current != null && normalize(current).equals(normalize(value));
+    }
+
+    private Map<String, String> dnfSettings() {
+        if (dnfSettings == null) {
+            dnfSettings = new HashMap<>();
+            readDnfSettings(readLines(DNF_CONF));
+            if (root != null) {
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(root.resolve(DNF_DROP_IN_DIR), "*.conf")) {
+                    List<Path> sorted = new ArrayList<>();
+                    files.forEach(sorted::add);
+                    sorted.stream().sorted().forEach(file -> readDnfSettings(readLines(root.relativize(file).toString())));
+                } catch (IOException e) {
+                    // No drop-ins
+                }
+            }
+        }
+        return dnfSettings;
+    }
+
+    private void readDnfSettings(List<String> lines) {
+        boolean main = false;
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("[")) {
+                main = trimmed.equals(DNF_MAIN_SECTION);
+            } else if (main && !trimmed.startsWith("#") && trimmed.indexOf('=') > 0) {
+                int eq = trimmed.indexOf('=');
+                dnfSettings.put(trimmed.substring(0, eq).trim(), trimmed.substring(eq + 1).trim());
+            }
+        }
+    }
+
+    private static String normalize(String value) {
+        String lower = value.trim().toLowerCase(Locale.ROOT);
+        return TRUE_VALUES.contains(lower) ? "true" : FALSE_VALUES.contains(lower) ? "false" : lower;
+    }
+
+    private Map<String, Set<String>> groups() {
+        if (groups == null) {
+            groups = new HashMap<>();
+            // name:password:GID:member,member...
+            for (String line : readLines(GROUP_FILE)) {
+                String[] fields = line.split(":", -1);
+                if (fields.length >= 4) {
+                    groups.put(fields[0], new HashSet<>(asList(fields[3].split(","))));
+                }
+            }
+        }
+        return groups;
+    }
+
+    private List<String> readLines(String path) {
+        if (root == null) return List.of();
+        try {
+            return Files.readAllLines(root.resolve(path), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return List.of();
+        }
+    }
+}
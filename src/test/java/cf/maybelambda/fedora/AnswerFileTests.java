@@ -0,0 +1,69 @@
+package cf.maybelambda.fedora;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+class AnswerFileTests {
+    private static final Map<String, List<String>> CATEGORIES = Map.of(
+        "Development tools", List.of("git", "vim"),
+        "Games / emulation apps", List.of("wine"));
+    private static final List<String> PACKAGES = List.of("git", "vim", "wine", "htop", "kmines");
+
+    @Test
+    void parseReadsStepsAndExclusions() {
+        AnswerFile answers = AnswerFile.parse(List.of(
+            "# Workstation profile",
+            "steps=rpmfusion, dnf-install",
+            "steps=flatpak",
+            "exclude=htop",
+            "exclude-category=games / emulation apps",
+            "leave-out-unknown=yes"), CATEGORIES, PACKAGES);
+
+        assertTrue(answers.runs(Main.STEP_RPMFUSION));
+        assertTrue(answers.runs(Main.STEP_DNF_INSTALL));
+        assertTrue(answers.runs(Main.STEP_FLATPAK));
+        assertFalse(answers.runs(Main.STEP_DNF_REMOVE));
+        assertFalse(answers.runs(Main.STEP_COCKPIT));
+        assertEquals(List.of("git", "vim"), answers.filter(List.of("git", "htop", "vim", "wine")));
+        assertTrue(answers.leavesOutUnknown());
+    }
+
+    @Test
+    void parseExpandsAllStepsAndKeepsUnknownPackagesByDefault() {
+        AnswerFile answers = AnswerFile.parse(List.of("steps=all"), CATEGORIES, PACKAGES);
+
+        assertTrue(AnswerFile.STEPS.stream().allMatch(answers::runs));
+        assertEquals(PACKAGES, answers.filter(PACKAGES));
+        assertFalse(answers.leavesOutUnknown());
+    }
+
+    @Test
+    void parseReportsEveryProblem() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> AnswerFile.parse(List.of(
+            "steps=dnf-instal",
+            "exclude=vimm",
+            "exclude-category=Office",
+            "leave-out-unknown=maybe",
+            "parallel=yes",
+            "flatpak"), CATEGORIES, PACKAGES));
+
+        List<String> problems = e.getMessage().lines().toList();
+        assertEquals(6, problems.size());
+        assertTrue(problems.get(0).startsWith("line 1: unknown step dnf-instal"));
+        assertEquals("line 2: package vimm is not in any package list", problems.get(1));
+        assertEquals("line 3: unknown category Office", problems.get(2));
+        assertEquals("line 6: expected key=value, found flatpak", problems.get(5));
+    }
+
+    @Test
+    void parseRequiresSteps() {
+        assertThrows(IllegalArgumentException.class, () -> AnswerFile.parse(List.of("exclude=git"), CATEGORIES, PACKAGES));
+    }
+}
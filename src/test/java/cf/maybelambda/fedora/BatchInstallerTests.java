@@ -0,0 +1,110 @@
+package cf.maybelambda.fedora;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class BatchInstallerTests {
+    private static final List<String> CMD = List.of("sudo", "dnf", "--refresh", "install", "-y");
+    private static final List<String> CMD_NO_REFRESH = List.of("sudo", "dnf", "install", "-y");
+
+    private final PostInstallUpdater updater = mock(PostInstallUpdater.class);
+    private final List<List<String>> commands = new ArrayList<>();
+    private final List<List<String>> batches = new ArrayList<>();
+
+    // Transactions fail when they include one of the bad packages
+    private void failWith(Set<String> bad, int exitCode) {
+        when(updater.runCommand(anyList(), anyList())).thenAnswer(invocation -> {
+            List<String> batch = List.copyOf(invocation.getArgument(1));
+            commands.add(invocation.getArgument(0));
+            batches.add(batch);
+            return batch.stream().anyMatch(bad::contains) ? exitCode : 0;
+        });
+    }
+
+    private static List<String> packages(int count) {
+        List<String> packages = new ArrayList<>();
+        for (int i = 0; i < count; i++) packages.add("pkg" + i);
+        return packages;
+    }
+
+    @Test
+    void constructorRejectsNegativeBatchSize() {
+        assertThrows(IllegalArgumentException.class, () -> new BatchInstaller(updater, -1));
+    }
+
+    @Test
+    void installRunsSingleTransactionWhenItSucceeds() {
+        failWith(Set.of(), 1);
+
+        BatchInstaller.Result result = new BatchInstaller(updater, 0).install(CMD, packages(10));
+
+        assertEquals(List.of(packages(10)), batches);
+        assertEquals(packages(10), result.installed());
+        assertTrue(result.failed().isEmpty());
+    }
+
+    @Test
+    void installBisectsFailedTransactionToIsolateCulprits() {
+        failWith(Set.of("pkg5", "pkg13"), 1);
+
+        BatchInstaller.Result result = new BatchInstaller(updater, 0).install(CMD, packages(16));
+
+        assertEquals(List.of("pkg5", "pkg13"), result.failed());
+        Mockito.verify(updater).println(contains("Packages that could not be installed: pkg5, pkg13"));
+        List<String> expected = new ArrayList<>(packages(16));
+        expected.removeAll(result.failed());
+        assertEquals(new HashSet<>(expected), new HashSet<>(result.installed()));
+        // Two culprits among 16 packages: far fewer transactions than one per package
+        assertTrue(batches.size() <= 15, "transactions: " + batches.size());
+        assertEquals(CMD, commands.getFirst());
+        assertTrue(commands.subList(1, commands.size()).stream().allMatch(CMD_NO_REFRESH::equals));
+    }
+
+    @Test
+    void installSplitsListIntoBatchesOfMaximumSize() {
+        failWith(Set.of(), 1);
+
+        new BatchInstaller(updater, 4).install(CMD, packages(10));
+
+        assertEquals(List.of(packages(10).subList(0, 4), packages(10).subList(4, 8), packages(10).subList(8, 10)), batches);
+    }
+
+    @Test
+    void installStopsWithoutBisectingWhenCommandIsTerminated() {
+        failWith(Set.of("pkg1"), PostInstallUpdater.EXIT_TIMED_OUT);
+
+        BatchInstaller.Result result = new BatchInstaller(updater, 2).install(CMD, packages(6));
+
+        assertEquals(1, batches.size());
+        assertTrue(result.installed().isEmpty());
+        assertEquals(packages(6), result.notAttempted());
+    }
+
+    @Test
+    void installStopsBisectingWhenTransactionsKeepFailing() {
+        // Every transaction fails, as without network access
+        failWith(Set.copyOf(packages(16)), 1);
+
+        BatchInstaller.Result result = new BatchInstaller(updater, 0).install(CMD, packages(16));
+
+        // 2 * 5 levels of bisection instead of 31 transactions
+        assertEquals(10, batches.size());
+        assertTrue(result.installed().isEmpty());
+        List<String> notInstalled = new ArrayList<>(result.failed());
+        notInstalled.addAll(result.notAttempted());
+        assertEquals(new HashSet<>(packages(16)), new HashSet<>(notInstalled));
+    }
+}
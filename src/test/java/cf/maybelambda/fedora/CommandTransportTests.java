@@ -0,0 +1,62 @@
+package cf.maybelambda.fedora;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class CommandTransportTests {
+    @Test
+    void quoteLeavesPlainWordsAndQuotesTheRest() {
+        assertEquals("dnf", CommandTransport.quote("dnf"));
+        assertEquals("--action=install", CommandTransport.quote("--action=install"));
+        assertEquals("''", CommandTransport.quote(""));
+        assertEquals("'a b'", CommandTransport.quote("a b"));
+        assertEquals("'it'\\''s'", CommandTransport.quote("it's"));
+        assertEquals("'$HOME;rm'", CommandTransport.quote("$HOME;rm"));
+    }
+
+    @Test
+    void quotedCommandIsSplitBackIntoSameArguments() throws IOException, InterruptedException {
+        List<String> args = List.of("a b", "it's", "$HOME", "\"x\"", "*");
+        List<String> cmd = new ArrayList<>(List.of("sh", "-c", "printf '%s\\n' "
+            + String.join(" ", args.stream().map(CommandTransport::quote).toList())));
+        Process process = new ProcessBuilder(cmd).start();
+
+        List<String> lines = new String(process.getInputStream().readAllBytes()).lines().toList();
+
+        assertEquals(0, process.waitFor());
+        assertEquals(args, lines);
+    }
+
+    @Test
+    void sshRunsQuotedCommandAsSingleArgument() {
+        List<String> cmd = CommandTransport.ssh("root@ws01").processBuilder(new String[]{"sudo", "dnf", "install", "-y", "a b"}).command();
+
+        assertEquals("ssh", cmd.getFirst());
+        assertEquals("root@ws01", cmd.get(cmd.size() - 2));
+        assertEquals("sudo dnf install -y 'a b'", cmd.getLast());
+        assertTrue(cmd.contains("BatchMode=yes"));
+    }
+
+    @Test
+    void sshReportsConnectionFailures() {
+        assertTrue(CommandTransport.ssh("ws01").isConnectionFailure(255));
+        assertFalse(CommandTransport.ssh("ws01").isConnectionFailure(1));
+        assertFalse(CommandTransport.local().isConnectionFailure(255));
+    }
+
+    @Test
+    void parseHostsRejectsInvalidDestinations() {
+        assertEquals(List.of("ws01", "root@ws02"),
+            CommandTransport.parseHosts("ws01, root@ws02").stream().map(CommandTransport::name).toList());
+        assertThrows(RuntimeException.class, () -> CommandTransport.parseHosts("ws01,,ws02"));
+        assertThrows(RuntimeException.class, () -> CommandTransport.parseHosts("-oProxyCommand=x"));
+    }
+}
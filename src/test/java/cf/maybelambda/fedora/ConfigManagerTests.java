@@ -1,5 +1,6 @@
 package cf.maybelambda.fedora;
 
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
@@ -10,9 +11,11 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
+import java.util.Map;
 
 import static cf.maybelambda.fedora.ConfigManager.DNF_INSTALL_FILE;
 import static cf.maybelambda.fedora.ConfigManager.DNF_REMOVE_FILE;
+import static cf.maybelambda.fedora.ConfigManager.DNF_TUNING_FILE;
 import static cf.maybelambda.fedora.ConfigManager.FLATPAK_INSTALL_FILE;
 import static cf.maybelambda.fedora.ConfigManager.HELP_FILE;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -24,6 +27,10 @@ import static org.mockito.Mockito.CALLS_REAL_METHODS;
 import static org.mockito.Mockito.mockStatic;
 
 public class ConfigManagerTests {
+    @BeforeEach
+    void clearCachedPackageLists() {
+        ConfigManager.reload();
+    }
 
     @Test
     void readResourceLinesReadsFromFilesystemWhenExists() throws IOException {
@@ -104,6 +111,18 @@ public class ConfigManagerTests {
         }
     }
 
+    @Test
+    void loadCategoriesFromGroupsPackagesUnderTheirComment() {
+        try (MockedStatic<ConfigManager> updaterMock = Mockito.mockStatic(ConfigManager.class, CALLS_REAL_METHODS)) {
+            updaterMock.when(() -> ConfigManager.readResourceLines(any(String.class)))
+                .thenReturn(List.of("uncategorized", "# Development tools", "git", "vim", "", "# Empty", "# Graphics apps", "gimp"));
+
+            Map<String, List<String>> result = ConfigManager.loadCategoriesFrom("test-packages.cf");
+
+            assertEquals(Map.of("Development tools", List.of("git", "vim"), "Graphics apps", List.of("gimp")), result);
+        }
+    }
+
     @Test
     void getHelpTextReturnsTextFromHelpFile() throws IOException {
         try (MockedStatic<ConfigManager> configManagerMock = mockStatic(ConfigManager.class, CALLS_REAL_METHODS)) {
@@ -140,6 +159,20 @@ public class ConfigManagerTests {
         }
     }
 
+    @Test
+    void getDnfTuningParsesSettingsAndSkipsInvalidLines() {
+        try (MockedStatic<ConfigManager> updaterMock = Mockito.mockStatic(ConfigManager.class, CALLS_REAL_METHODS)) {
+            updaterMock.when(() -> ConfigManager.loadPackageNamesFrom(eq(DNF_TUNING_FILE)))
+                .thenReturn(List.of("max_parallel_downloads = 10", "keepcache=True", "fastestmirror", "=1"));
+
+            Map<String, String> result = ConfigManager.getDnfTuning();
+
+            assertEquals(List.of("max_parallel_downloads", "keepcache"), List.copyOf(result.keySet()));
+            assertEquals("10", result.get("max_parallel_downloads"));
+            assertEquals("True", result.get("keepcache"));
+        }
+    }
+
     @Test
     void getFlatpakInstallPackagesReturnsCorrectPackageNames() {
         try (MockedStatic<ConfigManager> updaterMock = Mockito.mockStatic(ConfigManager.class, CALLS_REAL_METHODS)) {
@@ -151,4 +184,79 @@ public class ConfigManagerTests {
             assertEquals(pkgs, result);
         }
     }
+
+    @Test
+    void getRPMFusionGpgKeysAndReposReadConfiguredUrls() {
+        List<String> keys = ConfigManager.getRPMFusionGpgKeys();
+        List<String> repos = ConfigManager.getRPMFusionRepos();
+
+        assertEquals(2, keys.size());
+        assertTrue(keys.stream().allMatch(key -> DownloadCache.fileName(key).startsWith("RPM-GPG-KEY-rpmfusion-")));
+        assertEquals(2, repos.size());
+        assertTrue(repos.stream().allMatch(repo -> repo.startsWith("https://") && repo.endsWith(".noarch.rpm")));
+    }
+
+    @Test
+    void getStateDirIsNamedAfterTheApp() {
+        Path stateDir = ConfigManager.getStateDir();
+
+        assertEquals("fedora-setup-script", stateDir.getFileName().toString());
+        assertTrue(stateDir.isAbsolute());
+    }
+
+    @Test
+    void getSocketPathIsNamedAfterTheApp() {
+        Path socket = ConfigManager.getSocketPath();
+
+        assertEquals("fedora-setup-script.sock", socket.getFileName().toString());
+        assertTrue(socket.isAbsolute());
+    }
+
+    @Test
+    void getDnfInstallPackagesLoadsFileOnlyOnceUntilReload() {
+        try (MockedStatic<ConfigManager> updaterMock = Mockito.mockStatic(ConfigManager.class, CALLS_REAL_METHODS)) {
+            updaterMock.when(() -> ConfigManager.loadPackageNamesFrom(eq(DNF_INSTALL_FILE))).thenReturn(List.of("vim"));
+
+            ConfigManager.getDnfInstallPackages();
+            List<String> result = ConfigManager.getDnfInstallPackages();
+            updaterMock.verify(() -> ConfigManager.loadPackageNamesFrom(DNF_INSTALL_FILE), Mockito.times(1));
+
+            ConfigManager.reload();
+            ConfigManager.getDnfInstallPackages();
+            updaterMock.verify(() -> ConfigManager.loadPackageNamesFrom(DNF_INSTALL_FILE), Mockito.times(2));
+            assertEquals(List.of("vim"), result);
+            assertThrows(UnsupportedOperationException.class, () -> result.add("nano"));
+        }
+    }
+
+    @Test
+    void getDnfTuningAndPackageCategoriesLoadFilesOnlyOnceUntilReload() {
+        try (MockedStatic<ConfigManager> updaterMock = Mockito.mockStatic(ConfigManager.class, CALLS_REAL_METHODS)) {
+            updaterMock.when(() -> ConfigManager.loadPackageNamesFrom(eq(DNF_TUNING_FILE))).thenReturn(List.of("keepcache=True"));
+            updaterMock.when(() -> ConfigManager.loadCategoriesFrom(any(String.class))).thenReturn(Map.of("Tools", List.of("git")));
+
+            ConfigManager.getDnfTuning();
+            ConfigManager.getPackageCategories();
+            Map<String, String> tuning = ConfigManager.getDnfTuning();
+            Map<String, List<String>> categories = ConfigManager.getPackageCategories();
+            updaterMock.verify(() -> ConfigManager.loadPackageNamesFrom(DNF_TUNING_FILE), Mockito.times(1));
+            updaterMock.verify(() -> ConfigManager.loadCategoriesFrom(DNF_INSTALL_FILE), Mockito.times(1));
+
+            ConfigManager.reload();
+            ConfigManager.getDnfTuning();
+            updaterMock.verify(() -> ConfigManager.loadPackageNamesFrom(DNF_TUNING_FILE), Mockito.times(2));
+            assertEquals(Map.of("keepcache", "True"), tuning);
+            assertEquals(List.of("git", "git", "git"), categories.get("Tools"));
+            assertThrows(UnsupportedOperationException.class, () -> tuning.put("fastestmirror", "True"));
+        }
+    }
+
+    @Test
+    void preloadPackageListsLoadsAllListsInBackground() {
+        ConfigManager.preloadPackageLists();
+
+        assertTrue(ConfigManager.getDnfInstallPackages().contains("git"));
+        assertTrue(ConfigManager.getDnfRemovePackages().contains("kmail"));
+        assertTrue(ConfigManager.getFlatpakInstallPackages().contains("com.github.tchx84.Flatseal"));
+    }
 }
@@ -158,6 +158,12 @@ public class ConsoleIOHelperTests {
         }
     }
 
+    @Test
+    void colorWithExplicitSupportFlagAppliesAnsiOnlyWhenSupported() {
+        assertEquals(YELLOW + "Hi" + RESET, color("Hi", YELLOW, true));
+        assertEquals("Hi", color("Hi", YELLOW, false));
+    }
+
     @ParameterizedTest
     @ValueSource(strings = {
         "xterm-256color",
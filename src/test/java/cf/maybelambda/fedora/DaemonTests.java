@@ -0,0 +1,233 @@
+package cf.maybelambda.fedora;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.ToIntFunction;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DaemonTests {
+    @TempDir
+    Path dir;
+
+    private Daemon daemon;
+    private Thread serving;
+
+    @AfterEach
+    void stopDaemon() throws InterruptedException {
+        if (daemon != null) {
+            daemon.close();
+            serving.join(5000);
+        }
+    }
+
+    private Path start(ToIntFunction<String[]> handler) throws IOException {
+        return start(handler, () -> true);
+    }
+
+    private Path start(ToIntFunction<String[]> handler, BooleanSupplier sudoCredentials) throws IOException {
+        Path socket = dir.resolve("daemon.sock");
+        daemon = Daemon.bind(socket, handler, sudoCredentials);
+        serving = Thread.ofPlatform().daemon().start(daemon::serve);
+        return socket;
+    }
+
+    private static String request(Path socket, String input, String... args) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Daemon.connect(socket, args, new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)), out);
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static int status(Path socket, String... args) throws IOException {
+        return Daemon.connect(socket, args, InputStream.nullInputStream(), OutputStream.nullOutputStream());
+    }
+
+    @Test
+    void requestRunsOptionsAndSendsBackOutput() throws IOException {
+        Path socket = start(args -> {
+            System.out.println("options: " + String.join(",", args));
+            return 0;
+        });
+
+        assertEquals("options: --dry-run,--parallel\n", request(socket, "", "--dry-run", "--parallel"));
+    }
+
+    @Test
+    void optionsWithWhitespaceArriveUnchanged() throws IOException {
+        List<String[]> runs = new CopyOnWriteArrayList<>();
+        Path socket = start(args -> {
+            runs.add(args);
+            return 0;
+        });
+
+        request(socket, "", "--answers=/home/user/my answers.cf", "--dry-run");
+
+        assertArrayEquals(new String[]{"--answers=/home/user/my answers.cf", "--dry-run"}, runs.getFirst());
+    }
+
+    @Test
+    void connectReturnsExitStatusOfRun() throws IOException {
+        Path socket = start(args -> {
+            if (args.length == 0) throw new RuntimeException("failed");
+            return Integer.parseInt(args[0].substring("--status=".length()));
+        });
+
+        assertEquals(0, status(socket, "--status=0"));
+        assertEquals(3, status(socket, "--status=3"));
+        assertEquals(Daemon.EXIT_FAILED, status(socket));
+    }
+
+    @Test
+    void clientDisconnectCancelsRun() throws Exception {
+        CompletableFuture<Integer> exitCode = new CompletableFuture<>();
+        Path socket = start(args -> {
+            exitCode.complete(new PostInstallUpdater().runCommand(List.of("sleep", "30"), List.of()));
+            return 0;
+        });
+
+        try (SocketChannel client = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+            DataOutputStream request = new DataOutputStream(Channels.newOutputStream(client));
+            request.writeInt(0);
+            request.flush();
+        }
+
+        assertNotEquals(0, exitCode.get(20, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void requestIsRejectedWithoutSudoCredentialsUnlessDryRun() throws IOException {
+        List<String[]> runs = new CopyOnWriteArrayList<>();
+        Path socket = start(args -> {
+            runs.add(args);
+            return 0;
+        }, () -> false);
+
+        assertTrue(request(socket, "", "--parallel").contains("sudo -v"));
+        assertEquals(Daemon.EXIT_FAILED, status(socket, "--parallel"));
+        assertTrue(runs.isEmpty());
+        assertEquals(0, status(socket, "--dry-run", "--parallel"));
+        assertEquals(1, runs.size());
+    }
+
+    @Test
+    void clientInputIsReadByRun() throws IOException {
+        Path socket = start(args -> {
+            Scanner scanner = new Scanner(System.in);
+            System.out.print("Proceed? ");
+            System.out.println("answered " + scanner.nextLine());
+            return 0;
+        });
+
+        assertEquals("Proceed? answered y\n", request(socket, "y\n"));
+    }
+
+    @Test
+    void requestsRunOneAfterAnotherAndRestoreStandardStreams() throws IOException {
+        List<Integer> lengths = new CopyOnWriteArrayList<>();
+        PrintStream stdout = System.out;
+        InputStream stdin = System.in;
+        Path socket = start(args -> {
+            lengths.add(args.length);
+            return 0;
+        });
+
+        request(socket, "", "--dry-run");
+        request(socket, "");
+
+        assertEquals(List.of(1, 0), lengths);
+        assertSame(stdout, System.out);
+        assertSame(stdin, System.in);
+    }
+
+    @Test
+    void failedRunIsReportedToClientAndDaemonKeepsServing() throws IOException {
+        Path socket = start(args -> {
+            if (args.length > 0) throw new RuntimeException("Invalid value for --max-batch=: 0");
+            System.out.println("ok");
+            return 0;
+        });
+
+        assertTrue(request(socket, "", "--max-batch=0").contains("Error: Invalid value for --max-batch=: 0"));
+        assertEquals("ok\n", request(socket, ""));
+    }
+
+    @Test
+    void daemonOptionsAreNotRun() throws IOException {
+        List<String[]> runs = new CopyOnWriteArrayList<>();
+        Path socket = start(args -> {
+            runs.add(args);
+            return 0;
+        });
+
+        assertTrue(request(socket, "", "--daemon").contains("cannot be sent to the daemon"));
+        assertTrue(runs.isEmpty());
+    }
+
+    @Test
+    void socketIsPrivateAndRemovedOnClose() throws IOException {
+        Path socket = start(args -> 0);
+
+        assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(socket));
+        daemon.close();
+        assertFalse(Files.exists(socket));
+    }
+
+    @Test
+    void bindFailsWhileAnotherDaemonListensWithoutStartingRun() throws IOException {
+        List<String[]> runs = new CopyOnWriteArrayList<>();
+        Path socket = start(args -> {
+            runs.add(args);
+            return 0;
+        });
+
+        assertThrows(IOException.class, () -> Daemon.bind(socket, args -> 0, () -> true));
+        request(socket, "", "--dry-run");
+        assertEquals(1, runs.size());
+    }
+
+    @Test
+    void bindReplacesSocketOfStoppedDaemon() throws IOException {
+        Path socket = dir.resolve("daemon.sock");
+        ServerSocketChannel stopped = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        stopped.bind(UnixDomainSocketAddress.of(socket));
+        stopped.close();
+        assertTrue(Files.exists(socket));
+
+        start(args -> {
+            System.out.println("ok");
+            return 0;
+        });
+
+        assertEquals("ok\n", request(socket, ""));
+    }
+}
@@ -0,0 +1,145 @@
+package cf.maybelambda.fedora;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DownloadCacheTests {
+    @TempDir
+    Path dir;
+    private HttpServer server;
+    private final AtomicReference<String> content = new AtomicReference<>("key v1\n");
+    private final AtomicInteger fullResponses = new AtomicInteger();
+    private final AtomicInteger notModifiedResponses = new AtomicInteger();
+
+    @BeforeEach
+    void startServer() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/files/", exchange -> {
+            byte[] body = content.get().getBytes(StandardCharsets.UTF_8);
+            String etag = "\"" + Integer.toHexString(content.get().hashCode()) + "\"";
+            if (exchange.getRequestURI().getPath().endsWith("missing.rpm")) {
+                exchange.sendResponseHeaders(404, -1);
+            } else if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                notModifiedResponses.incrementAndGet();
+                exchange.sendResponseHeaders(304, -1);
+            } else {
+                fullResponses.incrementAndGet();
+                exchange.getResponseHeaders().add("ETag", etag);
+                exchange.sendResponseHeaders(200, body.length);
+                exchange.getResponseBody().write(body);
+            }
+            exchange.close();
+        });
+        server.start();
+    }
+
+    @AfterEach
+    void stopServer() {
+        if (server != null) server.stop(0);
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/files/" + path;
+    }
+
+    @Test
+    void fetchDownloadsOnceThenRevalidatesWithConditionalRequest() throws Exception {
+        DownloadCache cache = DownloadCache.open(dir);
+
+        Path first = cache.fetch(url("repo-release.noarch.rpm")).get(10, TimeUnit.SECONDS);
+        Path second = cache.fetch(url("repo-release.noarch.rpm")).get(10, TimeUnit.SECONDS);
+
+        assertEquals(first, second);
+        assertEquals("key v1\n", Files.readString(first));
+        assertTrue(first.getFileName().toString().endsWith("-repo-release.noarch.rpm"));
+        assertEquals(1, fullResponses.get());
+        assertEquals(1, notModifiedResponses.get());
+    }
+
+    @Test
+    void fetchStoresChangedContentUnderNewHash() throws Exception {
+        DownloadCache cache = DownloadCache.open(dir);
+        Path first = cache.fetch(url("key")).get(10, TimeUnit.SECONDS);
+        content.set("key v2\n");
+
+        Path second = cache.fetch(url("key")).get(10, TimeUnit.SECONDS);
+
+        assertNotEquals(first, second);
+        assertEquals("key v2\n", Files.readString(second));
+    }
+
+    @Test
+    void fetchFallsBackToCachedCopyWhenServerIsUnreachable() throws Exception {
+        Path first = DownloadCache.open(dir).fetch(url("key")).get(10, TimeUnit.SECONDS);
+        String keyUrl = url("key");
+        server.stop(0);
+        server = null;
+
+        Path cached = DownloadCache.open(dir).fetch(keyUrl).get(10, TimeUnit.SECONDS);
+
+        assertEquals(first, cached);
+    }
+
+    @Test
+    void fetchFailsForMissingFileWithoutCachedCopy() {
+        ExecutionException e = assertThrows(ExecutionException.class,
+            () -> DownloadCache.open(dir).fetch(url("missing.rpm")).get(10, TimeUnit.SECONDS));
+
+        assertTrue(e.getCause().getMessage().contains("HTTP 404"));
+    }
+
+    @Test
+    void fetchUsesBundledFileWithoutRequest() throws Exception {
+        Path file = DownloadCache.open(dir).fetch(url("keys?target=RPM-GPG-KEY-bundled-test")).get(10, TimeUnit.SECONDS);
+
+        assertEquals("bundled key\n", Files.readString(file));
+        assertEquals(0, fullResponses.get());
+    }
+
+    @Test
+    void fetchAllMapsFailedDownloadsToTheirUrl() throws Exception {
+        DownloadCache.Fetched fetched = DownloadCache.open(dir).fetchAll(List.of(url("key"), url("missing.rpm")))
+            .get(10, TimeUnit.SECONDS);
+
+        assertTrue(Files.isRegularFile(Path.of(fetched.files().get(url("key")))));
+        assertEquals(url("missing.rpm"), fetched.files().get(url("missing.rpm")));
+        assertEquals(Set.of(url("missing.rpm")), fetched.errors().keySet());
+        assertTrue(fetched.errors().get(url("missing.rpm")).contains("HTTP 404"));
+    }
+
+    @Test
+    void fetchAllMapsUrlsThatCannotBeRequestedToThemselves() throws Exception {
+        DownloadCache.Fetched fetched = DownloadCache.open(dir).fetchAll(List.of("/etc/pki/key", "file:///repo.rpm"))
+            .get(10, TimeUnit.SECONDS);
+
+        assertEquals(Map.of("/etc/pki/key", "/etc/pki/key", "file:///repo.rpm", "file:///repo.rpm"), fetched.files());
+    }
+
+    @Test
+    void fileNameUsesLastPathSegmentOrTargetParameter() {
+        assertEquals("rpmfusion-free-release-42.noarch.rpm",
+            DownloadCache.fileName("https://download1.rpmfusion.org/free/fedora/rpmfusion-free-release-42.noarch.rpm"));
+        assertEquals("RPM-GPG-KEY-rpmfusion-free-fedora-2020",
+            DownloadCache.fileName("https://rpmfusion.org/keys?action=AttachFile&do=get&target=RPM-GPG-KEY-rpmfusion-free-fedora-2020"));
+    }
+}
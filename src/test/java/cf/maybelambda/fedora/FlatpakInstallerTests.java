@@ -0,0 +1,119 @@
+package cf.maybelambda.fedora;
+
+import static cf.maybelambda.fedora.FlatpakInstaller.CMD_FLATPAK_INST;
+import static cf.maybelambda.fedora.FlatpakInstaller.CMD_FLATPAK_REMOTE_INFO;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.contains;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+
+class FlatpakInstallerTests {
+    private final PostInstallUpdater mockUpdater = mock(PostInstallUpdater.class);
+
+    private List<String> remoteInfo(String app) {
+        List<String> cmd = new ArrayList<>(CMD_FLATPAK_REMOTE_INFO);
+        cmd.add("flathub");
+        cmd.add(app);
+        return cmd;
+    }
+
+    @Test
+    void constructorRejectsNonPositiveParallelism() {
+        assertThrows(IllegalArgumentException.class, () -> new FlatpakInstaller(mockUpdater, 0));
+    }
+
+    @Test
+    void groupByRuntimeGroupsAppsSharingRuntime() throws IOException {
+        when(mockUpdater.readCommandOutput(remoteInfo("a"))).thenReturn(List.of("   Runtime: org.kde.Platform/x86_64/6.8"));
+        when(mockUpdater.readCommandOutput(remoteInfo("b"))).thenReturn(List.of("Runtime: org.gnome.Platform/x86_64/47"));
+        when(mockUpdater.readCommandOutput(remoteInfo("c"))).thenReturn(List.of("Ref: app/c", "Runtime: org.kde.Platform/x86_64/6.8"));
+        when(mockUpdater.readCommandOutput(remoteInfo("d"))).thenThrow(new IOException("not found"));
+
+        Map<String, List<String>> groups = new FlatpakInstaller(mockUpdater, 2).groupByRuntime("flathub", List.of("a", "b", "c", "d"));
+
+        assertEquals(List.of("a", "c"), groups.get("org.kde.Platform/x86_64/6.8"));
+        assertEquals(List.of("b"), groups.get("org.gnome.Platform/x86_64/47"));
+        assertEquals(List.of("d"), groups.get(""));
+    }
+
+    @Test
+    void installInstallsRuntimesFirstAndReportsPerAppExitCodes() throws IOException {
+        when(mockUpdater.readCommandOutput(anyList())).thenReturn(List.of("Runtime: org.kde.Platform/x86_64/6.8"));
+        when(mockUpdater.runCommandAsync(CMD_FLATPAK_INST, List.of("flathub", "a"))).thenReturn(CompletableFuture.completedFuture(0));
+        when(mockUpdater.runCommandAsync(CMD_FLATPAK_INST, List.of("flathub", "b"))).thenReturn(CompletableFuture.completedFuture(1));
+
+        Map<String, Integer> results = new FlatpakInstaller(mockUpdater, 2).install("flathub", List.of("a", "b"));
+
+        assertEquals(Map.of("a", 0, "b", 1), results);
+        InOrder order = Mockito.inOrder(mockUpdater);
+        order.verify(mockUpdater).runCommand(CMD_FLATPAK_INST, List.of("flathub", "runtime/org.kde.Platform/x86_64/6.8"));
+        order.verify(mockUpdater, Mockito.times(2)).runCommandAsync(eq(CMD_FLATPAK_INST), anyList());
+        Mockito.verify(mockUpdater).println(contains("FAIL  b (exit code 1)"));
+    }
+
+    @Test
+    void installInstallsAppsOneAtATimeWhenRuntimesFail() throws IOException {
+        when(mockUpdater.readCommandOutput(anyList())).thenReturn(List.of("Runtime: org.kde.Platform/x86_64/6.8"));
+        when(mockUpdater.runCommand(CMD_FLATPAK_INST, List.of("flathub", "runtime/org.kde.Platform/x86_64/6.8"))).thenReturn(1);
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(mockUpdater.runCommandAsync(eq(CMD_FLATPAK_INST), anyList())).thenAnswer(inv -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+                return 0;
+            });
+        });
+
+        Map<String, Integer> results = new FlatpakInstaller(mockUpdater, 3).install("flathub", List.of("a", "b", "c"));
+
+        assertEquals(Map.of("a", 0, "b", 0, "c", 0), results);
+        assertEquals(1, maxInFlight.get());
+        Mockito.verify(mockUpdater).println(contains("FAIL  runtimes (exit code 1)"));
+    }
+
+    @Test
+    void installNeverExceedsParallelism() throws IOException {
+        when(mockUpdater.readCommandOutput(anyList())).thenThrow(new IOException("offline"));
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(mockUpdater.runCommandAsync(eq(CMD_FLATPAK_INST), anyList())).thenAnswer(inv -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                inFlight.decrementAndGet();
+                return 0;
+            });
+        });
+
+        Map<String, Integer> results = new FlatpakInstaller(mockUpdater, 2).install("flathub", List.of("a", "b", "c", "d", "e"));
+
+        assertEquals(5, results.size());
+        assertTrue(maxInFlight.get() <= 2);
+        Mockito.verify(mockUpdater, Mockito.never()).runCommand(anyList(), anyList());
+    }
+}
@@ -0,0 +1,177 @@
+package cf.maybelambda.fedora;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class FleetExecutorTests {
+    private final ByteArrayOutputStream console = new ByteArrayOutputStream();
+    private final PrintStream out = new PrintStream(console, true, StandardCharsets.UTF_8);
+
+    // Stand-in for a host running every command as the given shell script, 255 meaning unreachable as with ssh
+    private static CommandTransport host(String name, String script, AtomicInteger started) {
+        return new CommandTransport() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public ProcessBuilder processBuilder(String[] command) {
+                started.incrementAndGet();
+                return new ProcessBuilder("sh", "-c", script);
+            }
+
+            @Override
+            public boolean isConnectionFailure(int exitCode) {
+                return exitCode == 255;
+            }
+        };
+    }
+
+    @Test
+    void constructorRejectsInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new FleetExecutor(List.of(), 1, out));
+        assertThrows(IllegalArgumentException.class,
+            () -> new FleetExecutor(List.of(new CommandTransport.Local("a")), 0, out));
+    }
+
+    @Test
+    void runCommandRunsOnEveryHostWithPrefixedOutput() {
+        FleetExecutor fleet = new FleetExecutor(List.of(new CommandTransport.Local("ws01"), new CommandTransport.Local("ws02")), 1, out);
+
+        assertEquals(0, fleet.runCommand(List.of("echo"), List.of("hello")));
+
+        String text = console.toString(StandardCharsets.UTF_8);
+        assertTrue(text.contains("[ws01] hello"));
+        assertTrue(text.contains("[ws02] hello"));
+        assertTrue(text.lines().allMatch(line -> line.startsWith("[ws01] ") || line.startsWith("[ws02] ")));
+        assertEquals(List.of("ok", "ok"), fleet.results().stream().map(FleetExecutor.HostResult::outcome).toList());
+        assertEquals(List.of(1, 1), fleet.results().stream().map(FleetExecutor.HostResult::commands).toList());
+    }
+
+    @Test
+    void runCommandReturnsFailureOfAnyHost() {
+        FleetExecutor fleet = new FleetExecutor(List.of(new CommandTransport.Local("ok"),
+            host("bad", "exit 3", new AtomicInteger())), 2, out);
+
+        assertEquals(3, fleet.runCommand(List.of("true"), List.of()));
+
+        List<FleetExecutor.HostResult> results = fleet.results();
+        assertEquals("ok", results.get(0).outcome());
+        assertEquals("failed", results.get(1).outcome());
+    }
+
+    @Test
+    void hostWithFailedCommandIsLeftOutOfStepAndItsDependents() {
+        AtomicInteger started = new AtomicInteger();
+        FleetExecutor fleet = new FleetExecutor(List.of(new CommandTransport.Local("ws01"), host("ws02", "exit 3", started)), 2, out);
+        List<Integer> codes = new CopyOnWriteArrayList<>();
+        List<SetupStep> steps = List.of(
+            new SetupStep("first", Set.of(), Set.of(), () -> {
+                codes.add(fleet.runCommand(List.of("true"), List.of()));
+                codes.add(fleet.runCommand(List.of("true"), List.of()));
+            }),
+            new SetupStep("second", Set.of("first"), Set.of(), () -> codes.add(fleet.runCommand(List.of("true"), List.of()))),
+            new SetupStep("other", Set.of(), Set.of(), () -> codes.add(fleet.runCommand(List.of("true"), List.of()))));
+
+        assertEquals(List.of(), new StepScheduler(1).execute(steps));
+
+        assertEquals(List.of(0, 0, 0, 0), codes);
+        assertEquals(2, started.get());
+        FleetExecutor.HostResult result = fleet.results().get(1);
+        assertEquals("failed", result.outcome());
+        // Steps that do not depend on the failed one still run on the host
+        assertEquals(List.of("first", "second", "other"), result.failedSteps());
+        assertEquals(4, result.failed());
+        assertEquals(List.of(), fleet.results().get(0).failedSteps());
+        assertTrue(fleet.hasFailedStep("second"));
+        fleet.printResults();
+        assertTrue(console.toString(StandardCharsets.UTF_8).contains("Steps not completed on ws02: first, second, other"));
+    }
+
+    @Test
+    void stepFailsOnceCommandFailedOnEveryHost() {
+        FleetExecutor fleet = new FleetExecutor(List.of(host("ws01", "exit 3", new AtomicInteger()),
+            host("ws02", "exit 4", new AtomicInteger())), 2, out);
+        List<Integer> codes = new CopyOnWriteArrayList<>();
+        List<SetupStep> steps = List.of(new SetupStep("first", Set.of(), Set.of(), () -> {
+            codes.add(fleet.runCommand(List.of("true"), List.of()));
+            codes.add(fleet.runCommand(List.of("true"), List.of()));
+        }));
+
+        new StepScheduler(1).execute(steps);
+
+        assertEquals(List.of(3, -1), codes);
+    }
+
+    @Test
+    void unreachableHostIsSkippedAndDoesNotFailCommands() {
+        AtomicInteger started = new AtomicInteger();
+        FleetExecutor fleet = new FleetExecutor(List.of(new CommandTransport.Local("ws01"), host("ws02", "exit 255", started)), 2, out);
+
+        assertEquals(0, fleet.runCommand(List.of("true"), List.of()));
+        assertEquals(0, fleet.runCommandAsync(List.of("true"), List.of()).join());
+
+        assertEquals(1, started.get());
+        FleetExecutor.HostResult result = fleet.results().get(1);
+        assertTrue(result.unreachable());
+        assertEquals(2, result.failed());
+        assertFalse(fleet.results().get(0).unreachable());
+    }
+
+    @Test
+    void runCommandFailsWhenNoHostIsReachable() {
+        FleetExecutor fleet = new FleetExecutor(List.of(host("ws01", "exit 255", new AtomicInteger())), 1, out);
+
+        assertEquals(-1, fleet.runCommand(List.of("true"), List.of()));
+        assertEquals(-1, fleet.runCommand(List.of("true"), List.of()));
+    }
+
+    @Test
+    void dryRunIsForwardedToHosts() {
+        AtomicInteger started = new AtomicInteger();
+        FleetExecutor fleet = new FleetExecutor(List.of(host("ws01", "exit 255", started)), 1, out);
+        fleet.setDryRun(true);
+
+        assertEquals(0, fleet.runCommand(List.of("true"), List.of()));
+
+        assertEquals(0, started.get());
+        assertTrue(console.toString(StandardCharsets.UTF_8).contains("[ws01] Dry-run: command not executed."));
+    }
+
+    @Test
+    void printResultsShowsOneLinePerHost() {
+        FleetExecutor fleet = new FleetExecutor(List.of(new CommandTransport.Local("ws01"), new CommandTransport.Local("ws02")), 2, out);
+        fleet.runCommand(List.of("true"), List.of());
+
+        fleet.printResults();
+
+        List<String> lines = console.toString(StandardCharsets.UTF_8).lines().filter(l -> l.matches("^ws0\\d .*")).toList();
+        assertEquals(2, lines.size());
+        assertTrue(lines.getFirst().matches("^ws01\\s+ok\\s+1\\s+0\\s+\\d+\\.\\ds$"));
+    }
+
+    @Test
+    void prefixedWritesWholeLines() {
+        PrintStream prefixed = FleetExecutor.prefixed("[a] ", out);
+
+        prefixed.print("one ");
+        prefixed.println("line");
+        prefixed.print("unterminated");
+        prefixed.close();
+
+        assertEquals("[a] one line\n[a] unterminated\n", console.toString(StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n"));
+    }
+}
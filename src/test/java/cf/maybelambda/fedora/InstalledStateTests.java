@@ -0,0 +1,70 @@
+package cf.maybelambda.fedora;
+
+import static cf.maybelambda.fedora.InstalledState.CMD_FLATPAK_LIST_APPS;
+import static cf.maybelambda.fedora.InstalledState.CMD_RPM_QUERY_NAMES;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class InstalledStateTests {
+    private final PostInstallUpdater mockUpdater = mock(PostInstallUpdater.class);
+
+    @Test
+    void probeIndexesInstalledPackagesAndApps() throws IOException {
+        when(mockUpdater.readCommandOutput(CMD_RPM_QUERY_NAMES)).thenReturn(List.of("vim", "git", ""));
+        when(mockUpdater.readCommandOutput(CMD_FLATPAK_LIST_APPS)).thenReturn(List.of("com.github.tchx84.Flatseal "));
+
+        InstalledState state = InstalledState.probe(mockUpdater);
+
+        assertEquals(List.of("htop"), state.missingRpms(List.of("vim", "htop", "git")));
+        assertEquals(List.of("vim"), state.installedRpms(List.of("vim", "kmail")));
+        assertEquals(List.of("it.mijorus.gearlever"),
+            state.missingFlatpaks(List.of("com.github.tchx84.Flatseal", "it.mijorus.gearlever")));
+    }
+
+    @Test
+    void probeLeavesListsUnchangedWhenQueriesFail() throws IOException {
+        when(mockUpdater.readCommandOutput(CMD_RPM_QUERY_NAMES)).thenThrow(new IOException("rpm not found"));
+        when(mockUpdater.readCommandOutput(CMD_FLATPAK_LIST_APPS)).thenThrow(new IOException("flatpak not found"));
+        List<String> pkgs = List.of("vim", "htop");
+
+        InstalledState state = InstalledState.probe(mockUpdater);
+
+        assertEquals(pkgs, state.missingRpms(pkgs));
+        assertEquals(pkgs, state.installedRpms(pkgs));
+        assertEquals(pkgs, state.missingFlatpaks(pkgs));
+    }
+
+    @Test
+    void probeTreatsEmptyRpmDatabaseAsUnknown() throws IOException {
+        when(mockUpdater.readCommandOutput(CMD_RPM_QUERY_NAMES)).thenReturn(List.of());
+        List<String> pkgs = List.of("kmail");
+
+        InstalledState state = InstalledState.probe(mockUpdater);
+
+        assertEquals(pkgs, state.installedRpms(pkgs));
+    }
+
+    @Test
+    void missingFlatpaksReturnsAllAppsWhenNoneInstalled() {
+        InstalledState state = new InstalledState(Set.of(), Set.of());
+
+        assertEquals(List.of("a.b.C"), state.missingFlatpaks(List.of("a.b.C")));
+    }
+
+    @Test
+    void missingRpmFilesFiltersByPackageNameOfFile() {
+        InstalledState state = new InstalledState(Set.of("rpmfusion-free-release"), Set.of());
+
+        assertEquals(List.of("https://example.org/rpmfusion-nonfree-release-42.noarch.rpm"), state.missingRpmFiles(List.of(
+            "https://example.org/rpmfusion-free-release-42.noarch.rpm",
+            "https://example.org/rpmfusion-nonfree-release-42.noarch.rpm")));
+        assertEquals("python3-libs", InstalledState.packageNameOf("/tmp/python3-libs-3.13.1-2.fc42.x86_64.rpm"));
+    }
+}
@@ -0,0 +1,115 @@
+package cf.maybelambda.fedora;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JournalTests {
+    @TempDir
+    Path dir;
+
+    @Test
+    void fingerprintDependsOnInputs() {
+        assertEquals(Journal.fingerprint(List.of("vim", "git")), Journal.fingerprint(List.of("vim", "git")));
+        assertNotEquals(Journal.fingerprint(List.of("vim", "git")), Journal.fingerprint(List.of("vim")));
+        assertEquals(64, Journal.fingerprint(List.of()).length());
+    }
+
+    @Test
+    void resumeKeepsEntriesOfPreviousRun() throws IOException {
+        String fingerprint = Journal.fingerprint(List.of("vim"));
+        try (Journal journal = Journal.open(dir, false)) {
+            journal.record("dnf-install", fingerprint);
+            assertTrue(journal.isCompleted("dnf-install", fingerprint));
+        }
+
+        try (Journal journal = Journal.open(dir, true)) {
+            assertTrue(journal.isCompleted("dnf-install", fingerprint));
+            assertFalse(journal.isCompleted("dnf-install", Journal.fingerprint(List.of("vim", "git"))));
+            assertFalse(journal.isCompleted("flatpak", fingerprint));
+        }
+    }
+
+    @Test
+    void openWithoutResumeStartsNewJournal() throws IOException {
+        String fingerprint = Journal.fingerprint(List.of("vim"));
+        try (Journal journal = Journal.open(dir, false)) {
+            journal.record("dnf-install", fingerprint);
+        }
+
+        try (Journal journal = Journal.open(dir, false)) {
+            assertFalse(journal.isCompleted("dnf-install", fingerprint));
+            assertEquals(0, Files.size(journal.getFile()));
+        }
+    }
+
+    @Test
+    void resumeIgnoresTornLine() throws IOException {
+        String fingerprint = Journal.fingerprint(List.of("vim"));
+        try (Journal journal = Journal.open(dir, false)) {
+            journal.record("dnf-install", fingerprint);
+        }
+        Files.writeString(dir.resolve(Journal.FILE_NAME), "2026-01-01T00:00:00Z\tflatpak\t" + fingerprint.substring(0, 20),
+            StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        try (Journal journal = Journal.open(dir, true)) {
+            assertTrue(journal.isCompleted("dnf-install", fingerprint));
+            assertFalse(journal.isCompleted("flatpak", fingerprint));
+        }
+    }
+
+    @Test
+    void entryRecordedAfterTornLineIsKept() throws IOException {
+        String fingerprint = Journal.fingerprint(List.of("vim"));
+        Files.writeString(dir.resolve(Journal.FILE_NAME), "2026-01-01T00:00:00Z\tdnf-install\t" + fingerprint.substring(0, 20),
+            StandardCharsets.UTF_8);
+        try (Journal journal = Journal.open(dir, true)) {
+            journal.record("flatpak", fingerprint);
+        }
+
+        try (Journal journal = Journal.open(dir, true)) {
+            assertTrue(journal.isCompleted("flatpak", fingerprint));
+            assertFalse(journal.isCompleted("dnf-install", fingerprint));
+        }
+    }
+
+    @Test
+    void journaledRecordsStepOnlyWhenItDoesNotFail() throws IOException {
+        List<String> inputs = List.of("vim");
+        try (Journal journal = Journal.open(dir, false)) {
+            SetupStep failing = journal.journaled(new SetupStep("dnf-install", Set.of(), Set.of(), () -> {
+                throw new StepScheduler.StepFailedException("sudo dnf install -y exited with code 1");
+            }), inputs);
+            assertThrows(StepScheduler.StepFailedException.class, () -> failing.action().run());
+            assertFalse(journal.isCompleted("dnf-install", Journal.fingerprint(inputs)));
+
+            SetupStep succeeding = journal.journaled(new SetupStep("dnf-install", Set.of(), Set.of(), () -> { }), inputs);
+            succeeding.action().run();
+            assertTrue(journal.isCompleted("dnf-install", Journal.fingerprint(inputs)));
+        }
+    }
+
+    @Test
+    void journaledDoesNotRecordStepThatWasNotCompleted() throws IOException {
+        List<String> inputs = List.of("vim");
+        try (Journal journal = Journal.open(dir, false)) {
+            // e.g. a step that failed on one host of a fleet
+            journal.journaled(new SetupStep("dnf-install", Set.of(), Set.of(), () -> { }), inputs, name -> false).action().run();
+
+            assertFalse(journal.isCompleted("dnf-install", Journal.fingerprint(inputs)));
+        }
+    }
+}
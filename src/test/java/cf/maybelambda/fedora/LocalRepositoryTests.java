@@ -0,0 +1,68 @@
+package cf.maybelambda.fedora;
+
+import static cf.maybelambda.fedora.LocalRepository.CMD_CREATEREPO;
+import static cf.maybelambda.fedora.LocalRepository.CMD_DNF_DOWNLOAD;
+import static cf.maybelambda.fedora.LocalRepository.CMD_INSTALL_CREATEREPO;
+import static cf.maybelambda.fedora.LocalRepository.CMD_WRITE_REPO_FILE;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mockito;
+
+class LocalRepositoryTests {
+    @Test
+    void buildPlanDownloadsPackagesWithDependenciesAndIndexesThem(@TempDir Path dir) {
+        List<ShellCommand> plan = LocalRepository.buildPlan(dir, List.of("vim", "git"));
+
+        assertEquals(List.of(
+            new ShellCommand(CMD_INSTALL_CREATEREPO, List.of()),
+            new ShellCommand(CMD_DNF_DOWNLOAD, List.of("--destdir=" + dir, "vim", "git")),
+            new ShellCommand(CMD_CREATEREPO, List.of(dir.toString()))), plan);
+    }
+
+    @Test
+    void buildStopsAtFirstFailedCommand(@TempDir Path dir) {
+        PostInstallUpdater updater = mock(PostInstallUpdater.class);
+        when(updater.runCommand(anyList(), anyList())).thenReturn(0);
+        when(updater.runCommand(Mockito.eq(CMD_DNF_DOWNLOAD), anyList())).thenReturn(1);
+
+        assertFalse(LocalRepository.build(updater, dir, List.of("vim")));
+        Mockito.verify(updater, Mockito.never()).runCommand(Mockito.eq(CMD_CREATEREPO), anyList());
+    }
+
+    @Test
+    void configureCommandWritesRepoFileWithFileUrlOfDirectory(@TempDir Path dir) {
+        ShellCommand command = LocalRepository.configureCommand(dir.toString(), List.of(
+            "https://rpmfusion.org/keys?action=AttachFile&do=get&target=RPM-GPG-KEY-rpmfusion-free-fedora-2020"));
+
+        assertEquals(CMD_WRITE_REPO_FILE, command.baseCmd());
+        assertEquals("[" + LocalRepository.REPO_ID + "]", command.args().getFirst());
+        assertTrue(command.args().contains("baseurl=" + dir.toUri()));
+        assertTrue(command.args().contains("priority=1"));
+        assertTrue(command.args().contains("gpgkey=" + LocalRepository.FEDORA_GPG_KEY
+            + " file:///etc/pki/rpm-gpg/RPM-GPG-KEY-rpmfusion-free-fedora-2020"));
+    }
+
+    @Test
+    void baseUrlKeepsUrlsAsIs() {
+        assertEquals("http://192.168.1.10/repo", LocalRepository.baseUrl("http://192.168.1.10/repo"));
+        assertEquals("file:///mnt/repo", LocalRepository.baseUrl("file:///mnt/repo"));
+    }
+
+    @Test
+    void offlineEnablesOnlyLocalRepoWithoutRefreshing() {
+        assertEquals(List.of("sudo", "dnf", "--repo=" + LocalRepository.REPO_ID, "install", "-y"),
+            LocalRepository.offline(Main.CMD_DNF_INST));
+        assertEquals(List.of("sudo", "dnf", "--repo=" + LocalRepository.REPO_ID, "remove", "-y", "--noautoremove"),
+            LocalRepository.offline(Main.CMD_DNF_RM));
+    }
+}
@@ -15,28 +15,45 @@ import static cf.maybelambda.fedora.Main.CMD_DNF_INST;
 import static cf.maybelambda.fedora.Main.CMD_DNF_INST_REPOS;
 import static cf.maybelambda.fedora.Main.CMD_DNF_MARK;
 import static cf.maybelambda.fedora.Main.CMD_DNF_RM;
+import static cf.maybelambda.fedora.Main.CMD_DNF_TRANSACTION;
 import static cf.maybelambda.fedora.Main.CMD_FLATPAK_INST;
 import static cf.maybelambda.fedora.Main.CMD_FLATPAK_REMOTE_ADD;
 import static cf.maybelambda.fedora.Main.CMD_RPM_IMPORT;
 import static cf.maybelambda.fedora.Main.CMD_SYSTEMCTL_ENABLE;
+import static cf.maybelambda.fedora.Main.CMD_WRITE_DNF_DROP_IN;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 
 class MainTests {
     private PostInstallUpdater mockUpdater = mock(PostInstallUpdater.class);
+    @TempDir
+    private Path home;
 
     private void setupConfigManager(MockedStatic<ConfigManager> cfg) {
         cfg.when(ConfigManager::getDnfInstallPackages).thenReturn(List.of("pkg1"));
@@ -47,6 +64,9 @@ class MainTests {
         cfg.when(ConfigManager::getFlatpakRemoteName).thenReturn("flathub");
         cfg.when(ConfigManager::getFlatpakRemoteUrl).thenReturn("https://flathub");
         cfg.when(ConfigManager::getAdminGroups).thenReturn(List.of("wheel"));
+        cfg.when(ConfigManager::getSystemRoot).thenReturn(home.resolve("root"));
+        cfg.when(ConfigManager::getStateDir).thenReturn(home.resolve("state"));
+        cfg.when(ConfigManager::getCacheDir).thenReturn(home.resolve("cache"));
     }
 
     private void simulateUserInput() {
@@ -60,12 +80,12 @@ class MainTests {
         try (MockedStatic<ConfigManager> cfg = mockStatic(ConfigManager.class)) {
             setupConfigManager(cfg);
             simulateUserInput();
-            when(mockUpdater.runCommand(any(List.class), any(List.class))).thenReturn(0);
+            when(mockUpdater.runCommand(anyList(), anyList())).thenReturn(0);
 
             Main.run(new String[]{}, mockUpdater);
 
-            ArgumentCaptor<List<String>> captorPrefix = ArgumentCaptor.forClass(List.class);
-            ArgumentCaptor<List<String>> captorArgs = ArgumentCaptor.forClass(List.class);
+            ArgumentCaptor<List<String>> captorPrefix = ArgumentCaptor.captor();
+            ArgumentCaptor<List<String>> captorArgs = ArgumentCaptor.captor();
             Mockito.verify(mockUpdater, Mockito.atLeastOnce()).runCommand(captorPrefix.capture(), captorArgs.capture());
             List<List<String>> prefixes = captorPrefix.getAllValues();
             List<List<String>> args = captorArgs.getAllValues();
@@ -106,6 +126,314 @@ class MainTests {
         }
     }
 
+    @Test
+    void runWithParallelOptionExecutesAllSteps() {
+        try (MockedStatic<ConfigManager> cfg = mockStatic(ConfigManager.class)) {
+            setupConfigManager(cfg);
+            simulateUserInput();
+            when(mockUpdater.runCommand(anyList(), anyList())).thenReturn(0);
+
+            Main.run(new String[]{"--parallel"}, mockUpdater);
+
+            Mockito.verify(mockUpdater, Mockito.times(11)).runCommand(anyList(), anyList());
+            InOrder dnfOrder = Mockito.inOrder(mockUpdater);
+            dnfOrder.verify(mockUpdater).runCommand(CMD_DNF_INST_REPOS, getRPMFusionRepos());
+            dnfOrder.verify(mockUpdater).runCommand(CMD_DNF_INST, getDnfInstallPackages());
+            dnfOrder.verify(mockUpdater).runCommand(CMD_DNF_RM, getDnfRemovePackages());
+        }
+    }
+
+    @Test
+    void runWithParallelOptionAddsGroupsAfterDnfInstall() {
+        try (MockedStatic<ConfigManager> cfg = mockStatic(ConfigManager.class)) {
+            setupConfigManager(cfg);
+            simulateUserInput();
+            when(mockUpdater.runCommand(anyList(), anyList())).thenReturn(0);
+            when(mockUpdater.runCommand(CMD_DNF_INST, getDnfInstallPackages())).thenAnswer(inv -> {
+                Thread.sleep(200);
+                return 0;
+            });
+
+            Main.run(new String[]{"--parallel"}, mockUpdater);
+
+            InOrder order = Mockito.inOrder(mockUpdater);
+            order.verify(mockUpdater).runCommand(CMD_DNF_INST, getDnfInstallPackages());
+            order.verify(mockUpdater).runCommand(CMD_ADD_GROUP, getAdminGroups());
+        }
+    }
+
+    @Test
+    void runOnHostsDoesNotAddLocalUserToGroups() {
+        FleetExecutor fleet = mock(FleetExecutor.class);
+        try (MockedStatic<ConfigManager> cfg = mockStatic(ConfigManager.class)) {
+            setupConfigManager(cfg);
+            simulateUserInput();
+            when(fleet.runCommand(anyList(), anyList())).thenReturn(0);
+
+            Main.run(new String[]{}, fleet);
+
+            Mockito.verify(fleet).runCommand(CMD_DNF_INST, getDnfInstallPackages());
+            Mockito.verify(fleet, Mockito.never()).runCommand(Mockito.eq(CMD_ADD_GROUP), anyList());
+            Mockito.verify(fleet, Mockito.never()).runCommand(Mockito.eq(CMD_ADD_USER_TO_GROUP), anyList());
+            Mockito.verify(fleet).runCommand(CMD_SYSTEMCTL_ENABLE, List.of());
+        }
+    }
+
+    @Test
+    void runSkipsStepsDependingOnStepWithFailedCommand() {
+        try (MockedStatic<ConfigManager> cfg = mockStatic(ConfigManager.class)) {
+            setupConfigManager(cfg);
+            simulateUserInput();
+            when(mockUpdater.runCommand(anyList(), anyList())).thenReturn(0);
+            when(mockUpdater.runCommand(CMD_RPM_IMPORT, getRPMFusionGpgKeys())).thenReturn(1);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            PrintStream stdout = System.out;
+            System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+            int status;
+            try {
+                status = Main.run(new String[]{}, mockUpdater);
+            } finally {
+                System.setOut(stdout);
+            }
+
+            assertEquals(1, status);
+            assertFalse(out.toString(StandardCharsets.UTF_8).contains("All actions completed"));
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_DNF_INST_REPOS), anyList());
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_DNF_INST), anyList());
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_DNF_RM), anyList());
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_SYSTEMCTL_ENABLE), anyList());
+            Mockito.verify(mockUpdater).runCommand(CMD_FLATPAK_INST, List.of(getFlatpakRemoteName(), "flatpak1"));
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_ADD_USER_TO_GROUP), anyList());
+        }
+    }
+
+    @Test
+    void runWithSingleTransactionOptionMergesDnfInstallAndRemove() {
+        try (MockedStatic<ConfigManager> cfg = mockStatic(ConfigManager.class)) {
+            setupConfigManager(cfg);
+            simulateUserInput();
+            when(mockUpdater.runCommand(anyList(), anyList())).thenReturn(0);
+
+            Main.run(new String[]{"--single-transaction"}, mockUpdater);
+
+            InOrder order = Mockito.inOrder(mockUpdater);
+            order.verify(mockUpdater).runCommand(CMD_DNF_INST_REPOS, getRPMFusionRepos());
+            order.verify(mockUpdater).runCommand(CMD_DNF_MARK, List.of());
+            order.verify(mockUpdater).runCommand(CMD_DNF_TRANSACTION,
+                List.of("--action=install", "pkg1", "--action=remove", "pkg2"));
+            order.verify(mockUpdater).runCommand(CMD_SYSTEMCTL_ENABLE, List.of());
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_DNF_INST), anyList());
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_DNF_RM), anyList());
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_DNF_AUTORM), anyList());
+        }
+    }
+
+    @Test
+    void runSkipsCommandsWhoseResultIsAlreadyInPlace(@TempDir Path root) throws IOException {
+        String user = System.getProperty("user.name");
+        Files.createDirectories(root.resolve("etc/pki/rpm-gpg"));
+        Files.writeString(root.resolve("etc/pki/rpm-gpg/key1"), "key");
+        Files.writeString(root.resolve(SystemProbe.GROUP_FILE), "wheel:x:10:" + user + "\n");
+        Files.createDirectories(root.resolve(SystemProbe.FLATPAK_REPO_CONFIG).getParent());
+        Files.writeString(root.resolve(SystemProbe.FLATPAK_REPO_CONFIG), "[remote \"flathub\"]\n");
+        try (MockedStatic<ConfigManager> cfg = mockStatic(ConfigManager.class)) {
+            setupConfigManager(cfg);
+            cfg.when(ConfigManager::getSystemRoot).thenReturn(root);
+            simulateUserInput();
+            when(mockUpdater.runCommand(anyList(), anyList())).thenReturn(0);
+
+            Main.run(new String[]{}, mockUpdater);
+
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_RPM_IMPORT), anyList());
+            Mockito.verify(mockUpdater).runCommand(CMD_DNF_INST_REPOS, getRPMFusionRepos());
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_FLATPAK_REMOTE_ADD), anyList());
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_ADD_GROUP), anyList());
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_ADD_USER_TO_GROUP), anyList());
+            Mockito.verify(mockUpdater).runCommand(CMD_SYSTEMCTL_ENABLE, List.of());
+        }
+    }
+
+    @Test
+    void runAppliesDnfTuningOnlyWhenSettingsAreMissing(@TempDir Path root) throws IOException {
+        Map<String, String> tuning = new LinkedHashMap<>();
+        tuning.put("max_parallel_downloads", "10");
+        tuning.put("keepcache", "True");
+        Files.createDirectories(root.resolve(SystemProbe.DNF_DROP_IN_DIR));
+        Files.writeString(root.resolve(SystemProbe.DNF_CONF), "[main]\nkeepcache=1\n");
+        try (MockedStatic<ConfigManager> cfg = mockStatic(ConfigManager.class)) {
+            setupConfigManager(cfg);
+            cfg.when(ConfigManager::getDnfTuning).thenReturn(tuning);
+            cfg.when(ConfigManager::getSystemRoot).thenReturn(root);
+            // One more prompt than usual, for the tuning step
+            System.setIn(new ByteArrayInputStream("y\nn\nn\nn\nn\nn\nn\n".getBytes(StandardCharsets.UTF_8)));
+
+            Main.run(new String[]{}, mockUpdater);
+
+            Mockito.verify(mockUpdater).runCommand(CMD_WRITE_DNF_DROP_IN,
+                List.of("[main]", "max_parallel_downloads=10", "keepcache=True"));
+
+            Files.writeString(root.resolve(SystemProbe.DNF_DROP_IN_DIR).resolve("80-tuning.conf"), "[main]\nmax_parallel_downloads=10\n");
+            simulateUserInput();
+            Mockito.clearInvocations(mockUpdater);
+
+            Main.run(new String[]{}, mockUpdater);
+
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_WRITE_DNF_DROP_IN), anyList());
+        }
+    }
+
+    @Test
+    void runWithResumeSkipsStepsCompletedWithSameInputs(@TempDir Path stateDir) {
+        try (MockedStatic<ConfigManager> cfg = mockStatic(ConfigManager.class)) {
+            setupConfigManager(cfg);
+            cfg.when(ConfigManager::getStateDir).thenReturn(stateDir);
+            simulateUserInput();
+            when(mockUpdater.runCommand(anyList(), anyList())).thenReturn(0);
+
+            Main.run(new String[]{"--no-log"}, mockUpdater);
+
+            assertTrue(Files.isRegularFile(stateDir.resolve(Journal.FILE_NAME)));
+            cfg.when(ConfigManager::getDnfInstallPackages).thenReturn(List.of("pkg1", "pkg3"));
+            simulateUserInput();
+            Mockito.clearInvocations(mockUpdater);
+
+            Main.run(new String[]{"--no-log", "--resume"}, mockUpdater);
+
+            // Only the step whose package list changed is run again
+            Mockito.verify(mockUpdater).runCommand(CMD_DNF_INST, List.of("pkg1", "pkg3"));
+            Mockito.verify(mockUpdater, Mockito.times(1)).runCommand(anyList(), anyList());
+        }
+    }
+
+    @Test
+    void runWithResumeSkipsCompletedStepAlthoughSystemChanged(@TempDir Path stateDir) throws IOException {
+        try (MockedStatic<ConfigManager> cfg = mockStatic(ConfigManager.class)) {
+            setupConfigManager(cfg);
+            cfg.when(ConfigManager::getStateDir).thenReturn(stateDir);
+            cfg.when(ConfigManager::getDnfInstallPackages).thenReturn(List.of("pkg1", "pkg3"));
+            simulateUserInput();
+            when(mockUpdater.runCommand(anyList(), anyList())).thenReturn(0);
+            when(mockUpdater.readCommandOutput(InstalledState.CMD_RPM_QUERY_NAMES)).thenReturn(List.of("bash", "pkg2"));
+
+            Main.run(new String[]{"--no-log"}, mockUpdater);
+
+            Mockito.verify(mockUpdater).runCommand(CMD_DNF_INST, List.of("pkg1", "pkg3"));
+            // pkg3 is provided by a package of another name, so it still looks missing after the first run
+            when(mockUpdater.readCommandOutput(InstalledState.CMD_RPM_QUERY_NAMES)).thenReturn(List.of("bash", "pkg1", "pkg2"));
+            simulateUserInput();
+            Mockito.clearInvocations(mockUpdater);
+
+            Main.run(new String[]{"--no-log", "--resume"}, mockUpdater);
+
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_DNF_INST), anyList());
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_DNF_RM), anyList());
+        }
+    }
+
+    @Test
+    void runWithAnswerFileDoesNotReadConsole(@TempDir Path dir) throws IOException {
+        Path answers = dir.resolve("answers.cf");
+        Files.writeString(answers, "steps=dnf-install,flatpak,cockpit\nexclude-category=Tools\n");
+        try (MockedStatic<ConfigManager> cfg = mockStatic(ConfigManager.class)) {
+            setupConfigManager(cfg);
+            cfg.when(ConfigManager::getDnfInstallPackages).thenReturn(List.of("pkg1", "pkg3"));
+            cfg.when(ConfigManager::getPackageCategories).thenReturn(Map.of("Tools", List.of("pkg3")));
+            System.setIn(new ByteArrayInputStream(new byte[0]));
+            when(mockUpdater.runCommand(anyList(), anyList())).thenReturn(0);
+
+            Main.run(new String[]{"--answers=" + answers}, mockUpdater);
+
+            InOrder order = Mockito.inOrder(mockUpdater);
+            order.verify(mockUpdater).runCommand(CMD_DNF_INST, List.of("pkg1"));
+            order.verify(mockUpdater).runCommand(CMD_FLATPAK_INST, List.of("flathub", "flatpak1"));
+            order.verify(mockUpdater).runCommand(CMD_SYSTEMCTL_ENABLE, List.of());
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_DNF_INST_REPOS), anyList());
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_DNF_RM), anyList());
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_ADD_GROUP), anyList());
+        }
+    }
+
+    @Test
+    void runWithInvalidAnswerFileRunsNothing(@TempDir Path dir) throws IOException {
+        Path answers = dir.resolve("answers.cf");
+        Files.writeString(answers, "steps=dnf-install\nexclude=missing\n");
+        try (MockedStatic<ConfigManager> cfg = mockStatic(ConfigManager.class)) {
+            setupConfigManager(cfg);
+
+            Main.run(new String[]{"--answers=" + answers}, mockUpdater);
+
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(anyList(), anyList());
+        }
+    }
+
+    @Test
+    void runWithLocalRepoConfiguresItBeforeInstallingOffline(@TempDir Path repo) {
+        try (MockedStatic<ConfigManager> cfg = mockStatic(ConfigManager.class)) {
+            setupConfigManager(cfg);
+            simulateUserInput();
+            when(mockUpdater.runCommand(anyList(), anyList())).thenReturn(0);
+
+            Main.run(new String[]{"--local-repo=" + repo, "--offline"}, mockUpdater);
+
+            InOrder order = Mockito.inOrder(mockUpdater);
+            order.verify(mockUpdater).runCommand(LocalRepository.CMD_WRITE_REPO_FILE,
+                LocalRepository.repoFileLines(repo.toUri().toString(), getRPMFusionGpgKeys()));
+            order.verify(mockUpdater).runCommand(LocalRepository.offline(CMD_DNF_INST), getDnfInstallPackages());
+            order.verify(mockUpdater).runCommand(LocalRepository.CMD_REMOVE_REPO_FILE, List.of());
+            Mockito.verify(mockUpdater, Mockito.never()).runCommand(Mockito.eq(CMD_DNF_INST), anyList());
+        }
+    }
+
+    @Test
+    void runWithBuildLocalRepoOnlyBuildsRepository(@TempDir Path repo) {
+        try (MockedStatic<ConfigManager> cfg = mockStatic(ConfigManager.class)) {
+            setupConfigManager(cfg);
+            when(mockUpdater.runCommand(anyList(), anyList())).thenReturn(0);
+
+            Main.run(new String[]{"--build-local-repo=" + repo}, mockUpdater);
+
+            ArgumentCaptor<List<String>> captorPrefix = ArgumentCaptor.captor();
+            Mockito.verify(mockUpdater, Mockito.times(3)).runCommand(captorPrefix.capture(), anyList());
+            assertEquals(List.of(LocalRepository.CMD_INSTALL_CREATEREPO, LocalRepository.CMD_DNF_DOWNLOAD,
+                LocalRepository.CMD_CREATEREPO), captorPrefix.getAllValues());
+        }
+    }
+
+    @Test
+    void rpmFusionPlanUsesLocalCopiesWhenAvailable() {
+        List<ShellCommand> plan = Main.rpmFusionPlan(List.of("https://k/key1", "https://k/key2"), List.of("https://r/repo.rpm"),
+            Map.of("https://k/key1", "/cache/key1", "https://r/repo.rpm", "/cache/repo.rpm"));
+
+        assertEquals(List.of(
+            new ShellCommand(CMD_RPM_IMPORT, List.of("/cache/key1")),
+            new ShellCommand(CMD_RPM_IMPORT, List.of("https://k/key2")),
+            new ShellCommand(CMD_DNF_INST_REPOS, List.of("/cache/repo.rpm"))), plan);
+    }
+
+    @Test
+    void checkPackagesLeavesOutUnknownPackagesWhenConfirmed() throws Exception {
+        RepodataIndex index = new RepodataIndex(List.of("git", "gti"), "x86_64");
+        index.read(new ByteArrayInputStream(("<metadata><package><name>git</name><arch>noarch</arch>"
+            + "<size package=\"10\" installed=\"20\"/></package></metadata>").getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(List.of("git"), Main.checkPackages(new Scanner("y\n"), null, index, List.of("git", "gti")));
+        assertEquals(List.of("git", "gti"), Main.checkPackages(new Scanner("n\n"), null, index, List.of("git", "gti")));
+    }
+
+    @Test
+    void dnfTransactionArgsOmitsActionsWithoutPackages() {
+        assertEquals(List.of("--action=install", "a", "b"), Main.dnfTransactionArgs(List.of("a", "b"), List.of()));
+        assertEquals(List.of("--action=remove", "c"), Main.dnfTransactionArgs(List.of(), List.of("c")));
+    }
+
+    @Test
+    void intOptionParsesPositiveValuesAndRejectsInvalidOnes() {
+        assertEquals(3, Main.intOption(new String[]{"--dry-run", "--flatpak-jobs=3"}, "--flatpak-jobs=", 0));
+        assertEquals(0, Main.intOption(new String[]{"--dry-run"}, "--flatpak-jobs=", 0));
+        assertThrows(RuntimeException.class, () -> Main.intOption(new String[]{"--flatpak-jobs=0"}, "--flatpak-jobs=", 0));
+        assertThrows(RuntimeException.class, () -> Main.intOption(new String[]{"--flatpak-jobs=x"}, "--flatpak-jobs=", 0));
+    }
+
     @Test
     void helpOptionDisplaysHelpTextAndExits() {
         try (var filesMock = mockStatic(ConfigManager.class)) {
@@ -0,0 +1,66 @@
+package cf.maybelambda.fedora;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class OutputTailTests {
+    @Test
+    void constructorRejectsNonPositiveCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new OutputTail(0));
+    }
+
+    @Test
+    void textReturnsEverythingWhileWithinCapacity() {
+        OutputTail tail = new OutputTail(16);
+
+        tail.write("one\ntwo\n".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("one\ntwo\n", tail.text());
+        assertTrue(tail.endsLine());
+    }
+
+    @Test
+    void textKeepsLastCompleteLinesWhenWrappedAround() {
+        OutputTail tail = new OutputTail(12);
+
+        tail.write("first\n".getBytes(StandardCharsets.UTF_8));
+        tail.write("second\n".getBytes(StandardCharsets.UTF_8));
+        tail.write('t');
+        tail.write("hird".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals(18, tail.written());
+        assertEquals("third", tail.text());
+        assertFalse(tail.endsLine());
+    }
+
+    @Test
+    void writeLargerThanCapacityKeepsItsEnd() {
+        OutputTail tail = new OutputTail(8);
+
+        tail.write("abc\n0123456\n89\n".getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("89\n", tail.text());
+    }
+
+    @Test
+    void teeToForwardsAllBytesAndKeepsTail() throws IOException {
+        OutputTail tail = new OutputTail(4);
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+
+        try (OutputStream tee = tail.teeTo(console)) {
+            tee.write("line1\nab\n".getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertEquals("line1\nab\n", console.toString(StandardCharsets.UTF_8));
+        assertEquals("ab\n", tail.text());
+    }
+}
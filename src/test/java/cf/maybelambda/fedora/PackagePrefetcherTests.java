@@ -0,0 +1,127 @@
+package cf.maybelambda.fedora;
+
+import static cf.maybelambda.fedora.PackagePrefetcher.CMD_DNF_DOWNLOAD_ONLY;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+
+class PackagePrefetcherTests {
+    private PostInstallUpdater updater;
+    private ProcessBuilder mockBuilder;
+
+    @BeforeEach
+    void setUp() {
+        this.updater = Mockito.spy(new PostInstallUpdater());
+        this.mockBuilder = mock(ProcessBuilder.class);
+        Mockito.doReturn(mockBuilder).when(updater).createProcessBuilder(any(String[].class));
+    }
+
+    @Test
+    void startDownloadsPackagesInBackgroundAndAwaitReportsSuccess() throws Exception {
+        Process mockProcess = mock(Process.class);
+        when(mockProcess.getErrorStream()).thenReturn(InputStream.nullInputStream());
+        when(mockProcess.waitFor()).thenReturn(0);
+        when(mockBuilder.start()).thenReturn(mockProcess);
+        PackagePrefetcher prefetcher = new PackagePrefetcher(updater);
+
+        prefetcher.start(List.of("vim", "htop"));
+
+        assertTrue(prefetcher.await());
+        ArgumentCaptor<String[]> captor = ArgumentCaptor.forClass(String[].class);
+        Mockito.verify(updater).createProcessBuilder(captor.capture());
+        String[] expected = Stream.concat(CMD_DNF_DOWNLOAD_ONLY.stream(), Stream.of("vim", "htop")).toArray(String[]::new);
+        assertArrayEquals(expected, captor.getValue());
+    }
+
+    @Test
+    void awaitReportsFailedDownloadWithItsErrorOutput() throws Exception {
+        Process mockProcess = mock(Process.class);
+        when(mockProcess.getErrorStream()).thenReturn(new ByteArrayInputStream(
+            "Error: Failed to download metadata for repo 'fedora'\n".getBytes(StandardCharsets.UTF_8)));
+        when(mockProcess.waitFor()).thenReturn(1);
+        when(mockBuilder.start()).thenReturn(mockProcess);
+        PackagePrefetcher prefetcher = new PackagePrefetcher(updater);
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+
+        try {
+            prefetcher.start(List.of("vim"));
+            assertFalse(prefetcher.await());
+        } finally {
+            System.setOut(stdout);
+        }
+
+        String text = out.toString(StandardCharsets.UTF_8);
+        assertTrue(text.contains("exit code 1"));
+        assertTrue(text.contains("Failed to download metadata for repo 'fedora'"));
+    }
+
+    @Test
+    void authenticateAsksForPasswordOnTerminal() throws Exception {
+        Process mockProcess = mock(Process.class);
+        when(mockProcess.waitFor()).thenReturn(0, 1);
+        when(mockBuilder.inheritIO()).thenReturn(mockBuilder);
+        when(mockBuilder.start()).thenReturn(mockProcess);
+
+        assertTrue(PackagePrefetcher.authenticate(updater));
+        assertFalse(PackagePrefetcher.authenticate(updater));
+        Mockito.verify(updater, Mockito.times(2)).createProcessBuilder(PrivilegedShell.CMD_SUDO_AUTH.toArray(String[]::new));
+        Mockito.verify(mockBuilder, Mockito.times(2)).inheritIO();
+    }
+
+    @Test
+    void awaitReportsFailureWhenDownloadCannotStart() throws Exception {
+        when(mockBuilder.start()).thenThrow(new IOException("sudo: a password is required"));
+        PackagePrefetcher prefetcher = new PackagePrefetcher(updater);
+
+        prefetcher.start(List.of("vim"));
+
+        assertFalse(prefetcher.await());
+    }
+
+    @Test
+    void cancelDestroysRunningDownload() throws Exception {
+        Process mockProcess = mock(Process.class);
+        when(mockProcess.getErrorStream()).thenReturn(InputStream.nullInputStream());
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch destroyed = new CountDownLatch(1);
+        when(mockProcess.waitFor()).thenAnswer(inv -> {
+            started.countDown();
+            destroyed.await(5, TimeUnit.SECONDS);
+            return 143;
+        });
+        Mockito.doAnswer(inv -> {
+            destroyed.countDown();
+            return null;
+        }).when(mockProcess).destroy();
+        when(mockBuilder.start()).thenReturn(mockProcess);
+        PackagePrefetcher prefetcher = new PackagePrefetcher(updater);
+        prefetcher.start(List.of("vim"));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        prefetcher.cancel();
+
+        Mockito.verify(mockProcess).destroy();
+        assertFalse(prefetcher.await());
+    }
+}
@@ -0,0 +1,61 @@
+package cf.maybelambda.fedora;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class PlanOptimizerTests {
+    @Test
+    void optimizeMergesAdjacentKeyImportsIntoOneCommand() {
+        List<ShellCommand> plan = List.of(
+            new ShellCommand(Main.CMD_RPM_IMPORT, List.of("key1")),
+            new ShellCommand(Main.CMD_RPM_IMPORT, List.of("key2")),
+            new ShellCommand(Main.CMD_DNF_INST_REPOS, List.of("repo"))
+        );
+
+        assertEquals(List.of(
+            new ShellCommand(Main.CMD_RPM_IMPORT, List.of("key1", "key2")),
+            new ShellCommand(Main.CMD_DNF_INST_REPOS, List.of("repo"))
+        ), PlanOptimizer.optimize(plan));
+    }
+
+    @Test
+    void optimizeJoinsGroupsOfSameUserIntoCommaSeparatedList() {
+        List<ShellCommand> plan = List.of(
+            new ShellCommand(Main.CMD_ADD_GROUP, List.of("wheel")),
+            new ShellCommand(Main.CMD_ADD_GROUP, List.of("docker")),
+            new ShellCommand(Main.CMD_ADD_USER_TO_GROUP, List.of("wheel", "user")),
+            new ShellCommand(Main.CMD_ADD_USER_TO_GROUP, List.of("docker", "user"))
+        );
+
+        assertEquals(List.of(
+            new ShellCommand(Main.CMD_ADD_GROUP, List.of("wheel", "docker")),
+            new ShellCommand(Main.CMD_ADD_USER_TO_GROUP, List.of("wheel,docker", "user"))
+        ), PlanOptimizer.optimize(plan));
+    }
+
+    @Test
+    void optimizeKeepsGroupsOfDifferentUsersSeparate() {
+        List<ShellCommand> plan = List.of(
+            new ShellCommand(Main.CMD_ADD_USER_TO_GROUP, List.of("wheel", "alice")),
+            new ShellCommand(Main.CMD_ADD_USER_TO_GROUP, List.of("docker", "bob"))
+        );
+
+        assertEquals(plan, PlanOptimizer.optimize(plan));
+    }
+
+    @Test
+    void optimizeNeverMergesAcrossOtherCommandsOrWithoutRule() {
+        List<ShellCommand> plan = List.of(
+            new ShellCommand(Main.CMD_RPM_IMPORT, List.of("key1")),
+            new ShellCommand(Main.CMD_DNF_MARK, List.of()),
+            new ShellCommand(Main.CMD_RPM_IMPORT, List.of("key2")),
+            new ShellCommand(Main.CMD_DNF_INST, List.of("a")),
+            new ShellCommand(Main.CMD_DNF_INST, List.of("b"))
+        );
+
+        assertEquals(plan, PlanOptimizer.optimize(plan));
+    }
+}
@@ -2,13 +2,23 @@ package cf.maybelambda.fedora;
 
 import static java.util.Arrays.asList;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -47,6 +57,112 @@ class PostInstallUpdaterTests {
         assertEquals(0, exitCode);
     }
 
+    @Test
+    void runCommandRecordsCommandInReportWhenSet() throws Exception {
+        Process mockProcess = mock(Process.class);
+        ProcessHandle mockHandle = mock(ProcessHandle.class);
+        ProcessHandle.Info mockInfo = mock(ProcessHandle.Info.class);
+        when(mockInfo.totalCpuDuration()).thenReturn(Optional.of(Duration.ofMillis(250)));
+        when(mockHandle.info()).thenReturn(mockInfo);
+        when(mockHandle.descendants()).thenReturn(Stream.empty());
+        when(mockProcess.toHandle()).thenReturn(mockHandle);
+        when(mockProcess.getInputStream()).thenReturn(new ByteArrayInputStream("12345\n".getBytes(StandardCharsets.UTF_8)));
+        when(mockProcess.waitFor()).thenReturn(2);
+        when(mockBuilder.start()).thenReturn(mockProcess);
+        Mockito.doReturn(mockBuilder).when(updater).createProcessBuilder(any(String[].class));
+        RunReport report = new RunReport();
+        updater.setReport(report);
+
+        updater.runCommand(asList("echo"), asList("12345"));
+
+        RunReport.CommandRecord recorded = report.getCommands().getFirst();
+        assertEquals(asList("echo", "12345"), recorded.command());
+        assertEquals(6, recorded.outputBytes());
+        assertEquals(Duration.ofMillis(250), recorded.cpu());
+        assertEquals(2, recorded.exitCode());
+        assertEquals("12345\n", recorded.outputTail());
+    }
+
+    @Test
+    void runCommandRelaysRawOutputAndKeepsOnlyTailForFailures() throws Exception {
+        byte[] output = ("x".repeat(OutputTail.DEFAULT_CAPACITY) + "\nlast line\nno newline").getBytes(StandardCharsets.UTF_8);
+        Process mockProcess = mock(Process.class);
+        ProcessHandle mockHandle = mock(ProcessHandle.class);
+        when(mockHandle.info()).thenReturn(mock(ProcessHandle.Info.class));
+        when(mockHandle.descendants()).thenReturn(Stream.empty());
+        when(mockProcess.toHandle()).thenReturn(mockHandle);
+        when(mockProcess.getInputStream()).thenReturn(new ByteArrayInputStream(output));
+        when(mockProcess.waitFor()).thenReturn(1);
+        when(mockBuilder.start()).thenReturn(mockProcess);
+        Mockito.doReturn(mockBuilder).when(updater).createProcessBuilder(any(String[].class));
+        RunReport report = new RunReport();
+        updater.setReport(report);
+        PrintStream originalOut = System.out;
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(console, true, StandardCharsets.UTF_8));
+        try {
+            updater.runCommand(asList("dnf"), asList("install"));
+        } finally {
+            System.setOut(originalOut);
+        }
+
+        assertTrue(console.toString(StandardCharsets.UTF_8).contains("last line\nno newline" + System.lineSeparator()));
+        assertEquals("last line\nno newline", report.getCommands().getFirst().outputTail());
+    }
+
+    @Test
+    void runCommandShowsOnlyProgressAndTailOfFailedCommandWhenProgressDisplaySet() throws Exception {
+        byte[] output = "Package  Arch\n[1/1] vim-9.1-1.x86_64 100% | 1 MiB/s | 1 MiB | 00m01s\nTransaction failed\n"
+            .getBytes(StandardCharsets.UTF_8);
+        Process mockProcess = mock(Process.class);
+        when(mockProcess.getInputStream()).thenReturn(new ByteArrayInputStream(output));
+        when(mockProcess.waitFor()).thenReturn(1);
+        when(mockBuilder.start()).thenReturn(mockProcess);
+        Mockito.doReturn(mockBuilder).when(updater).createProcessBuilder(any(String[].class));
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(console, true, StandardCharsets.UTF_8);
+        updater.setProgressDisplay(new ProgressDisplay(out, false));
+
+        int exitCode = updater.runCommand(asList("sudo", "dnf", "install"), asList("vim"));
+
+        String printed = console.toString(StandardCharsets.UTF_8);
+        assertEquals(1, exitCode);
+        assertTrue(printed.indexOf("Package  Arch") > printed.indexOf("Last output of failed command:"));
+        assertTrue(printed.contains("Transaction failed"));
+        assertTrue(printed.contains("Command exited with code: 1"));
+    }
+
+    @Test
+    void runCommandRoutesSudoCommandsThroughPrivilegedShellWhenSet() throws Exception {
+        PrivilegedShell mockShell = mock(PrivilegedShell.class);
+        when(mockShell.tryRun(any(), any())).thenReturn(OptionalInt.of(4));
+        Mockito.doThrow(new AssertionError("Should not spawn a process for sudo commands"))
+            .when(updater).createProcessBuilder(new String[]{"sudo", "dnf", "install", "vim"});
+        updater.setPrivilegedShell(mockShell);
+
+        int exitCode = updater.runCommand(asList("sudo", "dnf", "install"), asList("vim"));
+
+        assertEquals(4, exitCode);
+        Mockito.verify(mockShell).tryRun(Mockito.eq(asList("dnf", "install", "vim")), any());
+    }
+
+    @Test
+    void runCommandSpawnsSudoWhenPrivilegedShellIsBusy() throws Exception {
+        PrivilegedShell mockShell = mock(PrivilegedShell.class);
+        when(mockShell.tryRun(any(), any())).thenReturn(OptionalInt.empty());
+        Process mockProcess = mock(Process.class);
+        when(mockProcess.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        when(mockProcess.waitFor()).thenReturn(0);
+        when(mockBuilder.start()).thenReturn(mockProcess);
+        Mockito.doReturn(mockBuilder).when(updater).createProcessBuilder(any(String[].class));
+        updater.setPrivilegedShell(mockShell);
+
+        int exitCode = updater.runCommand(asList("sudo", "flatpak", "install"), asList("app"));
+
+        assertEquals(0, exitCode);
+        Mockito.verify(updater).createProcessBuilder(new String[]{"sudo", "flatpak", "install", "app"});
+    }
+
     @Test
     void runCommandReturnsStatusMinusOneOnIOException() throws Exception {
         when(mockBuilder.start()).thenThrow(new IOException("Simulated I/O error"));
@@ -67,4 +183,149 @@ class PostInstallUpdaterTests {
 
         assertEquals(0, exitCode);
     }
+
+    @Test
+    void readCommandOutputReturnsStdoutLines() throws Exception {
+        Process mockProcess = mock(Process.class);
+        when(mockProcess.getInputStream()).thenReturn(new ByteArrayInputStream("a\nb\n".getBytes(StandardCharsets.UTF_8)));
+        when(mockProcess.waitFor()).thenReturn(0);
+        when(mockBuilder.start()).thenReturn(mockProcess);
+        Mockito.doReturn(mockBuilder).when(updater).createProcessBuilder(any(String[].class));
+        updater.setDryRun(true);
+
+        assertEquals(asList("a", "b"), updater.readCommandOutput(asList("rpm", "-qa")));
+    }
+
+    @Test
+    void readCommandOutputThrowsIOExceptionOnNonZeroExitCode() throws Exception {
+        Process mockProcess = mock(Process.class);
+        when(mockProcess.getInputStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        when(mockProcess.waitFor()).thenReturn(1);
+        when(mockBuilder.start()).thenReturn(mockProcess);
+        Mockito.doReturn(mockBuilder).when(updater).createProcessBuilder(any(String[].class));
+
+        assertThrows(IOException.class, () -> updater.readCommandOutput(asList("flatpak", "list")));
+    }
+
+    @Test
+    void runCommandAsyncCompletesWithExitCodeAfterRelayingBothStreams() throws Exception {
+        Process mockProcess = mock(Process.class);
+        when(mockProcess.getInputStream()).thenReturn(new ByteArrayInputStream("out1\nout2".getBytes(StandardCharsets.UTF_8)));
+        when(mockProcess.getErrorStream()).thenReturn(new ByteArrayInputStream("err1".getBytes(StandardCharsets.UTF_8)));
+        when(mockProcess.waitFor()).thenReturn(3);
+        when(mockBuilder.start()).thenReturn(mockProcess);
+        Mockito.doReturn(mockBuilder).when(updater).createProcessBuilder(any(String[].class));
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(capture));
+
+        int exitCode;
+        try {
+            exitCode = updater.runCommandAsync(asList("echo"), asList("test")).get(5, TimeUnit.SECONDS);
+        } finally {
+            System.setOut(stdout);
+        }
+
+        assertEquals(3, exitCode);
+        String output = capture.toString();
+        assertTrue(output.contains("out1"));
+        assertTrue(output.contains("out2"));
+        assertTrue(output.contains("err1"));
+    }
+
+    @Test
+    void runCommandAsyncRelaysAllLinesWhenOutputExceedsBuffer() throws Exception {
+        int lines = PostInstallUpdater.OUTPUT_BUFFER_LINES * 3;
+        StringBuilder output = new StringBuilder();
+        for (int i = 0; i < lines; i++) output.append("line").append(i).append('\n');
+        Process mockProcess = mock(Process.class);
+        when(mockProcess.getInputStream()).thenReturn(new ByteArrayInputStream(output.toString().getBytes(StandardCharsets.UTF_8)));
+        when(mockProcess.getErrorStream()).thenReturn(new ByteArrayInputStream(new byte[0]));
+        when(mockProcess.waitFor()).thenReturn(0);
+        when(mockBuilder.start()).thenReturn(mockProcess);
+        Mockito.doReturn(mockBuilder).when(updater).createProcessBuilder(any(String[].class));
+        ByteArrayOutputStream capture = new ByteArrayOutputStream();
+        updater.setConsole(new PrintStream(capture, true, StandardCharsets.UTF_8));
+
+        updater.runCommandAsync(asList("dnf"), asList("install")).get(10, TimeUnit.SECONDS);
+
+        String printed = capture.toString(StandardCharsets.UTF_8);
+        assertTrue(printed.contains("line0"));
+        assertTrue(printed.contains("line" + (lines - 1)));
+        assertEquals(lines, printed.lines().filter(line -> line.contains("line")).count());
+    }
+
+    @Test
+    void runCommandAsyncCompletesWithMinusOneOnIOException() throws Exception {
+        when(mockBuilder.start()).thenThrow(new IOException("Simulated I/O error"));
+        Mockito.doReturn(mockBuilder).when(updater).createProcessBuilder(any(String[].class));
+
+        int exitCode = updater.runCommandAsync(asList("failing"), asList("cmd")).get();
+
+        assertEquals(-1, exitCode);
+    }
+
+    @Test
+    void runCommandAsyncSkipsExecutionInDryRunMode() throws Exception {
+        updater.setDryRun(true);
+        Mockito.doThrow(new AssertionError("Should not create ProcessBuilder in dry-run mode"))
+            .when(updater).createProcessBuilder(any(String[].class));
+
+        int exitCode = updater.runCommandAsync(asList("fake"), asList("cmd")).get();
+
+        assertEquals(0, exitCode);
+    }
+
+    @Test
+    void runCommandTerminatesProcessTreeWhenCommandTimeoutIsExceeded() {
+        updater.setCommandTimeout(Duration.ofSeconds(1));
+        long start = System.nanoTime();
+
+        int exitCode = updater.runCommand(asList("sh", "-c"), asList("sleep 30 & wait"));
+
+        assertEquals(PostInstallUpdater.EXIT_TIMED_OUT, exitCode);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(10));
+    }
+
+    @Test
+    void runCommandTerminatesCommandThatStopsProducingOutput() {
+        updater.setStallTimeout(Duration.ofSeconds(1));
+
+        int exitCode = updater.runCommand(asList("sh", "-c"), asList("echo started; sleep 30"));
+
+        assertEquals(PostInstallUpdater.EXIT_STALLED, exitCode);
+    }
+
+    @Test
+    void runCommandLetsCommandThatKeepsProducingOutputRunPastStallTimeout() {
+        updater.setStallTimeout(Duration.ofSeconds(1));
+
+        int exitCode = updater.runCommand(asList("sh", "-c"), asList("for i in 1 2 3 4; do echo $i; sleep 0.5; done"));
+
+        assertEquals(0, exitCode);
+    }
+
+    @Test
+    void runCommandAsyncTerminatesProcessWhenCommandTimeoutIsExceeded() throws Exception {
+        updater.setCommandTimeout(Duration.ofSeconds(1));
+
+        int exitCode = updater.runCommandAsync(asList("sleep"), asList("30")).get(10, TimeUnit.SECONDS);
+
+        assertEquals(PostInstallUpdater.EXIT_TIMED_OUT, exitCode);
+    }
+
+    @Test
+    void destroyTreeTerminatesDescendants() throws Exception {
+        Process process = new ProcessBuilder("sh", "-c", "sleep 30 & sleep 30 & wait").start();
+        Thread.sleep(200);
+        List<ProcessHandle> children = process.toHandle().descendants().toList();
+
+        PostInstallUpdater.destroyTree(process.toHandle(), 5);
+
+        assertTrue(process.waitFor(5, TimeUnit.SECONDS));
+        assertEquals(2, children.size());
+        for (ProcessHandle child : children) {
+            child.onExit().get(5, TimeUnit.SECONDS);
+        }
+    }
 }
@@ -0,0 +1,124 @@
+package cf.maybelambda.fedora;
+
+import static cf.maybelambda.fedora.PrivilegedShell.CMD_ROOT_SHELL;
+import static cf.maybelambda.fedora.PrivilegedShell.CMD_SUDO_AUTH;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+
+class PrivilegedShellTests {
+    private PostInstallUpdater updater;
+    private PrivilegedShell shell;
+    private String authResult;
+
+    @BeforeEach
+    void setUp() {
+        // Stand-ins for sudo: the auth command becomes true/false and the root shell a plain sh
+        authResult = "true";
+        updater = Mockito.spy(new PostInstallUpdater());
+        Mockito.doAnswer(inv -> {
+            List<String> cmd = List.of((String[]) inv.getArgument(0));
+            if (cmd.equals(CMD_ROOT_SHELL)) return new ProcessBuilder("sh");
+            if (cmd.equals(CMD_SUDO_AUTH)) return new ProcessBuilder(authResult);
+            return new ProcessBuilder("true");
+        }).when(updater).createProcessBuilder(any(String[].class));
+        shell = new PrivilegedShell(updater);
+    }
+
+    @AfterEach
+    void tearDown() {
+        shell.close();
+    }
+
+    @Test
+    void runReturnsExitCodesAndOutputOfConsecutiveCommands() throws IOException {
+        shell.start();
+        List<String> output = new ArrayList<>();
+
+        int first = shell.run(List.of("sh", "-c", "echo one; echo two >&2; exit 3"), output::add);
+        int second = shell.run(List.of("printf", "no newline"), output::add);
+        int third = shell.run(List.of("true"), output::add);
+
+        assertEquals(3, first);
+        assertEquals(0, second);
+        assertEquals(0, third);
+        assertEquals(List.of("one", "two", "no newline"), output);
+    }
+
+    @Test
+    void runPassesArgumentsLiterally() throws IOException {
+        shell.start();
+        List<String> output = new ArrayList<>();
+
+        shell.run(List.of("echo", "it's $HOME; `id`"), output::add);
+
+        assertEquals(List.of("it's $HOME; `id`"), output);
+    }
+
+    @Test
+    void runDoesNotLetCommandsReadFollowingInput() throws IOException {
+        shell.start();
+        List<String> output = new ArrayList<>();
+
+        assertEquals(0, shell.run(List.of("cat"), output::add));
+        assertEquals(0, shell.run(List.of("echo", "after"), output::add));
+
+        assertEquals(List.of("after"), output);
+    }
+
+    @Test
+    void tryRunDoesNotWaitWhileShellIsBusy() throws Exception {
+        shell.start();
+        CountDownLatch started = new CountDownLatch(1);
+        Thread busy = Thread.ofPlatform().start(() -> {
+            try {
+                // A line is passed on once the next one is read, hence the second echo
+                shell.run(List.of("sh", "-c", "echo started; echo sleeping; sleep 1"), line -> started.countDown());
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        started.await();
+
+        OptionalInt whileBusy = shell.tryRun(List.of("true"), line -> { });
+        busy.join();
+
+        assertFalse(whileBusy.isPresent());
+        assertEquals(OptionalInt.of(5), shell.tryRun(List.of("sh", "-c", "exit 5"), line -> { }));
+    }
+
+    @Test
+    void startThrowsWhenAuthenticationFails() {
+        authResult = "false";
+
+        assertThrows(IOException.class, () -> shell.start());
+    }
+
+    @Test
+    void runThrowsWhenShellIsNotRunning() throws IOException {
+        assertThrows(IOException.class, () -> shell.run(List.of("true"), line -> { }));
+
+        shell.start();
+        shell.close();
+
+        assertThrows(IOException.class, () -> shell.run(List.of("true"), line -> { }));
+    }
+
+    @Test
+    void quoteEscapesSingleQuotes() {
+        assertEquals("'a'\\''b'", PrivilegedShell.quote("a'b"));
+        assertEquals("''", PrivilegedShell.quote(""));
+    }
+}
@@ -0,0 +1,62 @@
+package cf.maybelambda.fedora;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+class ProgressDisplayTests {
+    private final ByteArrayOutputStream console = new ByteArrayOutputStream();
+    private final PrintStream out = new PrintStream(console, true, StandardCharsets.UTF_8);
+
+    @Test
+    void lineCombinesLatestProgressOfRunningCommands() throws IOException {
+        ProgressDisplay display = new ProgressDisplay(out, false);
+        ProgressDisplay.Task dnf = display.start("dnf-install");
+        ProgressDisplay.Task flatpak = display.start("flatpak");
+
+        try (OutputStream stream = dnf.stream()) {
+            stream.write("[1/9] a-1.0-1.noarch 100% | 1 MiB/s | 1 MiB | 00m01s\r[2/9] b-1.0-1.noarch  50% | 1 MiB/s |"
+                .getBytes(StandardCharsets.UTF_8));
+        }
+        flatpak.line("Resolving dependencies");
+
+        assertEquals("dnf-install: Downloading 2/9 50% | flatpak: 1 lines", display.line());
+        dnf.finish();
+        assertEquals("flatpak: 1 lines", display.line());
+    }
+
+    @Test
+    void outputIsNotPrintedExceptNotableLines() {
+        ProgressDisplay display = new ProgressDisplay(out, false);
+        ProgressDisplay.Task task = display.start("dnf-install");
+
+        task.line("Package   Arch   Version");
+        task.line("Error: Unable to find a match: foo");
+
+        String printed = console.toString(StandardCharsets.UTF_8);
+        assertFalse(printed.contains("Package   Arch"));
+        assertTrue(printed.contains("Error: Unable to find a match: foo"));
+    }
+
+    @Test
+    void progressLineIsRedrawnInPlaceAndClearedWhenAnsiSupported() {
+        ProgressDisplay display = new ProgressDisplay(out, true);
+        ProgressDisplay.Task task = display.start("cockpit");
+
+        display.println("Executing shell command: systemctl");
+        task.finish();
+
+        String printed = console.toString(StandardCharsets.UTF_8);
+        assertTrue(printed.contains("Executing shell command: systemctl"));
+        assertTrue(printed.contains("cockpit: 0 lines"));
+        assertTrue(printed.endsWith("\r\u001B[2K"));
+    }
+}
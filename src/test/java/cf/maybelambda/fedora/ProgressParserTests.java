@@ -0,0 +1,56 @@
+package cf.maybelambda.fedora;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import cf.maybelambda.fedora.ProgressParser.Progress;
+
+import org.junit.jupiter.api.Test;
+
+class ProgressParserTests {
+    @Test
+    void parseRecognizesDnf5DownloadAndTransactionLines() {
+        assertEquals(new Progress("Downloading", 3, 12, 100),
+            ProgressParser.parse("[ 3/12] vim-common-2:9.1.1000-1.fc42.x86_64   100% |  10.1 MiB/s |   8.0 MiB |  00m01s"));
+        assertEquals(new Progress("Installing", 7, 14, 45),
+            ProgressParser.parse("[ 7/14] Installing vim-common-2:9.1.1000-1.fc42.x86_64  45% |  20.0 MiB/s |  30.0 MiB |  00m01s"));
+    }
+
+    @Test
+    void parseRecognizesDnf4DownloadAndTransactionLines() {
+        assertEquals(new Progress("Downloading", 2, 5, -1),
+            ProgressParser.parse("(2/5): vim-common-9.1.1000-1.fc42.x86_64.rpm   5.3 MB/s | 8.0 MB     00:01"));
+        assertEquals(new Progress("Verifying", 5, 5, -1),
+            ProgressParser.parse("  Verifying        : vim-common-2:9.1.1000-1.fc42.x86_64            5/5 "));
+    }
+
+    @Test
+    void parseRecognizesFlatpakLines() {
+        assertEquals(new Progress("Installing", 2, 7, 45),
+            ProgressParser.parse("Installing 2/7… ████████▌            45%  2.1 MB/s  00:12"));
+        assertEquals(new Progress("Installing", 1, 3, -1), ProgressParser.parse("Installing 1/3…"));
+    }
+
+    @Test
+    void parseIgnoresOtherLines() {
+        assertNull(ProgressParser.parse("Package                Arch   Version        Repository      Size"));
+        assertNull(ProgressParser.parse("Installing:"));
+        assertNull(ProgressParser.parse(""));
+    }
+
+    @Test
+    void isNotableRecognizesErrorsAndWarnings() {
+        assertTrue(ProgressParser.isNotable("Error: Unable to find a match: foo"));
+        assertTrue(ProgressParser.isNotable("warning: /var/cache/dnf/x.rpm: Header V4 RSA/SHA256 Signature"));
+        assertFalse(ProgressParser.isNotable("Installing 1/3…"));
+        assertFalse(ProgressParser.isNotable("libgpg-error-1.50-2.fc42.x86_64"));
+    }
+
+    @Test
+    void progressToStringOmitsUnknownPercent() {
+        assertEquals("Removing 1/2", new Progress("Removing", 1, 2, -1).toString());
+        assertEquals("Downloading 1/2 50%", new Progress("Downloading", 1, 2, 50).toString());
+    }
+}
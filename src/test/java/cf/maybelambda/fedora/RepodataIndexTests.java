@@ -0,0 +1,110 @@
+package cf.maybelambda.fedora;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RepodataIndexTests {
+    private static final String PRIMARY = """
+        <?xml version="1.0" encoding="UTF-8"?>
+        <metadata xmlns="http://linux.duke.edu/metadata/common" xmlns:rpm="http://linux.duke.edu/metadata/rpm" packages="4">
+        <package type="rpm">
+          <name>vim-enhanced</name>
+          <arch>x86_64</arch>
+          <version epoch="2" ver="9.1.1000" rel="1.fc42"/>
+          <size package="2000000" installed="4000000" archive="4100000"/>
+          <format>
+            <rpm:provides>
+              <rpm:entry name="vim-enhanced" flags="EQ" epoch="2" ver="9.1.1000" rel="1.fc42"/>
+              <rpm:entry name="vim"/>
+            </rpm:provides>
+          </format>
+        </package>
+        <package type="rpm">
+          <name>git</name>
+          <arch>x86_64</arch>
+          <size package="50000" installed="100000" archive="110000"/>
+        </package>
+        <package type="rpm">
+          <name>git</name>
+          <arch>src</arch>
+          <size package="9000000" installed="9000000" archive="9000000"/>
+        </package>
+        <package type="rpm">
+          <name>meld</name>
+          <arch>noarch</arch>
+          <size package="1000000" installed="3000000" archive="3100000"/>
+        </package>
+        </metadata>
+        """;
+
+    private RepodataIndex read(List<String> wanted) throws Exception {
+        RepodataIndex index = new RepodataIndex(wanted, "x86_64");
+        index.read(new ByteArrayInputStream(PRIMARY.getBytes(StandardCharsets.UTF_8)));
+        return index;
+    }
+
+    @Test
+    void unknownReportsNamesNeitherPackagedNorProvided() throws Exception {
+        List<String> wanted = List.of("git", "vim", "meld", "gti");
+
+        RepodataIndex index = read(wanted);
+
+        assertEquals(List.of("gti"), index.unknown(wanted));
+        assertEquals(1, index.getRepositories());
+    }
+
+    @Test
+    void totalSizesAddsUpPackagesOfMachineArchitectureOnly() throws Exception {
+        RepodataIndex index = read(List.of("git", "meld", "vim-enhanced"));
+
+        RepodataIndex.Sizes sizes = index.totalSizes(List.of("git", "meld"));
+
+        assertEquals(1_050_000, sizes.downloadSize());
+        assertEquals(3_100_000, sizes.installedSize());
+    }
+
+    @Test
+    void scanReadsNewestCompressedPrimaryOfEachCachedRepository(@TempDir Path root) throws Exception {
+        Path repodata = Files.createDirectories(root.resolve(RepodataIndex.CACHE_DIRS.getFirst()).resolve("fedora-1a2b/repodata"));
+        Path old = repodata.resolve("0000-primary.xml.gz");
+        Files.writeString(old, "not metadata");
+        Files.setLastModifiedTime(old, FileTime.fromMillis(0));
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(repodata.resolve("ffff-primary.xml.gz")))) {
+            out.write(PRIMARY.getBytes(StandardCharsets.UTF_8));
+        }
+        Files.writeString(repodata.resolve("ffff-filelists.xml.gz"), "ignored");
+        List<String> wanted = List.of("git", "typo");
+
+        RepodataIndex index = RepodataIndex.scan(root, wanted, mock(PostInstallUpdater.class));
+
+        assertEquals(1, index.getRepositories());
+        assertEquals(List.of("typo"), index.unknown(wanted));
+    }
+
+    @Test
+    void scanFindsNothingWithoutCache(@TempDir Path root) throws IOException {
+        RepodataIndex index = RepodataIndex.scan(root, List.of("git"), mock(PostInstallUpdater.class));
+
+        assertEquals(0, index.getRepositories());
+    }
+
+    @Test
+    void formatSizeUsesLargestBinaryUnit() {
+        assertEquals("512 B", RepodataIndex.formatSize(512));
+        assertEquals("1.5 KiB", RepodataIndex.formatSize(1536));
+        assertEquals("2.0 GiB", RepodataIndex.formatSize(2L * 1024 * 1024 * 1024));
+    }
+}
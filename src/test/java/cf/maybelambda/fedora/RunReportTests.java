@@ -0,0 +1,140 @@
+package cf.maybelambda.fedora;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class RunReportTests {
+    private final RunReport report = new RunReport();
+
+    private static Runnable sleep(long millis) {
+        return () -> {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+    }
+
+    @Test
+    void runStepRecordsTimingAndExposesCurrentStepToTheAction() {
+        AtomicReference<String> seen = new AtomicReference<>();
+
+        report.runStep(new SetupStep("groups", Set.of(), Set.of(), () -> seen.set(RunReport.currentStep())));
+
+        assertEquals("groups", seen.get());
+        assertNull(RunReport.currentStep());
+        assertEquals(1, report.getSteps().size());
+        assertTrue(report.getSteps().getFirst().completed());
+    }
+
+    @Test
+    void runStepRecordsFailedStepAndRethrows() {
+        SetupStep failing = new SetupStep("bad", Set.of(), Set.of(), () -> { throw new IllegalStateException("boom"); });
+
+        assertThrows(IllegalStateException.class, () -> report.runStep(failing));
+
+        assertFalse(report.getSteps().getFirst().completed());
+    }
+
+    @Test
+    void criticalPathFollowsTheStepsTheRunWaitedOn() {
+        List<SetupStep> steps = List.of(
+            new SetupStep("rpmfusion", Set.of(), Set.of("dnf"), sleep(30)),
+            new SetupStep("flatpak", Set.of(), Set.of("flatpak"), sleep(10)),
+            new SetupStep("dnf-install", Set.of("rpmfusion"), Set.of("dnf"), sleep(30))
+        );
+
+        new StepScheduler(2, report).execute(steps);
+
+        List<String> path = report.criticalPath().stream().map(RunReport.StepRecord::name).toList();
+        assertEquals(List.of("rpmfusion", "dnf-install"), path);
+    }
+
+    @Test
+    void toJsonContainsStepsCommandsAndEscapedText() {
+        report.runStep(new SetupStep("cockpit", Set.of(), Set.of(), () -> { }));
+        report.recordCommand(new RunReport.CommandRecord("cockpit", List.of("echo", "\"hi\""), Instant.now(),
+            Duration.ofMillis(1500), Duration.ofMillis(20), 42, 0, null));
+        report.recordCommand(new RunReport.CommandRecord("cockpit", List.of("false"), Instant.now(),
+            Duration.ofMillis(5), Duration.ZERO, 6, 1, "error\n"));
+
+        String json = report.toJson();
+
+        assertTrue(json.contains("\"name\": \"cockpit\""));
+        assertTrue(json.contains("\"command\": \"echo \\\"hi\\\"\""));
+        assertTrue(json.contains("\"wallMillis\": 1500"));
+        assertTrue(json.contains("\"cpuMillis\": 20"));
+        assertTrue(json.contains("\"outputBytes\": 42"));
+        assertTrue(json.contains("\"exitCode\": 0, \"outcome\": \"ok\"}"));
+        assertTrue(json.contains("\"exitCode\": 1, \"outcome\": \"failed\", \"outputTail\": \"error\\n\"}"));
+        assertTrue(json.contains("\"criticalPath\": [\"cockpit\"]"));
+    }
+
+    @Test
+    void commandOutcomeDistinguishesTerminatedCommands() {
+        assertEquals("timed-out", new RunReport.CommandRecord(null, List.of("sleep"), Instant.now(), Duration.ZERO,
+            Duration.ZERO, 0, PostInstallUpdater.EXIT_TIMED_OUT, null).outcome());
+        assertEquals("stalled", new RunReport.CommandRecord(null, List.of("sleep"), Instant.now(), Duration.ZERO,
+            Duration.ZERO, 0, PostInstallUpdater.EXIT_STALLED, null).outcome());
+    }
+
+    @Test
+    void writeCreatesJsonFileInDirectory(@TempDir Path tmp) throws IOException {
+        Path file = report.write(tmp.resolve("state"));
+
+        assertTrue(Files.exists(file));
+        assertTrue(file.getFileName().toString().endsWith(".json"));
+        assertTrue(Files.readString(file).startsWith("{"));
+    }
+
+    @Test
+    void writeDoesNotOverwriteReportStartedAtTheSameTime(@TempDir Path tmp) throws IOException {
+        Path first = report.write(tmp);
+        Path second = report.write(tmp);
+
+        assertNotEquals(first, second);
+        assertTrue(Files.exists(first));
+        assertTrue(Files.exists(second));
+    }
+
+    @Test
+    void countingInputStreamCountsBytesRead() throws IOException {
+        AtomicLong count = new AtomicLong();
+        try (InputStream in = new RunReport.CountingInputStream(new ByteArrayInputStream(new byte[10]), count)) {
+            in.read();
+            in.readAllBytes();
+        }
+
+        assertEquals(10, count.get());
+    }
+
+    @Test
+    void sampleCpuWaitsForProcessToExit() throws Exception {
+        Process process = new ProcessBuilder("sleep", "0.3").start();
+
+        Duration cpu = RunReport.sampleCpu(process.toHandle()).get();
+
+        assertFalse(process.isAlive());
+        assertFalse(cpu.isNegative());
+    }
+}
@@ -0,0 +1,134 @@
+package cf.maybelambda.fedora;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SessionLogTests {
+    @TempDir
+    Path dir;
+
+    private static String read(Path file) throws IOException {
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private List<Path> logFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.sorted().toList();
+        }
+    }
+
+    @Test
+    void constructorRejectsKeepingNoFiles() {
+        assertThrows(IllegalArgumentException.class, () -> new SessionLog(dir, 1024, 0));
+    }
+
+    @Test
+    void closeWritesEventsAndOutputToCompressedFile() throws IOException {
+        SessionLog log = SessionLog.open(dir);
+
+        log.event("Executing: dnf install vim");
+        log.output("dnf-install", "Installing vim\nignored".getBytes(StandardCharsets.UTF_8), 0, 15);
+        log.close();
+
+        String content = read(log.getFile());
+        assertTrue(content.startsWith("--- "));
+        assertTrue(content.contains(" Executing: dnf install vim\n[dnf-install] Installing vim\n"));
+    }
+
+    @Test
+    void entriesBeyondPendingByteLimitAreDropped() {
+        // Not started, so nothing is drained
+        SessionLog log = new SessionLog(dir, 1024, 1);
+        // Logged with the prefix "[a] " and a line end, two entries fill the limit
+        byte[] chunk = new byte[(int) (SessionLog.MAX_PENDING_BYTES / 2) - 5];
+
+        log.output("a", chunk, 0, chunk.length);
+        log.output("a", chunk, 0, chunk.length);
+        log.output("a", new byte[1], 0, 1);
+
+        assertEquals(1, log.getDropped());
+    }
+
+    @Test
+    void teeToForwardsBytesAndLogsWholePrefixedLines() throws IOException {
+        SessionLog log = SessionLog.open(dir);
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        ByteArrayOutputStream other = new ByteArrayOutputStream();
+
+        try (OutputStream tee = log.teeTo(console, "dnf-install"); OutputStream concurrent = log.teeTo(other, "flatpak")) {
+            tee.write("out".getBytes(StandardCharsets.UTF_8));
+            concurrent.write("app\n".getBytes(StandardCharsets.UTF_8));
+            tee.write("put\nlast".getBytes(StandardCharsets.UTF_8));
+        }
+        log.close();
+
+        assertEquals("output\nlast", console.toString(StandardCharsets.UTF_8));
+        assertEquals("[flatpak] app\n[dnf-install] output\n[dnf-install] last\n", read(log.getFile()));
+    }
+
+    @Test
+    void sessionsStartedAtTheSameTimeWriteToDifferentFiles() throws IOException {
+        SessionLog first = SessionLog.open(dir);
+        SessionLog second = SessionLog.open(dir);
+        SessionLog third = SessionLog.open(dir);
+        first.event("first");
+        second.event("second");
+        third.event("third");
+        first.close();
+        second.close();
+        third.close();
+
+        assertEquals(3, logFiles().size());
+        assertTrue(read(first.getFile()).contains(" first\n"));
+        assertTrue(read(second.getFile()).contains(" second\n"));
+        assertTrue(read(third.getFile()).contains(" third\n"));
+    }
+
+    @Test
+    void filesAreRotatedAndOldestRemoved() throws IOException {
+        SessionLog log = new SessionLog(dir, 256, 3);
+        log.start();
+        byte[] noise = new byte[1024];
+        Random random = new Random(42);
+        for (int i = 0; i < 8; i++) {
+            random.nextBytes(noise);
+            log.output("a", noise, 0, noise.length);
+        }
+        log.close();
+
+        List<Path> files = logFiles();
+        assertEquals(3, files.size());
+        assertTrue(files.getFirst().getFileName().toString().compareTo(log.getFile().getFileName().toString()) > 0);
+        for (Path file : files) {
+            read(file);
+        }
+    }
+
+    @Test
+    void entriesAfterCloseAreDropped() throws IOException {
+        SessionLog log = SessionLog.open(dir);
+        log.close();
+
+        log.event("late");
+
+        assertEquals(1, log.getDropped());
+    }
+}
@@ -0,0 +1,159 @@
+package cf.maybelambda.fedora;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+class StepSchedulerTests {
+    private final List<String> log = new CopyOnWriteArrayList<>();
+
+    private SetupStep step(String name, Set<String> deps, Set<String> resources) {
+        return new SetupStep(name, deps, resources, () -> log.add(name));
+    }
+
+    @Test
+    void constructorRejectsNonPositiveParallelism() {
+        assertThrows(IllegalArgumentException.class, () -> new StepScheduler(0));
+    }
+
+    @Test
+    void executeRunsStepsInDeclarationOrderWhenSequential() {
+        List<SetupStep> steps = List.of(
+            step("a", Set.of(), Set.of("dnf")),
+            step("b", Set.of("a"), Set.of("dnf")),
+            step("c", Set.of(), Set.of()),
+            step("d", Set.of("b"), Set.of())
+        );
+
+        List<String> unfinished = new StepScheduler(1).execute(steps);
+
+        assertTrue(unfinished.isEmpty());
+        assertEquals(List.of("a", "b", "c", "d"), log);
+    }
+
+    @Test
+    void executeIgnoresDependenciesOnStepsNotPlanned() {
+        List<String> unfinished = new StepScheduler(1).execute(List.of(step("b", Set.of("a"), Set.of())));
+
+        assertTrue(unfinished.isEmpty());
+        assertEquals(List.of("b"), log);
+    }
+
+    @Test
+    void executeRunsIndependentStepsConcurrently() throws Exception {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        Runnable waitForOther = () -> {
+            bothStarted.countDown();
+            try {
+                if (!bothStarted.await(5, TimeUnit.SECONDS)) throw new IllegalStateException("not concurrent");
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        List<SetupStep> steps = List.of(
+            new SetupStep("dnf", Set.of(), Set.of("dnf"), waitForOther),
+            new SetupStep("flatpak", Set.of(), Set.of("flatpak"), waitForOther)
+        );
+
+        List<String> unfinished = new StepScheduler(2).execute(steps);
+
+        assertTrue(unfinished.isEmpty());
+    }
+
+    @Test
+    void executeNeverRunsStepsSharingAResourceConcurrently() {
+        AtomicInteger holders = new AtomicInteger();
+        AtomicInteger maxHolders = new AtomicInteger();
+        Runnable useLock = () -> {
+            maxHolders.accumulateAndGet(holders.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            holders.decrementAndGet();
+        };
+        List<SetupStep> steps = List.of(
+            new SetupStep("a", Set.of(), Set.of("dnf"), useLock),
+            new SetupStep("b", Set.of(), Set.of("dnf"), useLock),
+            new SetupStep("c", Set.of(), Set.of("dnf"), useLock)
+        );
+
+        new StepScheduler(3).execute(steps);
+
+        assertEquals(1, maxHolders.get());
+    }
+
+    @Test
+    void executeSkipsDependentsOfFailedStep() {
+        List<SetupStep> steps = List.of(
+            new SetupStep("a", Set.of(), Set.of(), () -> { throw new IllegalStateException("boom"); }),
+            step("b", Set.of("a"), Set.of()),
+            step("c", Set.of("b"), Set.of()),
+            step("d", Set.of(), Set.of())
+        );
+
+        List<String> unfinished = new StepScheduler(1).execute(steps);
+
+        assertEquals(List.of("a", "b", "c"), unfinished);
+        assertEquals(List.of("d"), log);
+    }
+
+    @Test
+    void executeSkipsStepsWithCyclicDependencies() {
+        List<SetupStep> steps = List.of(
+            step("a", Set.of("b"), Set.of()),
+            step("b", Set.of("a"), Set.of())
+        );
+
+        List<String> unfinished = new StepScheduler(2).execute(steps);
+
+        assertEquals(List.of("a", "b"), unfinished);
+        assertTrue(log.isEmpty());
+    }
+
+    @Test
+    void executeRejectsDuplicateStepNames() {
+        List<SetupStep> steps = List.of(step("a", Set.of(), Set.of()), step("a", Set.of(), Set.of()));
+
+        assertThrows(IllegalArgumentException.class, () -> new StepScheduler(1).execute(steps));
+    }
+
+    @Test
+    void executeExposesDeadlineToStepAndFailsStepThatExceedsIt() {
+        List<Instant> deadlines = new ArrayList<>();
+        List<SetupStep> steps = List.of(
+            new SetupStep("slow", Set.of(), Set.of(), () -> {
+                deadlines.add(StepScheduler.currentDeadline());
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }),
+            step("after", Set.of("slow"), Set.of()),
+            step("other", Set.of(), Set.of())
+        );
+
+        List<String> unfinished = new StepScheduler(1, null, Duration.ofMillis(100)).execute(steps);
+
+        assertEquals(List.of("slow", "after"), unfinished);
+        assertEquals(List.of("other"), log);
+        assertNotNull(deadlines.get(0));
+        assertNull(StepScheduler.currentDeadline());
+    }
+}
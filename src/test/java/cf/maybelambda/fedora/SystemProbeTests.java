@@ -0,0 +1,97 @@
+package cf.maybelambda.fedora;
+
+import static cf.maybelambda.fedora.SystemProbe.DNF_CONF;
+import static cf.maybelambda.fedora.SystemProbe.DNF_DROP_IN_DIR;
+import static cf.maybelambda.fedora.SystemProbe.FLATPAK_REPO_CONFIG;
+import static cf.maybelambda.fedora.SystemProbe.GROUP_FILE;
+import static cf.maybelambda.fedora.SystemProbe.RPM_GPG_KEY_DIR;
+import static cf.maybelambda.fedora.SystemProbe.SYSTEMD_RUNTIME_UNIT_DIR;
+import static cf.maybelambda.fedora.SystemProbe.SYSTEMD_UNIT_DIR;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SystemProbeTests {
+    @TempDir
+    Path root;
+
+    private void write(String path, String content) throws IOException {
+        Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    @Test
+    void groupProbesReadGroupFile() throws IOException {
+        write(GROUP_FILE, "wheel:x:10:alice,bob\ndocker:x:975:\n");
+        SystemProbe probe = new SystemProbe(root);
+
+        assertTrue(probe.groupExists("docker"));
+        assertFalse(probe.groupExists("libvirt"));
+        assertTrue(probe.isMember("wheel", "bob"));
+        assertFalse(probe.isMember("docker", "bob"));
+        assertFalse(probe.isMember("libvirt", "bob"));
+    }
+
+    @Test
+    void hasFlatpakRemoteFindsRemoteSection() throws IOException {
+        write(FLATPAK_REPO_CONFIG, "[core]\nrepo_version=1\n\n[remote \"flathub\"]\nurl=https://dl.flathub.org/repo/\n");
+        SystemProbe probe = new SystemProbe(root);
+
+        assertTrue(probe.hasFlatpakRemote("flathub"));
+        assertFalse(probe.hasFlatpakRemote("fedora"));
+    }
+
+    @Test
+    void unitProbesFollowSystemdLinks() throws IOException {
+        Path wants = Files.createDirectories(root.resolve(SYSTEMD_UNIT_DIR).resolve("sockets.target.wants"));
+        Files.createSymbolicLink(wants.resolve("cockpit.socket"), Path.of("/usr/lib/systemd/system/cockpit.socket"));
+        Path units = Files.createDirectories(root.resolve(SYSTEMD_RUNTIME_UNIT_DIR));
+        Files.createSymbolicLink(units.resolve("invocation:cockpit.socket"), Path.of("0123456789abcdef"));
+        SystemProbe probe = new SystemProbe(root);
+
+        assertTrue(probe.isUnitEnabled("cockpit.socket"));
+        assertTrue(probe.isUnitActive("cockpit.socket"));
+        assertFalse(probe.isUnitEnabled("sshd.service"));
+        assertFalse(probe.isUnitActive("sshd.service"));
+    }
+
+    @Test
+    void hasRpmKeyLooksUpKeyFileNameOfUrl() throws IOException {
+        write(RPM_GPG_KEY_DIR + "/RPM-GPG-KEY-rpmfusion-free-fedora-2020", "key");
+        SystemProbe probe = new SystemProbe(root);
+
+        assertTrue(probe.hasRpmKey("https://rpmfusion.org/keys?action=AttachFile&do=get&target=RPM-GPG-KEY-rpmfusion-free-fedora-2020"));
+        assertFalse(probe.hasRpmKey("https://rpmfusion.org/keys?action=AttachFile&do=get&target=RPM-GPG-KEY-rpmfusion-nonfree-fedora-2020"));
+    }
+
+    @Test
+    void hasDnfSettingReadsMainSectionWithDropInsOverridingDnfConf() throws IOException {
+        write(DNF_CONF, "[main]\nmax_parallel_downloads=3\nkeepcache=1\n\n[updates]\nfastestmirror=True\n");
+        write(DNF_DROP_IN_DIR + "/20-a.conf", "[main]\nmax_parallel_downloads=5\n");
+        write(DNF_DROP_IN_DIR + "/80-b.conf", "[main]\n# max_parallel_downloads=1\nmax_parallel_downloads = 10\n");
+        SystemProbe probe = new SystemProbe(root);
+
+        assertTrue(probe.hasDnfSetting("max_parallel_downloads", "10"));
+        assertTrue(probe.hasDnfSetting("keepcache", "True"));
+        assertFalse(probe.hasDnfSetting("fastestmirror", "True"));
+    }
+
+    @Test
+    void probesReportNothingWithoutRootOrFiles() {
+        for (SystemProbe probe : new SystemProbe[]{SystemProbe.unknown(), new SystemProbe(root)}) {
+            assertFalse(probe.groupExists("wheel"));
+            assertFalse(probe.hasFlatpakRemote("flathub"));
+            assertFalse(probe.isUnitEnabled("cockpit.socket"));
+            assertFalse(probe.isUnitActive("cockpit.socket"));
+            assertFalse(probe.hasRpmKey("https://example.org/key"));
+            assertFalse(probe.hasDnfSetting("keepcache", "True"));
+        }
+    }
+}